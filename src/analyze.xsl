@@ -1,11 +1,12 @@
 <?xml version="1.0"?>
 <xsl:stylesheet xmlns:xsl="http://www.w3.org/1999/XSL/Transform" version="1.0">
 	<xsl:output method="html"/>
+	<xsl:key name="windowsByCall" match="timeseries/window" use="@call"/>
 	<xsl:template match="/">
 
 		<table border="1">
 			<tr>
-				<th colspan="7">
+				<th colspan="11">
 					<xsl:value-of select="//analyze/@name" /> (<xsl:value-of select="//analyze/@duration" /> ms)
 					<xsl:for-each select="analyze/property">
 						<br/> <i><xsl:value-of select="@name" />=<xsl:value-of select="@value" /></i>
@@ -15,7 +16,7 @@
 					    
 			<tr>
 				<th rowspan="2">Call name</th>
-				<th colspan="6">Statistics</th>
+				<th colspan="10">Statistics</th>
 			</tr>
 			<tr>
 				<th>Count</th>
@@ -24,6 +25,10 @@
 				<th>Minimum (ms)</th>
 				<th>Maximum (ms)</th>
 				<th>Average (ms)</th>
+				<th>Std dev (ms)</th>
+				<th>p50 (ms)</th>
+				<th>p95 (ms)</th>
+				<th>p99 (ms)</th>
 			</tr>
 			<xsl:for-each select="analyze/call">
 				<tr>
@@ -48,9 +53,94 @@
 					<td>
 						<xsl:value-of select="@avg" />
 					</td>
+					<td>
+						<xsl:value-of select="@stddev" />
+					</td>
+					<td>
+						<xsl:value-of select="@p50" />
+					</td>
+					<td>
+						<xsl:value-of select="@p95" />
+					</td>
+					<td>
+						<xsl:value-of select="@p99" />
+					</td>
 				</tr>
 			</xsl:for-each>
+			<xsl:if test="analyze/timeseries/window">
+				<tr>
+					<td colspan="11">
+						<xsl:apply-templates select="analyze/timeseries"/>
+					</td>
+				</tr>
+			</xsl:if>
 		</table>
 
 	</xsl:template>
+
+	<!-- Latency over time: p95 of each call per window -->
+	<xsl:template match="timeseries">
+		<xsl:variable name="width" select="800"/>
+		<xsl:variable name="height" select="200"/>
+		<xsl:variable name="end" select="window[last()]/@start + @window"/>
+		<xsl:variable name="highestP95">
+			<xsl:for-each select="window">
+				<xsl:sort select="@p95" data-type="number" order="descending"/>
+				<xsl:if test="position() = 1">
+					<xsl:value-of select="@p95"/>
+				</xsl:if>
+			</xsl:for-each>
+		</xsl:variable>
+		<xsl:variable name="maxP95">
+			<xsl:choose>
+				<xsl:when test="$highestP95 &gt; 0"><xsl:value-of select="$highestP95"/></xsl:when>
+				<xsl:otherwise>1</xsl:otherwise>
+			</xsl:choose>
+		</xsl:variable>
+
+		<b>Latency over time</b> (p95 in ms, windows of <xsl:value-of select="@window"/> ms, max <xsl:value-of select="$highestP95"/> ms)
+		<br/>
+		<svg width="{$width}" height="{$height + 10}">
+			<rect x="0" y="0" width="{$width}" height="{$height + 10}" fill="white" stroke="gray"/>
+			<xsl:for-each select="window[generate-id() = generate-id(key('windowsByCall', @call)[1])]">
+				<xsl:variable name="color">
+					<xsl:call-template name="color">
+						<xsl:with-param name="index" select="position()"/>
+					</xsl:call-template>
+				</xsl:variable>
+				<polyline fill="none" stroke="{$color}" stroke-width="2">
+					<xsl:attribute name="points">
+						<xsl:for-each select="key('windowsByCall', @call)">
+							<xsl:value-of select="format-number((@start + ../@window div 2) * $width div $end, '0.#')"/>
+							<xsl:text>,</xsl:text>
+							<xsl:value-of select="format-number(5 + $height - @p95 * $height div $maxP95, '0.#')"/>
+							<xsl:text> </xsl:text>
+						</xsl:for-each>
+					</xsl:attribute>
+				</polyline>
+			</xsl:for-each>
+		</svg>
+		<br/>
+		<xsl:for-each select="window[generate-id() = generate-id(key('windowsByCall', @call)[1])]">
+			<xsl:variable name="color">
+				<xsl:call-template name="color">
+					<xsl:with-param name="index" select="position()"/>
+				</xsl:call-template>
+			</xsl:variable>
+			<font color="{$color}">&#9632; <xsl:value-of select="@call"/></font>
+			<xsl:text> </xsl:text>
+		</xsl:for-each>
+	</xsl:template>
+
+	<xsl:template name="color">
+		<xsl:param name="index"/>
+		<xsl:choose>
+			<xsl:when test="$index mod 6 = 1">#1f77b4</xsl:when>
+			<xsl:when test="$index mod 6 = 2">#ff7f0e</xsl:when>
+			<xsl:when test="$index mod 6 = 3">#2ca02c</xsl:when>
+			<xsl:when test="$index mod 6 = 4">#d62728</xsl:when>
+			<xsl:when test="$index mod 6 = 5">#9467bd</xsl:when>
+			<xsl:otherwise>#8c564b</xsl:otherwise>
+		</xsl:choose>
+	</xsl:template>
 </xsl:stylesheet>
\ No newline at end of file
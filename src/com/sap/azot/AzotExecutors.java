@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors used to run the workflow nodes concurrently.
+ *
+ * Virtual threads are used when the JVM provides them (Java 21+) and <code>azot-virtual-threads</code> is not
+ * <code>false</code>, platform threads otherwise.
+ *
+ * @author amuller
+ */
+public final class AzotExecutors {
+
+	private static final Method NEW_VIRTUAL_THREAD_EXECUTOR;
+	static {
+		Method method = null;
+		try {
+			method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (final Exception e) {
+			// Virtual threads not available
+		}
+		NEW_VIRTUAL_THREAD_EXECUTOR = method;
+	}
+
+	private AzotExecutors() {}
+
+	public static boolean isVirtualThreadAvailable() {
+		return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+	}
+
+	/**
+	 * Create an executor running at most <code>maxConcurrency</code> tasks at the same time.
+	 *
+	 * @param name prefix of the thread names (platform threads only)
+	 * @param maxConcurrency
+	 * @param virtualThreads <code>true</code> to run the tasks on virtual threads when available
+	 * @return
+	 */
+	public static ExecutorService newBoundedExecutor(final String name, final int maxConcurrency, final boolean virtualThreads) {
+		if (virtualThreads && isVirtualThreadAvailable()) {
+			try {
+				final ExecutorService virtualExecutor = (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+				return new GatedExecutorService(virtualExecutor, maxConcurrency);
+			} catch (final Exception e) {
+				// Fallback on platform threads
+			}
+		}
+
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(name));
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Daemon threads named after the given prefix.
+	 */
+	static class NamedThreadFactory implements ThreadFactory {
+
+		private final String prefix;
+		private final AtomicInteger counter = new AtomicInteger();
+
+		NamedThreadFactory(final String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			final Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	/**
+	 * Executor limiting the number of tasks running at the same time on an unbounded executor.
+	 */
+	static class GatedExecutorService extends AbstractExecutorService {
+
+		private final ExecutorService delegate;
+		private final Semaphore permits;
+
+		GatedExecutorService(final ExecutorService delegate, final int maxConcurrency) {
+			this.delegate = delegate;
+			this.permits = new Semaphore(maxConcurrency, true);
+		}
+
+		@Override
+		public void execute(final Runnable command) {
+			delegate.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						permits.acquire();
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+						if (command instanceof Future) {
+							((Future<?>) command).cancel(false);
+						}
+						return;
+					}
+					try {
+						command.run();
+					} finally {
+						permits.release();
+					}
+				}
+			});
+		}
+
+		@Override
+		public void shutdown() {
+			delegate.shutdown();
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return delegate.shutdownNow();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return delegate.isShutdown();
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return delegate.isTerminated();
+		}
+
+		@Override
+		public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+			return delegate.awaitTermination(timeout, unit);
+		}
+	}
+}
@@ -16,39 +16,48 @@
 package com.sap.azot;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
 
 import com.sap.azot.analyze.AnalyzeLauncher;
+import com.sap.azot.log.Log;
+import com.sap.azot.log.LogSink;
+import com.sap.azot.metrics.MetricsRegistry;
+import com.sap.azot.plan.ExecutionPlan;
+import com.sap.azot.transport.HttpTransports;
 
 /**
  * @author amuller
  */
 public class Launcher {
 
-	private static final Unmarshaller UNMARSHALLER;
-	static {
-		try {
-			final ClassLoader azotCL = ObjectFactory.class.getClassLoader();
-			final JAXBContext context = JAXBContext.newInstance("com.sap.azot", azotCL);
-			UNMARSHALLER = context.createUnmarshaller();
-		} catch (final JAXBException e) {
-			throw new AzotException(e);
-		}
-	}
-
-	private final ThreadGroup workflowGroup = new ThreadGroup("AzotWorkflowGroup");
 	private final ThreadGroup jmxGroup = new ThreadGroup("AzotJMXGroup");
 
+	/** Configuration of the run */
+	private final RunConfig config;
+
+	/** Runner of the forked workflows, shared by the nested launchers */
+	private final WorkflowRunner runner;
+
+	/** Verbose and debug output of the launches (console) */
+	private final Log log;
+
 	private boolean fork = false;
 
+	public Launcher(final RunConfig config) {
+		this(new WorkflowRunner(config));
+	}
+
+	public Launcher(final WorkflowRunner runner) {
+		this.runner = runner;
+		this.config = runner.getConfig();
+		this.log = Log.console(LogSink.get(config), config.VERBOSE || config.DEBUG);
+	}
+
 	/**
 	 * Launch Azot.
 	 *
@@ -75,83 +84,82 @@ public class Launcher {
 			System.exit(1);
 		}
 		
-		// Initialize the plugins manager
-		PluginsManager.init(UNMARSHALLER);
-		
-		// Initialize the launcher
-		final Launcher mainlauncher = new Launcher();
-		final List<Variable> initVariables = mainlauncher.init(azotProperties, args);
-
-		final String workflowFileArgument = args[0];
-		if (workflowFileArgument != null) {
-			mainlauncher.launch(new File(workflowFileArgument), initVariables);
-		}
+		// Initialize the launcher (and the shared state)
+		final Launcher mainlauncher = new Launcher(RunConfig.load(azotProperties));
+		final VariableScope initVariables = mainlauncher.init(args);
 
-		while (mainlauncher.getWorkflowGroup().activeCount() > 0) {
-			try {
-				Thread.sleep(1000);
-			} catch (final InterruptedException e) {
-				throw new AzotException(e);
+		try {
+			final String workflowFileArgument = args[0];
+			if (workflowFileArgument != null) {
+				mainlauncher.launch(new File(workflowFileArgument), initVariables);
 			}
-		}
 
-		while (mainlauncher.getJMXGroup().activeCount() > 0) {
-			try {
-				mainlauncher.getJMXGroup().interrupt();
-				Thread.sleep(100);
-			} catch (final InterruptedException e) {
-				throw new AzotException(e);
+			// Wait for the forked workflows
+			final List<Throwable> failures = mainlauncher.getRunner().join();
+
+			while (mainlauncher.getJMXGroup().activeCount() > 0) {
+				try {
+					mainlauncher.getJMXGroup().interrupt();
+					Thread.sleep(100);
+				} catch (final InterruptedException e) {
+					throw new AzotException(e);
+				}
 			}
-		}
 		
-		if (AzotConfig.GLOBAL.ANALYZE) {
-			AnalyzeLauncher.main(new String[] {AzotConfig.GLOBAL.OUTPUT_DIRECTORY.getAbsolutePath()});
+			if (mainlauncher.getConfig().ANALYZE) {
+				AnalyzeLauncher.main(new String[] {mainlauncher.getConfig().OUTPUT_DIRECTORY.getAbsolutePath(), String.valueOf(mainlauncher.getConfig().ANALYZE_PARALLELISM), String.valueOf(mainlauncher.getConfig().ANALYZE_WINDOW)});
+			}
+
+			if (!failures.isEmpty()) {
+				final AzotException failure = new AzotException(failures.size() + " forked workflow(s) failed", failures.get(0));
+				for (int i = 1; i < failures.size(); i++) {
+					failure.addSuppressed(failures.get(i));
+				}
+				throw failure;
+			}
+		} finally {
+			mainlauncher.log.flush();
+			// The endpoint threads would keep the JVM alive
+			MetricsRegistry.stopEndpoint();
 		}
 	}
 
-	public ThreadGroup getWorkflowGroup() {
-		return workflowGroup;
+	public RunConfig getConfig() {
+		return config;
+	}
+
+	public WorkflowRunner getRunner() {
+		return runner;
 	}
 
 	public ThreadGroup getJMXGroup() {
 		return jmxGroup;
 	}
 
-	private List<Variable> init(final Properties customProperties, final String... args)
+	/**
+	 * Initialize the state shared by all the workflows of the JVM (plugins, HTTP transport, metrics).
+	 *
+	 * @param args command line variables (<code>id=value</code>, or a value identified by its position)
+	 * @return the initial variables: the properties of the configuration, then the command line variables
+	 */
+	public VariableScope init(final String... args)
 	{
 		jmxGroup.setMaxPriority(Thread.MAX_PRIORITY);
-		
-		final Properties azotProperties = new Properties();
-
-		// Property file variables
-		final File azotConfig = new File("./azot.properties");
-		final List<Variable> initVariables = new ArrayList<Variable>();
-		if (azotConfig.exists() && azotConfig.isFile()) {
-			try {
-				azotProperties.load(new FileInputStream(azotConfig));
-			} catch (final IOException e) {
-				throw new AzotException(e);
-			}
-
-			if (AzotConfig.GLOBAL.DEBUG) {
-				System.out.println("Reading azot.properties...");
-			}
-		}
-
-		if (customProperties != null) {
-			azotProperties.putAll(customProperties);
-		}
 
-		// Init Azot configuration
-		AzotConfig.GLOBAL.init(azotProperties);
+		// Initialize the plugins manager, the HTTP transport and the metrics (only the first time)
+		PluginsManager.init(WorkflowCache.getUnmarshaller(), config);
+		HttpTransports.init(config);
+		MetricsRegistry.init(config);
 
+		final VariableScope initVariables = new VariableScope(config.DEBUG ? log : null);
+		final Properties azotProperties = config.getProperties();
 		for (final Object propKey : azotProperties.keySet()) {
 			String key = (String) propKey;
 
-			Variable newVariable = VariableHelper.addOrUpdateVariable(key, azotProperties.getProperty(key), true, false, initVariables);
+			Variable newVariable = initVariables.addOrUpdate(key, azotProperties.getProperty(key), true, false);
 
-			if (AzotConfig.GLOBAL.DEBUG) {
-				System.out.println("Setting variable: ${" + newVariable.getId() + "} = " + newVariable.getValue());
+			if (config.DEBUG) {
+				log.println("Setting variable: ${{}} = {}", newVariable.getId(), newVariable.getValue());
 			}
 		}
 
@@ -170,16 +178,16 @@ public class Launcher {
 				varValue = args[i];
 			}
 
-			final Variable newVariable = VariableHelper.addOrUpdateVariable(varId, varValue, true, false, initVariables);
+			final Variable newVariable = initVariables.addOrUpdate(varId, varValue, true, false);
 
-			if (AzotConfig.GLOBAL.DEBUG) {
-				System.out.println("Setting variable: ${" + newVariable.getId() + "} = " + newVariable.getValue());
+			if (config.DEBUG) {
+				log.println("Setting variable: ${{}} = {}", newVariable.getId(), newVariable.getValue());
 			}
 		}
 
 		/*
-		if (AzotConfig.GLOBAL.JMX != null) {
-			final String[] jmxParams = AzotConfig.GLOBAL.JMX.split(",");
+		if (config.JMX != null) {
+			final String[] jmxParams = config.JMX.split(",");
 			for (final String jmxParam : jmxParams) {
 				try {
 					int sampling = 100;
@@ -191,7 +199,7 @@ public class Launcher {
 					}
 					final String jmxConnection = jmxParam.split(";")[0];
 					final JMXMonitoring jmxMonitoring = new JMXMonitoring(jmxGroup, jmxConnection, sampling);
-					jmxMonitoring.setOutputFile(new File(AzotConfig.GLOBAL.OUTPUT_DIRECTORY, "profile-" + jmxConnection.replace(':', '_') + ".xml"));
+					jmxMonitoring.setOutputFile(new File(config.OUTPUT_DIRECTORY, "profile-" + jmxConnection.replace(':', '_') + ".xml"));
 					jmxMonitoring.begin();
 				} catch (final Exception e) {
 					e.printStackTrace();
@@ -214,92 +222,109 @@ public class Launcher {
 	}
 
 	/**
-	 * Launch the given workflow.
+	 * Launch the given workflow, then wait for it and for the workflows it forks.
 	 *
 	 * @param workflowFile
-	 * @throws JAXBException
+	 * @param inheritedVariables
+	 * @return the failures of the forked workflows (empty if all of them succeeded)
 	 */
-	public void launch(final File workflowFile, final List<Variable> inheritedVariables) {
+	public List<Throwable> launchAndJoin(final File workflowFile, final VariableScope inheritedVariables) {
+		launch(workflowFile, inheritedVariables);
+		return runner.join();
+	}
+
+	/**
+	 * Launch the given workflow (asynchronously if the launcher forks).
+	 *
+	 * @param workflowFile
+	 * @param inheritedVariables
+	 * @return the future of the workflow, already done if the launcher doesn't fork
+	 */
+	public Future<?> launch(final File workflowFile, final VariableScope inheritedVariables) {
 
-		final Workflow workflow;
+		final ExecutionPlan plan;
 		try {
-			workflow = (Workflow) UNMARSHALLER.unmarshal(workflowFile);
+			// Compiled once, shared by the launches
+			plan = WorkflowCache.get(workflowFile);
 		} catch (final JAXBException e) {
 			throw new AzotException(e);
 		}
 
-		if (workflow != null)
+		if (plan != null)
 		{
-			final WorkflowStarter workflowStarter = new WorkflowStarter(workflowFile, inheritedVariables, workflow);
+			final WorkflowStarter workflowStarter = new WorkflowStarter(workflowFile, inheritedVariables, plan);
 
 			// Asynchrone
 			if (isFork()) {
-				final Thread workflowThread = new Thread(getWorkflowGroup(), workflowStarter);
-				workflowThread.start();    	
+				return runner.fork(workflowStarter);
 			}
 			// Synchrone
 			else {
 				workflowStarter.run();
 			}
 		}
+
+		final FutureTask<Void> done = new FutureTask<Void>(new Runnable() {
+			@Override
+			public void run() {
+			}
+		}, null);
+		done.run();
+		return done;
 	}
 
 	class WorkflowStarter implements Runnable {
 
-		private final Workflow workflow;
+		private final ExecutionPlan plan;
 		private final File workflowFile;
-		private final List<Variable> inheritedVariables;
+		private final VariableScope inheritedVariables;
 
-		public WorkflowStarter(final File workflowFile, final List<Variable> inheritedVariables, final Workflow workflow) 
+		public WorkflowStarter(final File workflowFile, final VariableScope inheritedVariables, final ExecutionPlan plan) 
 		{
 			this.workflowFile = workflowFile;
 			this.inheritedVariables = inheritedVariables;
-			this.workflow = workflow;
+			this.plan = plan;
 		}
 
 		@Override
 		public void run() {
-			if(workflow.getContext() == null) {
-				workflow.setContext(new Context());
+			if (config.DEBUG) {
+				log.println("Reading {}...", workflowFile);
 			}
 
-			if (AzotConfig.GLOBAL.DEBUG) {
-				System.out.println("Reading " + workflowFile + "...");
+			// Context variables, hiding the inherited ones
+			final VariableScope workflowVariables = new VariableScope(inheritedVariables);
+			final List<Variable> contextVariables = plan.getContextVariables();
+			for (final Variable contextVariable : contextVariables) {
+				workflowVariables.declare(VariableHelper.clone(contextVariable));
 			}
-
-			final List<Variable> contextVariables = workflow.getContext().getVariables();
 			for (final Variable contextVariable : contextVariables) {
 				String value = VariableHelper.substituteVariables(contextVariable.getValue(), inheritedVariables);
-				value = VariableHelper.substituteVariables(value, contextVariables);
-				if (AzotConfig.GLOBAL.DEBUG) {
-					System.out.println("Reading variable: ${" + contextVariable.getId() + "} = " + value + " (overwrite=" + contextVariable.isOverwrite() + ")");
+				value = VariableHelper.substituteVariables(value, workflowVariables);
+				if (config.DEBUG) {
+					log.println("Reading variable: ${{}} = {} (overwrite={})", contextVariable.getId(), value, contextVariable.isOverwrite());
 				}
-				contextVariable.setValue(value);
+				workflowVariables.setValue(contextVariable.getId(), value);
 			}
 
 
-			// Add inherited variables which are not already present into context variables 
-			for (final Variable inheritVariable : inheritedVariables) 
+			// Inherited variables are visible through the parent scope, they replace the context variables which can't be overwritten 
+			for (final Variable contextVariable : contextVariables) 
 			{
-				Variable existingContextVariable = VariableHelper.exist(inheritVariable.getId(), contextVariables);
-				if (existingContextVariable == null) {
-					contextVariables.add(inheritVariable);	    			
-				}
-				else {
-					if(!existingContextVariable.isOverwrite()) {
-						existingContextVariable.setValue(inheritVariable.getValue());
-						if (AzotConfig.GLOBAL.DEBUG) {
-							System.out.println("Setting variable: ${" + existingContextVariable.getId() + "} = " + existingContextVariable.getValue());
-						}
+				final Variable inheritVariable = inheritedVariables.get(contextVariable.getId());
+				if (inheritVariable != null && !contextVariable.isOverwrite()) {
+					workflowVariables.setValue(contextVariable.getId(), inheritVariable.getValue());
+					if (config.DEBUG) {
+						log.println("Setting variable: ${{}} = {}", contextVariable.getId(), inheritVariable.getValue());
 					}
 				}
 			}
 
-			if (AzotConfig.GLOBAL.VERBOSE) {
-				System.out.println("Starting workflow '" + workflow.getName() + "'");
+			if (config.VERBOSE) {
+				log.println("Starting workflow '{}'", plan.getName());
 			}
 
-			new WorkflowEngine(workflow).start();
+			new WorkflowEngine(plan, workflowVariables, runner).start();
 		}
 	}
 }
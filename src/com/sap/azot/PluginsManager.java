@@ -29,6 +29,11 @@ import java.util.Set;
 
 import javax.xml.bind.Unmarshaller;
 
+import com.sap.azot.log.Log;
+import com.sap.azot.log.LogSink;
+import com.sap.azot.plan.PluginNode;
+import com.sap.azot.plan.VariablePlan;
+
 /**
  * @author amuller
  */
@@ -40,22 +45,30 @@ public class PluginsManager {
 	
 	private static Map<String, Method> pluginMethods = null;
 	
-	public static void init(final Unmarshaller unmarshaller) {
+	/**
+	 * Load the plugins of <code>./plugins</code>, only the first time: they are shared by the runs of the JVM
+	 * (the configuration only sets the verbosity of the loading).
+	 *
+	 * @param unmarshaller
+	 * @param config
+	 */
+	public static synchronized void init(final Unmarshaller unmarshaller, final RunConfig config) {
 		if(plugins == null) {
+			final Log log = Log.console(LogSink.get(config), true);
 			plugins = new HashMap<String, Plugin>();
 			pluginClassloaders = new HashMap<String, ClassLoader>();
 			pluginMethods = new HashMap<String, Method>();
 					
 			File pluginsDir = new File("plugins");
 			if(pluginsDir != null && pluginsDir.exists() && pluginsDir.isDirectory()) {
-				System.out.println("Plugins directory found.");
+				log.println("Plugins directory found.");
 				File[] pluginFolders = pluginsDir.listFiles();
 				if (pluginFolders != null) {
 					for (final File pluginFolder : pluginFolders) {
 						if (pluginFolder != null && pluginFolder.exists() && pluginFolder.isDirectory()) {
 							File crtPlugin = new File(pluginFolder, "plugin.xml");
 							if (crtPlugin != null && crtPlugin.exists() && crtPlugin.isFile()) {
-								System.out.println("Reading: " + crtPlugin.getAbsolutePath());
+								log.println("Reading: {}", crtPlugin.getAbsolutePath());
 								try {
 									Object pluginObject = unmarshaller.unmarshal(crtPlugin);
 									if (pluginObject instanceof Plugin) {
@@ -93,12 +106,12 @@ public class PluginsManager {
 										plugins.put(pluginName, plugin);
 										pluginClassloaders.put(pluginName, pluginClassloader);
 										pluginMethods.put(pluginName, pluginMethod);
-										System.out.println("Success: plugin '" + pluginName + "' added.");
+										log.println("Success: plugin '{}' added.", pluginName);
 									}
 								} catch (Exception e) {
-									println("Error: unable to load plugin");
-									if (AzotConfig.GLOBAL.VERBOSE) {
-										System.out.print("Cause: ");
+									if (config.VERBOSE) {
+										log.println("Error: unable to load plugin, cause:");
+										log.flush();
 										e.printStackTrace();
 									}
 								}
@@ -107,28 +120,37 @@ public class PluginsManager {
 					}
 				}
 			}
+			log.flush();
 		}
 	}
 	
-	public static void invokePlugin(final String pluginName, final PluginRef plugin, final List<Variable> variables) {
+	/**
+	 * Invoke a plugin: the properties it returns update the given variables.
+	 *
+	 * @param plugin
+	 * @param variables
+	 * @param log verbose output of the workflow
+	 */
+	public static void invokePlugin(final PluginNode plugin, final VariableScope variables, final Log log) {
+		final String pluginName = plugin.getName();
 		try {
 			if (pluginMethods.get(pluginName) == null) {
 				throw new AzotException("Plugin '" + pluginName + "' not found.");
 			}
 			
-			final List<Variable> inheritedVariables = new ArrayList<Variable>();
-			inheritedVariables.addAll(variables);
+			// The plugin variables are only visible by the plugin
+			final VariableScope inheritedVariables = new VariableScope(variables);
 
-			final List<Variable> pluginVariables = plugin.getVariables();
-			for (final Variable pluginVariable : pluginVariables) {
-				final String newValue = VariableHelper.substituteVariables(pluginVariable.getValue(), inheritedVariables);
-				VariableHelper.addOrUpdateVariable(pluginVariable.getId(), newValue, true, false, inheritedVariables);
+			final List<VariablePlan> pluginVariables = plugin.getVariables();
+			for (final VariablePlan pluginVariable : pluginVariables) {
+				final String newValue = (pluginVariable.getValue() == null) ? null : pluginVariable.getValue().getTemplate().render(inheritedVariables);
+				inheritedVariables.declare(pluginVariable.getId(), newValue);
 			}
 			
 			
 			final Properties inProperties = new Properties();
-			if (inheritedVariables != null) {
-				for (final Variable variable : inheritedVariables) {
+			for (final Variable variable : inheritedVariables.getVariables().values()) {
+				if (variable.getValue() != null) {
 					inProperties.setProperty(variable.getId(), variable.getValue());
 				}
 			}
@@ -145,22 +167,16 @@ public class PluginsManager {
 					final String value = outProperties.getProperty(key);
 					//System.out.println("key: '" + key + "', value: '" + value + "'");
 					
-					println("Plugin returns the property '" + key + "' with value '" + value + "'");
-					VariableHelper.addOrUpdateVariable(key, value, true, false, variables);
+					log.println("Plugin returns the property '{}' with value '{}'", key, value);
+					variables.addOrUpdate(key, value, true, false);
 				}
 			}
 		} catch (Exception e) {
-			println("Error: plugin invocation failed");
-			if (AzotConfig.GLOBAL.VERBOSE) {
-				System.out.print("Cause: ");
+			if (log.isEnabled()) {
+				log.println("Error: plugin invocation failed, cause:");
+				log.flush();
 				e.printStackTrace();
 			}
 		}
 	}
-
-	private static void println(String msg) {
-		if (AzotConfig.GLOBAL.VERBOSE) {
-			System.out.println(msg);
-		}
-	}
 }
@@ -0,0 +1,258 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Configuration of a run, read once from <code>azot.properties</code> and from the custom properties.
+ *
+ * A configuration is immutable: the launchers, the engines, the reports and the plugins of a run share it,
+ * so several runs can use different configurations in the same JVM.
+ *
+ * Except for the components shared by all the runs of the JVM, created from the first configuration (the later
+ * ones cannot change them, a warning lists the settings they ignore):
+ * <ul>
+ * <li>the HTTP transport, the buffer pool and the file cache: <code>azot-transport</code>, <code>azot-pool-size</code>,
+ * <code>azot-pool-idle-timeout</code>, <code>azot-pool-max-requests</code>, <code>azot-direct-buffers</code>,
+ * <code>azot-file-cache-size</code></li>
+ * <li>the log sink: <code>azot-log-buffer-size</code>, <code>azot-log-drop</code></li>
+ * <li>the metrics registry: <code>azot-metrics-jmx</code>, and <code>azot-metrics-port</code> while the endpoint
+ * is running</li>
+ * <li>the plugins, loaded once from <code>./plugins</code></li>
+ * </ul>
+ *
+ * @author amuller
+ */
+public final class RunConfig {
+
+	/** Configuration of the code running without a launcher */
+	public static final RunConfig DEFAULTS = new RunConfig(null);
+
+	public final boolean DEBUG;
+
+	public final boolean VERBOSE;
+
+	public final boolean INTERACTIVE;
+
+	public final boolean DUMP;
+
+	public final boolean REPORT;
+	
+	public final boolean ANALYZE;
+
+	public final int ANALYZE_PARALLELISM;
+
+	public final int ANALYZE_WINDOW;
+	
+	public final File OUTPUT_DIRECTORY;
+	
+	public final String JMX;
+
+	public final boolean METRICS_JMX;
+
+	public final int METRICS_PORT;
+
+	public final String TRANSPORT;
+
+	public final int POOL_SIZE;
+
+	public final long POOL_IDLE_TIMEOUT;
+
+	public final int POOL_MAX_REQUESTS;
+
+	public final boolean DIRECT_BUFFERS;
+
+	public final long FILE_CACHE_SIZE;
+
+	public final int MAX_FORKED_WORKFLOWS;
+
+	public final boolean VIRTUAL_THREADS;
+
+	public final int LOG_BUFFER_SIZE;
+
+	public final boolean LOG_DROP;
+
+	public final String RESULT_SINKS;
+
+	private final Properties properties = new Properties();
+
+	/** Values of the settings (defaults included), to compare two configurations */
+	private final Properties settings = new Properties();
+
+	public RunConfig(final Properties azotProperties) {
+		if (azotProperties != null) {
+			properties.putAll(azotProperties);
+		}
+
+		VERBOSE = toBoolean("azot-verbose", false);
+		DEBUG = toBoolean("azot-debug", false);
+		INTERACTIVE = toBoolean("azot-interactive", false);
+		DUMP = toBoolean("azot-dump", false);
+		REPORT = toBoolean("azot-report", false);
+		ANALYZE = toBoolean("azot-analyze", false);
+		ANALYZE_PARALLELISM = (int) toLong("azot-analyze-parallelism", Runtime.getRuntime().availableProcessors());
+		ANALYZE_WINDOW = (int) toLong("azot-analyze-window", 10000);
+		
+		OUTPUT_DIRECTORY = toFile("azot-output-directory", ".");
+		JMX = toString("azot-jmx", null);
+		METRICS_JMX = toBoolean("azot-metrics-jmx", true);
+		METRICS_PORT = (int) toLong("azot-metrics-port", 0);
+
+		TRANSPORT = toString("azot-transport", "pooled");
+		POOL_SIZE = (int) toLong("azot-pool-size", 8);
+		POOL_IDLE_TIMEOUT = toLong("azot-pool-idle-timeout", 30000);
+		POOL_MAX_REQUESTS = (int) toLong("azot-pool-max-requests", 100);
+		DIRECT_BUFFERS = toBoolean("azot-direct-buffers", false);
+		FILE_CACHE_SIZE = toLong("azot-file-cache-size", 64 * 1024 * 1024);
+		MAX_FORKED_WORKFLOWS = (int) toLong("azot-max-forked-workflows", 256);
+		VIRTUAL_THREADS = toBoolean("azot-virtual-threads", true);
+		LOG_BUFFER_SIZE = (int) toLong("azot-log-buffer-size", 8192);
+		LOG_DROP = toBoolean("azot-log-drop", true);
+		RESULT_SINKS = toString("azot-result-sinks", "junit");
+	}
+
+	/**
+	 * Read <code>./azot.properties</code> (if any), overridden by the given properties.
+	 *
+	 * @param customProperties (can be <code>null</code>)
+	 * @return
+	 */
+	public static RunConfig load(final Properties customProperties) {
+		final Properties azotProperties = new Properties();
+
+		final File azotConfig = new File("./azot.properties");
+		if (azotConfig.exists() && azotConfig.isFile()) {
+			try {
+				final InputStream in = new FileInputStream(azotConfig);
+				try {
+					azotProperties.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (final IOException e) {
+				throw new AzotException(e);
+			}
+		}
+
+		if (customProperties != null) {
+			azotProperties.putAll(customProperties);
+		}
+		return new RunConfig(azotProperties);
+	}
+
+	/**
+	 * Return a copy of the properties of this configuration (they are also the initial variables of the run).
+	 *
+	 * @return
+	 */
+	public Properties getProperties() {
+		final Properties copy = new Properties();
+		copy.putAll(properties);
+		return copy;
+	}
+
+	/**
+	 * Warn that the settings of this configuration which differ from the ones of the configuration a component
+	 * shared by the runs of the JVM was created from are ignored.
+	 *
+	 * @param component
+	 * @param first configuration the component was created from
+	 * @param keys settings of the component
+	 */
+	public void warnIgnoredSettings(final String component, final RunConfig first, final String... keys) {
+		if (first == this) {
+			return;
+		}
+		final List<String> ignored = new ArrayList<String>();
+		for (final String key : keys) {
+			final String value = settings.getProperty(key);
+			final String firstValue = first.settings.getProperty(key);
+			if (value == null ? firstValue != null : !value.equals(firstValue)) {
+				ignored.add(key + "=" + value + " (" + firstValue + " kept)");
+			}
+		}
+		if (!ignored.isEmpty()) {
+			System.err.println("Warning: the " + component + " is shared by the runs of the JVM, these settings are ignored: " + ignored);
+		}
+	}
+
+	private boolean toBoolean(final String key, final boolean defaultValue) {
+		boolean flag = defaultValue;
+		if (properties.getProperty(key) != null) {
+			try {
+				flag = Boolean.parseBoolean(properties.getProperty(key));
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		settings.setProperty(key, String.valueOf(flag));
+		return flag;
+	}
+	
+	private long toLong(final String key, final long defaultValue) {
+		long value = defaultValue;
+		if (properties.getProperty(key) != null) {
+			try {
+				value = Long.parseLong(properties.getProperty(key).trim());
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		settings.setProperty(key, String.valueOf(value));
+		return value;
+	}
+
+	private String toString(final String key, final String defaultValue) {
+		String value = defaultValue;
+		if (properties.getProperty(key) != null) {
+			value = properties.getProperty(key);
+		}
+		if (value != null) {
+			settings.setProperty(key, value);
+		}
+		return value;
+	}
+	
+	private File toFile(final String key, final String defaultValue) {
+		File file = null;
+		if (properties.getProperty(key) != null) {
+			try {
+				final String fileName = properties.getProperty(key);
+				if(fileName != null) {
+					file = new File(fileName);
+					if(!file.exists()) {
+						file.mkdirs();
+					}
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+				file = null;
+			}
+		}
+		if (file == null) {
+			file = new File(defaultValue);
+		}
+		settings.setProperty(key, file.getPath());
+		return file;
+	}
+}
@@ -15,6 +15,7 @@
  */ 
 package com.sap.azot;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -51,7 +52,7 @@ public class UniversalNamespaceCache implements NamespaceContext {
      */
     public UniversalNamespaceCache(Document document, boolean toplevelOnly) {
         examineNode(document.getFirstChild(), toplevelOnly);
-        if (AzotConfig.GLOBAL.DEBUG && isDebug()) {
+        if (isDebug()) {
             System.out.println("The list of the cached namespaces:");
             for (String key : prefix2Uri.keySet()) {
                 System.out.println("prefix " + key + ": uri " + prefix2Uri.get(key));
@@ -155,6 +156,14 @@ public class UniversalNamespaceCache implements NamespaceContext {
         return uri2Prefix;
     }
 
+    /**
+     * List of URIs, by PREFIX -> URI
+     * @return
+     */
+    public Map<String, String> getPrefixUris() {
+        return Collections.unmodifiableMap(prefix2Uri);
+    }
+
 	@Override
 	public Iterator<?> getPrefixes(String namespaceURI) {
 		return null;
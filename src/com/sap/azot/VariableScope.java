@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.sap.azot.log.Log;
+
+/**
+ * Variables visible at some point of a workflow: the variables of this scope, then the ones of its parents.
+ *
+ * A transparent scope (loop, repeat) only holds the variables declared on it: the variables created
+ * inside it are added to the first parent which is not transparent.
+ *
+ * The variables are never modified in place: a new {@link Variable} replaces the previous one, so a
+ * {@link #snapshot()} can share the variables with its source until one of them is modified (copy-on-write).
+ *
+ * @author amuller
+ */
+public class VariableScope {
+
+	private final VariableScope parent;
+
+	private final boolean transparent;
+
+	/** Log tracing the updates of the variables (<code>null</code> for none) */
+	private final Log debugLog;
+
+	private Map<String, Variable> variables;
+
+	/** <code>true</code> if the map is shared with a snapshot (copied before any modification) */
+	private boolean shared = false;
+
+	public VariableScope() {
+		this((Log) null);
+	}
+
+	/**
+	 * @param debugLog log tracing the updates of the variables of this scope and of its children (<code>null</code> for none)
+	 */
+	public VariableScope(final Log debugLog) {
+		this(null, false, new LinkedHashMap<String, Variable>(), debugLog);
+	}
+
+	public VariableScope(final VariableScope parent) {
+		this(parent, false);
+	}
+
+	public VariableScope(final VariableScope parent, final boolean transparent) {
+		this(parent, transparent, new LinkedHashMap<String, Variable>(), (parent == null) ? null : parent.debugLog);
+	}
+
+	private VariableScope(final VariableScope parent, final boolean transparent, final Map<String, Variable> variables, final Log debugLog) {
+		this.parent = parent;
+		this.transparent = transparent;
+		this.variables = variables;
+		this.debugLog = debugLog;
+	}
+
+	public VariableScope getParent() {
+		return parent;
+	}
+
+	/**
+	 * Return the variable with the given id (from this scope or from a parent), <code>null</code> if unknown.
+	 *
+	 * @param id
+	 * @return
+	 */
+	public Variable get(final String id) {
+		for (VariableScope scope = this; scope != null; scope = scope.parent) {
+			final Variable variable = scope.variables.get(id);
+			if (variable != null) {
+				return variable;
+			}
+		}
+		return null;
+	}
+
+	public String getValue(final String id) {
+		final Variable variable = get(id);
+		return (variable == null) ? null : variable.getValue();
+	}
+
+	public boolean exists(final String id) {
+		return get(id) != null;
+	}
+
+	/**
+	 * Declare a variable in this scope (hiding the variable of a parent with the same id).
+	 *
+	 * @param variable
+	 * @return
+	 */
+	public Variable declare(final Variable variable) {
+		beforeWrite();
+		variables.put(variable.getId(), variable);
+		return variable;
+	}
+
+	public Variable declare(final String id, final String value) {
+		final Variable variable = new Variable();
+		variable.setId(id);
+		variable.setValue(value);
+		return declare(variable);
+	}
+
+	/**
+	 * Add a new variable or update the value of existing variable (if overwrite is allowed).
+	 *
+	 * @param id
+	 * @param value
+	 * @param overwrite
+	 * @param report
+	 * @return the new, updated or existing variable
+	 */
+	public Variable addOrUpdate(final String id, final String value, final boolean overwrite, final boolean report) {
+		if (id == null) {
+			return null;
+		}
+
+		for (VariableScope scope = this; scope != null; scope = scope.parent) {
+			final Variable existingVariable = scope.variables.get(id);
+			if (existingVariable != null) {
+				if (overwrite) {
+					if (debugLog != null) {
+						if (value != null && !value.equals(existingVariable.getValue())) {
+							debugLog.println("Updating variable: ${{}} = {} (was '{}')", id, value, existingVariable.getValue());
+						}
+					}
+					return scope.replace(existingVariable, value);
+				}
+				return existingVariable;
+			}
+		}
+
+		final Variable newVariable = new Variable();
+		newVariable.setId(id);
+		newVariable.setValue(value);
+		newVariable.setOverwrite(overwrite);
+		newVariable.setReport(report);
+
+		VariableScope target = this;
+		while (target.transparent && target.parent != null) {
+			target = target.parent;
+		}
+		return target.declare(newVariable);
+	}
+
+	/**
+	 * Change the value of an existing variable (in the scope which declares it).
+	 *
+	 * @param id
+	 * @param value
+	 * @return the updated variable, <code>null</code> if unknown
+	 */
+	public Variable setValue(final String id, final String value) {
+		for (VariableScope scope = this; scope != null; scope = scope.parent) {
+			final Variable existingVariable = scope.variables.get(id);
+			if (existingVariable != null) {
+				return scope.replace(existingVariable, value);
+			}
+		}
+		return null;
+	}
+
+	private Variable replace(final Variable existingVariable, final String value) {
+		if (value == null ? existingVariable.getValue() == null : value.equals(existingVariable.getValue())) {
+			return existingVariable;
+		}
+		final Variable updatedVariable = VariableHelper.clone(existingVariable);
+		updatedVariable.setValue(value);
+		return declare(updatedVariable);
+	}
+
+	/**
+	 * Return a copy of this scope and of its parents, for another thread.
+	 * The variables are only copied when the copy or this scope is modified.
+	 *
+	 * @return
+	 */
+	public VariableScope snapshot() {
+		final VariableScope parentSnapshot = (parent == null) ? null : parent.snapshot();
+		shared = true;
+		final VariableScope snapshot = new VariableScope(parentSnapshot, transparent, variables, debugLog);
+		snapshot.shared = true;
+		return snapshot;
+	}
+
+	private void beforeWrite() {
+		if (shared) {
+			variables = new LinkedHashMap<String, Variable>(variables);
+			shared = false;
+		}
+	}
+
+	/**
+	 * Return the variables declared in this scope.
+	 *
+	 * @return
+	 */
+	public Collection<Variable> getLocalVariables() {
+		return Collections.unmodifiableCollection(variables.values());
+	}
+
+	/**
+	 * Return all the visible variables by id (the ones of the parents first).
+	 *
+	 * @return
+	 */
+	public Map<String, Variable> getVariables() {
+		final Map<String, Variable> allVariables = (parent == null) ? new LinkedHashMap<String, Variable>() : parent.getVariables();
+		allVariables.putAll(variables);
+		return allVariables;
+	}
+}
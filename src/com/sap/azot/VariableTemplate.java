@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A string containing <code>${id}</code> references, parsed once into literal and variable segments.
+ *
+ * A reference containing another one (ex: <code>${xpath-eval:...${i}...}</code>) is kept as a literal
+ * around the inner reference. A variable value containing references is expanded too.
+ *
+ * @author amuller
+ */
+public final class VariableTemplate {
+
+	private static final String START = "${";
+
+	/** Maximum number of cached templates */
+	private static final int MAX_CACHED_TEMPLATES = 4096;
+
+	/** Longer strings (response contents...) are not cached */
+	private static final int MAX_CACHED_LENGTH = 4096;
+
+	/** Maximum expansion depth of the values containing references */
+	private static final int MAX_DEPTH = 8;
+
+	/** Builders bigger than this are not kept by the threads */
+	private static final int MAX_KEPT_BUILDER = 64 * 1024;
+
+	private static final ConcurrentHashMap<String, VariableTemplate> CACHE = new ConcurrentHashMap<String, VariableTemplate>();
+
+	private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(256);
+		}
+	};
+
+	private final String source;
+
+	/** literals[i] is followed by the variable ids[i], the last literal is followed by nothing */
+	private final String[] literals;
+	private final String[] ids;
+
+	private VariableTemplate(final String source, final String[] literals, final String[] ids) {
+		this.source = source;
+		this.literals = literals;
+		this.ids = ids;
+	}
+
+	/**
+	 * Return the (cached) template of the given string.
+	 *
+	 * @param source
+	 * @return
+	 */
+	public static VariableTemplate compile(final String source) {
+		VariableTemplate template = CACHE.get(source);
+		if (template == null) {
+			template = parse(source);
+			if (source.length() <= MAX_CACHED_LENGTH && CACHE.size() < MAX_CACHED_TEMPLATES) {
+				CACHE.putIfAbsent(source, template);
+			}
+		}
+		return template;
+	}
+
+	/**
+	 * Substitute the variables of the given string.
+	 *
+	 * @param source
+	 * @param variables
+	 * @return
+	 */
+	public static String render(final String source, final VariableScope variables) {
+		if (source == null) {
+			return null;
+		}
+		if (source.indexOf(START) < 0) {
+			return source;
+		}
+		return compile(source).render(variables);
+	}
+
+	private static VariableTemplate parse(final String source) {
+		final List<String> literals = new ArrayList<String>(4);
+		final List<String> ids = new ArrayList<String>(4);
+
+		int literalStart = 0;
+		int position = 0;
+		int open;
+		while ((open = source.indexOf(START, position)) >= 0) {
+			final int close = source.indexOf('}', open + START.length());
+			if (close < 0) {
+				break;
+			}
+			final int nextOpen = source.indexOf(START, open + START.length());
+			if (nextOpen >= 0 && nextOpen < close) {
+				// Not a variable: it contains another reference
+				position = nextOpen;
+				continue;
+			}
+			literals.add(source.substring(literalStart, open));
+			ids.add(source.substring(open + START.length(), close));
+			literalStart = close + 1;
+			position = literalStart;
+		}
+		literals.add(source.substring(literalStart));
+
+		return new VariableTemplate(source, literals.toArray(new String[literals.size()]), ids.toArray(new String[ids.size()]));
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * Return <code>true</code> if the template contains at least one variable.
+	 *
+	 * @return
+	 */
+	public boolean hasVariables() {
+		return ids.length > 0;
+	}
+
+	/**
+	 * Substitute the variables.
+	 *
+	 * @param variables
+	 * @return
+	 */
+	public String render(final VariableScope variables) {
+		if (ids.length == 0) {
+			return source;
+		}
+		final StringBuilder builder = BUILDER.get();
+		builder.setLength(0);
+		appendTo(builder, variables, 0);
+		final String result = builder.toString();
+		if (builder.capacity() > MAX_KEPT_BUILDER) {
+			BUILDER.remove();
+		}
+		return result;
+	}
+
+	/**
+	 * Append the template with its variables substituted.
+	 *
+	 * @param builder
+	 * @param variables
+	 */
+	public void appendTo(final StringBuilder builder, final VariableScope variables) {
+		appendTo(builder, variables, 0);
+	}
+
+	private void appendTo(final StringBuilder builder, final VariableScope variables, final int depth) {
+		for (int i = 0; i < ids.length; i++) {
+			builder.append(literals[i]);
+
+			final String value = getValue(ids[i], variables);
+			if (value == null) {
+				// Unknown variable: kept as is
+				builder.append(START).append(ids[i]).append('}');
+			} else if (depth < MAX_DEPTH && value.indexOf(START) >= 0) {
+				compile(value).appendTo(builder, variables, depth + 1);
+			} else {
+				builder.append(value);
+			}
+		}
+		builder.append(literals[ids.length]);
+	}
+
+	private static String getValue(final String id, final VariableScope variables) {
+		return variables.getValue(id);
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+
+import com.sap.azot.plan.ExecutionPlan;
+
+/**
+ * Execution plans of the workflow files, by canonical path (compiled again when the file changes).
+ *
+ * A plan is immutable: all the launches of a workflow file share it.
+ *
+ * @author amuller
+ */
+public final class WorkflowCache {
+
+	private static final JAXBContext CONTEXT;
+	static {
+		try {
+			final ClassLoader azotCL = ObjectFactory.class.getClassLoader();
+			CONTEXT = JAXBContext.newInstance("com.sap.azot", azotCL);
+		} catch (final JAXBException e) {
+			throw new AzotException(e);
+		}
+	}
+
+	/** Unmarshallers are not thread-safe (the context is) */
+	private static final ThreadLocal<Unmarshaller> UNMARSHALLERS = new ThreadLocal<Unmarshaller>() {
+		@Override
+		protected Unmarshaller initialValue() {
+			try {
+				return CONTEXT.createUnmarshaller();
+			} catch (final JAXBException e) {
+				throw new AzotException(e);
+			}
+		}
+	};
+
+	private static final ConcurrentHashMap<String, CachedPlan> PLANS = new ConcurrentHashMap<String, CachedPlan>();
+
+	private WorkflowCache() {
+	}
+
+	/**
+	 * Return the unmarshaller of the current thread.
+	 *
+	 * @return
+	 */
+	public static Unmarshaller getUnmarshaller() {
+		return UNMARSHALLERS.get();
+	}
+
+	/**
+	 * Return the execution plan of the workflow file, <code>null</code> if the file is not a workflow.
+	 *
+	 * @param workflowFile
+	 * @return
+	 * @throws JAXBException
+	 */
+	public static ExecutionPlan get(final File workflowFile) throws JAXBException {
+		String key;
+		try {
+			key = workflowFile.getCanonicalPath();
+		} catch (final IOException e) {
+			key = workflowFile.getAbsolutePath();
+		}
+		final long lastModified = workflowFile.lastModified();
+		final long length = workflowFile.length();
+
+		CachedPlan cachedPlan = PLANS.get(key);
+		if (cachedPlan == null || cachedPlan.lastModified != lastModified || cachedPlan.length != length) {
+			final Object parsed = getUnmarshaller().unmarshal(workflowFile);
+			if (!(parsed instanceof Workflow)) {
+				return null;
+			}
+			cachedPlan = new CachedPlan(lastModified, length, ExecutionPlan.compile((Workflow) parsed));
+			PLANS.put(key, cachedPlan);
+		}
+		return cachedPlan.plan;
+	}
+
+	private static class CachedPlan {
+
+		private final long lastModified;
+		private final long length;
+		private final ExecutionPlan plan;
+
+		CachedPlan(final long lastModified, final long length, final ExecutionPlan plan) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.plan = plan;
+		}
+	}
+}
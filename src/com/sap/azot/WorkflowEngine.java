@@ -15,57 +15,77 @@
  */ 
 package com.sap.azot;
 
-import java.awt.image.ImageProducer;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.ProtocolException;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import com.sap.azot.Request.Header;
+import com.sap.azot.plan.CallNode;
+import com.sap.azot.log.Log;
+import com.sap.azot.log.LogSink;
+import com.sap.azot.metrics.CallMetrics;
+import com.sap.azot.metrics.MetricsRegistry;
+import com.sap.azot.plan.ExecutionPlan;
+import com.sap.azot.plan.LoopNode;
+import com.sap.azot.plan.ParallelNode;
+import com.sap.azot.plan.PlanNode;
+import com.sap.azot.plan.PluginNode;
+import com.sap.azot.plan.RepeatNode;
+import com.sap.azot.plan.RequestPlan;
+import com.sap.azot.plan.ResponsePlan;
+import com.sap.azot.plan.ValueExpression;
+import com.sap.azot.plan.VariablePlan;
+import com.sap.azot.plan.WorkflowRefNode;
 import com.sap.azot.report.CallReport;
 import com.sap.azot.report.CallReport.Status;
+import com.sap.azot.report.LatencyHistogram;
 import com.sap.azot.report.WorkflowReport;
+import com.sap.azot.transport.HttpExchange;
+import com.sap.azot.transport.HttpTransports;
+import com.sap.azot.transport.ResponseBody;
 
 /**
  * @author amuller
  */
 public class WorkflowEngine {
 
-	private static final XPathFactory XFACTORY = XPathFactory.newInstance();
+	private static final Charset UTF8 = Charset.forName("UTF-8");
 	private static final String XPATH = "${xpath";
 	private static final String XPATH_EXPR = XPATH + "-expr:";
 	private static final String XPATH_EVAL = XPATH + "-eval:";
@@ -73,195 +93,500 @@ public class WorkflowEngine {
 	private static final String AZOT = "${azot";
 	private static final String AZOT_REPLACE = AZOT + "-replace:";
 	
-	private final Workflow workflow;
+	private final ExecutionPlan plan;
+
+	/** Configuration of the run */
+	private final RunConfig config;
+
+	/** Interactive mode, can be turned off during the workflow */
+	private boolean interactive;
+
+	private final VariableScope variables;
+
+	/** Runner of the nested workflows which are forked */
+	private final WorkflowRunner runner;
 
 	private final WorkflowReport workflowReport;
 
+	/** Verbose output (written to the output directory of a forked workflow) */
+	private final Log log;
+
+	/** Latency histograms of the calls by call index, keyed by the source of their name */
+	private final LatencyHistogram[] latencySlots;
+
 	private final String BOUNDARY;
 
+	private final AtomicInteger callCounter = new AtomicInteger();
+
+	/** Intended start time of the next call of the current thread (open model iterations) */
+	private final ThreadLocal<Long> intendedStartNanos = new ThreadLocal<Long>();
 
-	public WorkflowEngine(final Workflow workflow) {
-		this.workflow = workflow;
-		this.workflowReport = new WorkflowReport(workflow.getName());
+	/** Live metrics of the calls by call index, keyed by the source of their name (shared by the workflows of the JVM) */
+	private final CallMetrics[] callMetricsSlots;
+
+
+	public WorkflowEngine(final ExecutionPlan plan, final VariableScope variables, final WorkflowRunner runner) {
+		this.plan = plan;
+		this.variables = variables;
+		this.runner = runner;
+		this.config = runner.getConfig();
+		this.interactive = config.INTERACTIVE;
+		this.workflowReport = new WorkflowReport(plan.getName(), config);
 		this.BOUNDARY = generateBoundary();
+
+		final LogSink logSink = LogSink.get(config);
+		if (WorkflowRunner.isForkedThread()) {
+			this.log = Log.file(logSink, new File(workflowReport.getOutputDirectory(), "azot.log"), config.VERBOSE);
+		} else {
+			this.log = Log.console(logSink, config.VERBOSE);
+		}
+
+		final List<CallNode> calls = plan.getCalls();
+		this.latencySlots = new LatencyHistogram[calls.size()];
+		this.callMetricsSlots = new CallMetrics[calls.size()];
+		final MetricsRegistry metrics = MetricsRegistry.get();
+		for (final CallNode call : calls) {
+			final String source = (call.getName() == null) ? null : call.getName().getSource();
+			// Not the rendered name: a name depending on the variables would create histograms and metrics at each iteration
+			latencySlots[call.getIndex()] = workflowReport.getLatency(source);
+			callMetricsSlots[call.getIndex()] = metrics.getCallMetrics((source == null) ? "call" : source);
+		}
 	}
 
 	public void start() {
-		if (AzotConfig.GLOBAL.DEBUG) {
-			final List<Variable> workflowVariables = workflow.getContext().getVariables();
-			for (final Variable variable : workflowVariables) {
+		if (config.DEBUG) {
+			for (final Variable variable : variables.getVariables().values()) {
 				if (variable.getId() != null && !variable.getId().startsWith("azot-")) {
-					println("Available variable: ${" + variable.getId() + "} = " + variable.getValue() + " [" +variable+ "]");
+					println("Available variable: ${{}} = {} [{}]", variable.getId(), variable.getValue(), variable);
 				}
 			}
 		}
 
-		if (AzotConfig.GLOBAL.DUMP || AzotConfig.GLOBAL.REPORT) {
-			if (AzotConfig.GLOBAL.DEBUG) {
-				println("Output file: " + workflowReport.getOutputDirectory().getAbsolutePath());
+		if (config.DUMP || config.REPORT) {
+			if (config.DEBUG) {
+				println("Output file: {}", workflowReport.getOutputDirectory().getAbsolutePath());
 			}
 		}
 
 		println("==========================================================================================");
 
-		final List<Object> executables = workflow.getCallsAndWorkflowsAndLoops();
-		processExecutables(executables, 0);
+		processExecutables(plan.getNodes(), variables);
 
-		if (AzotConfig.GLOBAL.REPORT) {
-			final List<Variable> workflowVariables = workflow.getContext().getVariables();
-			for (final Variable workflowVariable : workflowVariables) {
+		if (config.REPORT) {
+			for (final Variable workflowVariable : variables.getVariables().values()) {
 				if (workflowVariable.isReport()) {
 					workflowReport.getVariables().put(workflowVariable.getId(), workflowVariable.getValue());
 				}
 			}
 			workflowReport.dump();
 		}
+
+		if (log.getDropped() > 0) {
+			System.err.println(log.getDropped() + " verbose message(s) of '" + plan.getName() + "' dropped (increase azot-log-buffer-size)");
+		}
+		log.close();
 	}
 
-	private int processExecutables(final List<Object> executables, int count) {
-		for (final Object executable : executables) {
-			if (executable instanceof Call)
+	private void processExecutables(final List<PlanNode> nodes, final VariableScope variables) {
+		for (final PlanNode node : nodes) {
+			if (node instanceof CallNode)
 			{
-				final Call call = (Call) executable;
+				final CallNode call = (CallNode) node;
 
-				String callName = VariableHelper.substituteVariables(call.getName(), getWorkflow().getContext().getVariables());
+				String callName = render(call.getName(), variables);
 				final CallReport callReport = new CallReport(callName);
-				workflowReport.getCallReports().add(count, callReport);
+				final int count = callCounter.getAndIncrement();
+				callReport.setIndex(count);
+				final Long intendedStart = intendedStartNanos.get();
+				if (intendedStart != null) {
+					// Only the first call of an iteration is scheduled
+					intendedStartNanos.remove();
+					callReport.setIntendedStartNanos(intendedStart);
+				}
+				final CallMetrics callMetrics = callMetricsSlots[call.getIndex()];
+				callMetrics.callStarted();
 				callReport.setStartTime(System.currentTimeMillis());
+				callReport.setStartNanos(System.nanoTime());
 				try {
-					processCall(call, count);
+					processCall(call, callReport, count, variables);
 				} catch (final Exception e) {
 					callReport.setStatus(CallReport.Status.ERROR);
 					callReport.setType(e.getClass().getName());
 					callReport.setErrorMessage(e);
 				}
+				callReport.setEndNanos(System.nanoTime());
 				callReport.setEndTime(System.currentTimeMillis());
+				callMetrics.callEnded(callReport.getLatencyMicros(), callReport.getStatus());
+				latencySlots[call.getIndex()].recordValue(callReport.getLatencyMicros());
+				workflowReport.addCallReport(callReport);
 
 
 				println("==========================================================================================");
 
 
-				if (AzotConfig.GLOBAL.INTERACTIVE) {
+				if (interactive) {
+					log.flush();
 					Scanner sc = new Scanner(System.in);
 					echo("Press 'Enter' to continue... (type 'off' to turn off the interactive mode)");
 					String what = sc.nextLine();
 					if("off".equalsIgnoreCase(what)) {
-						AzotConfig.GLOBAL.INTERACTIVE = false;
+						interactive = false;
 					}
 				}
-				count++;
 			}
-			else if(executable instanceof WorkflowRef)
+			else if(node instanceof WorkflowRefNode)
 			{
-				final WorkflowRef workflowRef = (WorkflowRef) executable;
-				final Launcher nestedWorkflowLauncher = new Launcher();
+				final WorkflowRefNode workflowRef = (WorkflowRefNode) node;
+				final Launcher nestedWorkflowLauncher = new Launcher(runner);
 				nestedWorkflowLauncher.setFork(workflowRef.isFork());
-				final String filename = VariableHelper.substituteVariables(workflowRef.getFilename(), getWorkflow().getContext().getVariables());
+				final String filename = render(workflowRef.getFilename(), variables);
 
-				final List<Variable> inheritedVariables = new ArrayList<Variable>();
+				final VariableScope inheritedVariables;
 				if (workflowRef.isFork())
 				{
-					// In multi-threading, we clone all variables to avoid concurrent modifications
-					for (final Variable contextVariable : getWorkflow().getContext().getVariables()) {
-						inheritedVariables.add(VariableHelper.clone(contextVariable));
-					}
+					// In multi-threading, the nested workflow works on a snapshot (variables copied on write)
+					inheritedVariables = new VariableScope(variables.snapshot());
 				}
 				else
 				{
-					inheritedVariables.addAll(getWorkflow().getContext().getVariables());
+					inheritedVariables = new VariableScope(variables);
 				}
 
-				final List<Variable> workflowVariables = workflowRef.getVariables();
-				for (final Variable workflowVariable : workflowVariables) {
-					Variable existingVariable = VariableHelper.exist(workflowVariable.getId(), inheritedVariables);
-					final Variable newVariable;
-					if (existingVariable == null) {
-						newVariable = VariableHelper.addOrUpdateVariable(workflowVariable.getId(), workflowVariable.getValue(), workflowVariable.isOverwrite(), workflowVariable.isReport(), inheritedVariables);
-					} else {
-						newVariable = VariableHelper.clone(workflowVariable);
+				final List<VariablePlan> workflowVariables = workflowRef.getVariables();
+				for (final VariablePlan workflowVariable : workflowVariables) {
+					if (!inheritedVariables.exists(workflowVariable.getId())) {
+						inheritedVariables.addOrUpdate(workflowVariable.getId(), workflowVariable.getSource(), workflowVariable.isOverwrite(), workflowVariable.isReport());
+						if (workflowVariable.getValue() != null) {
+							final String newValue = workflowVariable.getValue().getTemplate().render(inheritedVariables);
+							inheritedVariables.setValue(workflowVariable.getId(), newValue);
+						}
 					}
-					final String newValue = VariableHelper.substituteVariables(newVariable.getValue(), inheritedVariables);
-					newVariable.setValue(newValue);
 				}
 
 
 				nestedWorkflowLauncher.launch(new File(filename), inheritedVariables);
 			}
-			else if(executable instanceof Loop)
+			else if(node instanceof LoopNode)
 			{
-				final Loop loop = (Loop) executable;
-				final String inValue = VariableHelper.substituteVariables(loop.getIn(), getWorkflow().getContext().getVariables());
+				final LoopNode loop = (LoopNode) node;
+				final String inValue = render(loop.getIn(), variables);
 				if(inValue != null && !inValue.isEmpty()) 
 				{
-					final Variable inVariable = new Variable();
-					inVariable.setId(loop.getVariableId());
-					getWorkflow().getContext().getVariables().add(inVariable);
+					// The loop variable only exists inside the loop
+					final VariableScope loopVariables = new VariableScope(variables, true);
 					final String[] inIterationValues = inValue.split(" ");
 					for (int i = 0; i < inIterationValues.length; i++) {
-						inVariable.setValue(inIterationValues[i]);
-						count = processExecutables(loop.getCallsAndWorkflowsAndLoops(), count);
+						loopVariables.declare(loop.getVariableId(), inIterationValues[i]);
+						processExecutables(loop.getNodes(), loopVariables);
 					}
-					getWorkflow().getContext().getVariables().remove(inVariable);	
 				}
 			}
-			else if(executable instanceof Repeat)
+			else if(node instanceof RepeatNode)
 			{
-				final Repeat repeat = (Repeat) executable;
+				final RepeatNode repeat = (RepeatNode) node;
 				
 				
-				if(repeat.getTimes() != null) {
-					String srtTimes = repeat.getTimes();
-					int times = 0;
-					try {
-						times = Integer.parseInt(srtTimes);
-					} catch (NumberFormatException e1) {
-						srtTimes = VariableHelper.substituteVariables(srtTimes, getWorkflow().getContext().getVariables());
-						try {
-							times = Integer.parseInt(srtTimes);
-						} catch (NumberFormatException e2) {
-							
-						}
-					}
+				if(repeat.getRate() != null) {
+					processOpenRepeat(repeat, variables);
+				}
+				else if(repeat.getTimes() != null) {
+					final int times = toInt(repeat.getTimes(), variables, 0);
 
-					final Variable inVariable = new Variable();
-					inVariable.setId(repeat.getVariableId());
-					getWorkflow().getContext().getVariables().add(inVariable);
+					final VariableScope repeatVariables = new VariableScope(variables, true);
 					
 					for (int i=0; i<times; i++) {
-						inVariable.setValue(String.valueOf(i));
-						processExecutables(repeat.getCallsAndWorkflowsAndLoops(), count);
+						repeatVariables.declare(repeat.getVariableId(), String.valueOf(i));
+						processExecutables(repeat.getNodes(), repeatVariables);
 					}
 				}
 			}
-			else if(executable instanceof PluginRef) {
-				final PluginRef plugin = (PluginRef) executable;
-				PluginsManager.invokePlugin(plugin.getName(), plugin, getWorkflow().getContext().getVariables());
+			else if(node instanceof PluginNode) {
+				PluginsManager.invokePlugin((PluginNode) node, variables, log);
+			}
+			else if(node instanceof ParallelNode) {
+				processParallel((ParallelNode) node, variables);
 			}
 		}
-		return count;
 	}
 
-	public Workflow getWorkflow() {
-		return workflow;
+	/**
+	 * Execute the children of a parallel node concurrently, each one on its own copy of the variables.
+	 * The variables created or modified by the children are merged back once all of them are done.
+	 *
+	 * @param parallel
+	 * @param variables
+	 */
+	private void processParallel(final ParallelNode parallel, final VariableScope variables) {
+		final List<PlanNode> children = parallel.getNodes();
+		if (children.isEmpty()) {
+			return;
+		}
+
+		int maxConcurrency = children.size();
+		if (parallel.getMaxConcurrency() != null) {
+			final int max = toInt(parallel.getMaxConcurrency(), variables, maxConcurrency);
+			if (max > 0 && max < maxConcurrency) {
+				maxConcurrency = max;
+			}
+		}
+
+		// Variables before the fork, to detect the variables modified by the branches
+		final Map<String, Variable> forkVariables = variables.getVariables();
+
+		final List<VariableScope> branchVariables = new ArrayList<VariableScope>(children.size());
+		final List<Future<?>> branches = new ArrayList<Future<?>>(children.size());
+		final ExecutorService executor = AzotExecutors.newBoundedExecutor("AzotParallel", maxConcurrency, config.VIRTUAL_THREADS);
+		try {
+			for (final PlanNode child : children) {
+				final VariableScope branchScope = variables.snapshot();
+				branchVariables.add(branchScope);
+
+				branches.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						processExecutables(Collections.singletonList(child), branchScope);
+					}
+				}));
+			}
+
+			// Join
+			Throwable failure = null;
+			for (final Future<?> branch : branches) {
+				try {
+					branch.get();
+				} catch (final ExecutionException e) {
+					if (failure == null) {
+						failure = e.getCause();
+					}
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new AzotException(e);
+				}
+			}
+			if (failure != null) {
+				throw new AzotException("Parallel execution failed", failure);
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		// Merge back the branch variables (in document order)
+		for (final VariableScope branchScope : branchVariables) {
+			for (final Variable branchVariable : branchScope.getVariables().values()) {
+				final String id = branchVariable.getId();
+				final Variable forkVariable = forkVariables.get(id);
+				if (forkVariable == null) {
+					if (!variables.exists(id)) {
+						variables.addOrUpdate(id, branchVariable.getValue(), branchVariable.isOverwrite(), branchVariable.isReport());
+					}
+				}
+				else if (branchVariable != forkVariable) {
+					final String forkValue = forkVariable.getValue();
+					final String branchValue = branchVariable.getValue();
+					if (branchValue != null ? !branchValue.equals(forkValue) : forkValue != null) {
+						variables.setValue(id, branchValue);
+					}
+				}
+			}
+		}
 	}
 
-	private void processCall(final Call call, final int count) {
+	/**
+	 * Execute the iterations of a repeat node on a fixed arrival schedule (open model): an iteration is started
+	 * at its intended time even if the previous ones are not finished.
+	 *
+	 * @param repeat
+	 * @param variables
+	 */
+	private void processOpenRepeat(final RepeatNode repeat, final VariableScope variables) {
+		final String rate = render(repeat.getRate(), variables);
+		final long periodNanos = toPeriodNanos(rate);
+		if (periodNanos <= 0) {
+			println("Invalid repeat rate: '{}'", rate);
+			return;
+		}
 
-		println();println();println();
-		String callName = "| Starting call '" + call.getName() + "' |";
-		println(pad('-', callName.length()));
-		println(callName);
-		println(pad('-', callName.length()));
+		final int times = (repeat.getTimes() != null) ? toInt(repeat.getTimes(), variables, 0) : Integer.MAX_VALUE;
+		final long durationNanos = (repeat.getDuration() != null) ? toDurationNanos(render(repeat.getDuration(), variables)) : Long.MAX_VALUE;
+		if (repeat.getTimes() == null && repeat.getDuration() == null) {
+			println("An open model repeat needs 'times' or 'duration'");
+			return;
+		}
 
-		HttpURLConnection connection = null;
-		final CallReport callReport = workflowReport.getCallReports().get(count);
+		int maxOutstanding = 100;
+		if (repeat.getMaxOutstanding() != null) {
+			maxOutstanding = Math.max(1, toInt(repeat.getMaxOutstanding(), variables, maxOutstanding));
+		}
+
+		// Iterations are independent samples: they work on a snapshot of the variables
+		final VariableScope snapshot = variables.snapshot();
 
+		final Semaphore outstanding = new Semaphore(maxOutstanding);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final ExecutorService executor = AzotExecutors.newBoundedExecutor("AzotRepeat", maxOutstanding, config.VIRTUAL_THREADS);
 		try {
-			connection = processRequest(callReport, call.getRequest(), count);
+			final long startNanos = System.nanoTime();
+			for (int i = 0; i < times && failure.get() == null; i++) {
+				final long intendedOffset = i * periodNanos;
+				if (intendedOffset >= durationNanos) {
+					break;
+				}
+
+				// Wait for the intended start time of the iteration
+				long waitNanos;
+				while ((waitNanos = startNanos + intendedOffset - System.nanoTime()) > 0) {
+					LockSupport.parkNanos(waitNanos);
+				}
+
+				outstanding.acquire();
+
+				final VariableScope iterationVariables = new VariableScope(snapshot.snapshot());
+				iterationVariables.declare(repeat.getVariableId(), String.valueOf(i));
+
+				final long intendedStart = startNanos + intendedOffset;
+				try {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							intendedStartNanos.set(intendedStart);
+							try {
+								processExecutables(repeat.getNodes(), iterationVariables);
+							} catch (final Throwable e) {
+								failure.compareAndSet(null, e);
+							} finally {
+								intendedStartNanos.remove();
+								outstanding.release();
+							}
+						}
+					});
+				} catch (final RuntimeException e) {
+					outstanding.release();
+					throw e;
+				}
+			}
+
+			// Wait for the outstanding iterations
+			outstanding.acquire(maxOutstanding);
+			outstanding.release(maxOutstanding);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AzotException(e);
+		} finally {
+			executor.shutdown();
+		}
+
+		if (failure.get() != null) {
+			throw new AzotException("Repeat execution failed", failure.get());
+		}
+	}
+
+	/**
+	 * Convert a rate (ex: "200/s", "30/m", "0.5/s", "10" for 10 per second) into the period between two arrivals.
+	 *
+	 * @param rate
+	 * @return the period in nanoseconds, -1 if the rate is invalid
+	 */
+	private static long toPeriodNanos(final String rate) {
+		if (rate == null) {
+			return -1;
+		}
+		String count = rate.trim();
+		long unitNanos = TimeUnit.SECONDS.toNanos(1);
+		final int slash = count.indexOf('/');
+		if (slash >= 0) {
+			unitNanos = toUnitNanos(count.substring(slash + 1).trim());
+			count = count.substring(0, slash).trim();
+		}
+		try {
+			final double arrivals = Double.parseDouble(count);
+			if (arrivals <= 0 || unitNanos <= 0) {
+				return -1;
+			}
+			return Math.max(1, (long) (unitNanos / arrivals));
+		} catch (final NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Convert a duration (ex: "5m", "30s", "500ms", "1h", "1000" for 1000 ms) into nanoseconds.
+	 *
+	 * @param duration
+	 * @return the duration in nanoseconds, -1 if the duration is invalid
+	 */
+	private static long toDurationNanos(final String duration) {
+		if (duration == null) {
+			return -1;
+		}
+		final String value = duration.trim();
+		int index = 0;
+		while (index < value.length() && (Character.isDigit(value.charAt(index)) || value.charAt(index) == '.')) {
+			index++;
+		}
+		final String unit = value.substring(index).trim();
+		final long unitNanos = unit.isEmpty() ? TimeUnit.MILLISECONDS.toNanos(1) : toUnitNanos(unit);
+		try {
+			final double amount = Double.parseDouble(value.substring(0, index));
+			return (unitNanos <= 0) ? -1 : (long) (amount * unitNanos);
+		} catch (final NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static long toUnitNanos(final String unit) {
+		if ("ms".equals(unit)) {
+			return TimeUnit.MILLISECONDS.toNanos(1);
+		} else if ("s".equals(unit) || "sec".equals(unit)) {
+			return TimeUnit.SECONDS.toNanos(1);
+		} else if ("m".equals(unit) || "min".equals(unit)) {
+			return TimeUnit.MINUTES.toNanos(1);
+		} else if ("h".equals(unit)) {
+			return TimeUnit.HOURS.toNanos(1);
+		}
+		return -1;
+	}
+
+	private int toInt(final VariableTemplate value, final VariableScope variables, final int defaultValue) {
+		int result = defaultValue;
+		try {
+			result = Integer.parseInt(value.render(variables));
+		} catch (NumberFormatException e) {
+
+		}
+		return result;
+	}
+
+	private static String render(final VariableTemplate template, final VariableScope variables) {
+		return (template == null) ? null : template.render(variables);
+	}
+
+	public ExecutionPlan getPlan() {
+		return plan;
+	}
+
+	private void processCall(final CallNode call, final CallReport callReport, final int count, final VariableScope variables) {
+
+		if (log.isEnabled()) {
+			println();println();println();
+			String callName = "| Starting call '" + ((call.getName() == null) ? null : call.getName().getSource()) + "' |";
+			println(pad('-', callName.length()));
+			println(callName);
+			println(pad('-', callName.length()));
+		}
+
+		HttpExchange exchange = null;
+
+		try {
+			if (call.getRequest() == null) {
+				// Only this call fails
+				throw new AzotException("Call '" + callReport.getName() + "' has no request");
+			}
+			exchange = processRequest(callReport, call.getRequest(), count, variables);
+			callReport.setTimings(exchange.getTimings());
 
 			println("------------------------------------------------------------------------------------------");
 
-			processResponse(callReport, call.getResponse(), connection, count);
+			processResponse(callReport, call.getResponse(), exchange, count, variables);
 
 		} catch (MalformedURLException e) {
 			e.printStackTrace();
@@ -271,146 +596,189 @@ public class WorkflowEngine {
 			e.printStackTrace();
 		}
 		finally {
-			if (connection != null) {
-				connection.disconnect();
-				connection = null;
+			if (exchange != null) {
+				// Give the connection back to the transport (kept alive if possible)
+				exchange.close();
+				workflowReport.addTransportStats(exchange.getStats());
+				exchange = null;
 			}
 		}
 	}
 
 
-	private HttpURLConnection processRequest(CallReport callReport, Request request, int count) throws MalformedURLException, IOException {
+	private HttpExchange processRequest(CallReport callReport, RequestPlan request, int count, final VariableScope contextVariables) throws MalformedURLException, IOException {
 		println("REQUEST:");
 
-		if (AzotConfig.GLOBAL.DEBUG) {
-			final List<Variable> contextVariables = workflow.getContext().getVariables();
-			for (final Variable variable : contextVariables) {
-				println(" variable:"  + variable.getId() + " = " + variable.getValue());
+		if (config.DEBUG) {
+			for (final Variable variable : contextVariables.getVariables().values()) {
+				println(" variable:{} = {}", variable.getId(), variable.getValue());
 			}
 			println();
 		}
 
 		final String method = request.getMethod();
-		final String url = getExpandedUrl(request);
+		final String url = render(request.getUrl(), contextVariables);
 
 
-		println("[" + method +"] " + url);
+		println("[{}] {}", method, url);
 		println();
 
 		callReport.setUrl(url);
 
 		/* Contents */
-		final List<Content> contents = getExpandedContents(request);
+		final List<Content> contents = getExpandedContents(request, contextVariables);
 
 		/* External Contents */
-		final List<ExternalContent> externalContents = getExpandedExternalContents(request);
+		final List<ExternalContent> externalContents = getExpandedExternalContents(request, contextVariables);
 
 		/* Headers */
-		final List<Header> headers = getExpandedHeaders(request);
+		final List<Header> headers = getExpandedHeaders(request, contextVariables);
 
 		// Request handling
-		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
-		connection.setRequestMethod(method);
+		final HttpExchange exchange = HttpTransports.get().open(new URL(url), method);
 
 		for (final Header header : headers) {
-			connection.setRequestProperty(header.getName(), header.getValue());
+			exchange.setRequestHeader(header.getName(), header.getValue());
 		}
 
 		dumpFile(workflowReport, count, contents, externalContents);
 
-		connection.setDoOutput(true);
-
-		// Multi part
-		if(isMultipart(headers)) {
+		try {
+			// Multi part
+			if(isMultipart(headers)) {
 
-			final DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+				// Parts are prepared first to stream the body with its length
+				final List<Object> parts = new ArrayList<Object>();
+				long contentLength = 0;
 
-			//Write the http request content
-			for (final Content content : contents) {
+				//Write the http request content
+				for (final Content content : contents) {
 
-				out.writeBytes("\n--" + BOUNDARY + "\r\n");
-				out.writeBytes("Content-Disposition: form-data; name=\"" + content.getName() + "\"\r\n");
-				out.writeBytes("Content-Type: " + content.getType() + " \n\n");
-				out.write(content.getValue().getBytes(Charset.forName("UTF8")));
+					final ByteArrayOutputStream part = new ByteArrayOutputStream();
+					writeBytes(part, "\n--" + BOUNDARY + "\r\n");
+					writeBytes(part, "Content-Disposition: form-data; name=\"" + content.getName() + "\"\r\n");
+					writeBytes(part, "Content-Type: " + content.getType() + " \n\n");
+					part.write(content.getValue().getBytes(UTF8));
+					parts.add(part.toByteArray());
+					contentLength += part.size();
+				}
 
-			}
+				for (final ExternalContent eContent : externalContents) {
 
-			for (final ExternalContent eContent : externalContents) {
+					final File file = new File(eContent.getFilename());
+					if (!file.isFile()) {
+						throw new FileNotFoundException(file.getAbsolutePath());
+					}
 
-				File file = new File(eContent.getFilename());
+					final ByteArrayOutputStream part = new ByteArrayOutputStream();
+					writeBytes(part, "\n--" + BOUNDARY + "\r\n");
+					writeBytes(part, "Content-Disposition: form-data; name=\"" + eContent.getName() + "\"; filename=\"" + file.getName() + "\"\r\n");
+					writeBytes(part, "Content-Type: " + eContent.getType() + " \n\n");
+					parts.add(part.toByteArray());
+					parts.add(file);
+					contentLength += part.size() + file.length();
+				}
 
-				out.writeBytes("\n--" + BOUNDARY + "\r\n");
-				out.writeBytes("Content-Disposition: form-data; name=\"" + eContent.getName() + "\"; filename=\"" + file.getName() + "\"\r\n");
-				out.writeBytes("Content-Type: " + eContent.getType() + " \n\n");
-				out.write(getFileContent(file));
+				final ByteArrayOutputStream end = new ByteArrayOutputStream();
+				writeBytes(end, "\n--" + BOUNDARY + "\r\n");
+				parts.add(end.toByteArray());
+				contentLength += end.size();
+
+				exchange.setFixedLengthStreamingMode(contentLength);
+				final OutputStream out = exchange.getOutputStream();
+				for (final Object part : parts) {
+					if (part instanceof File) {
+						// Streamed from the file channel (or from its cached mapping)
+						HttpTransports.getFileBodyCache().write((File) part, out);
+					} else {
+						out.write((byte[]) part);
+					}
+				}
+				out.flush();
+				out.close();
+			} else {
+				// Single Part
+				String singleContent = null;
 
-			}
+				if (contents.size() > 0) {
+					singleContent = contents.get(0).getValue();
+				}
 
-			out.writeBytes("\n--" + BOUNDARY + "\r\n");
-			out.flush();
-			out.close();
-		} else {
-			// Single Part
-			String singleContent = null;
+				if (singleContent != null) {
 
-			if (request.getContents().size() > 0) {
-				singleContent = request.getContents().get(0).getValue();
-			}
+					final byte[] singleBytes = singleContent.getBytes(UTF8);
+					final String contentLenght = String.valueOf(singleBytes.length);
+					exchange.setRequestHeader("Content-Length", contentLenght);
 
-			if (singleContent != null) {
+					println(" header: Content-Length = {}", contentLenght);
 
-				final String contentLenght = String.valueOf(singleContent.getBytes().length);
-				connection.setRequestProperty("Content-Length", contentLenght);
+					final OutputStream out = exchange.getOutputStream();
+					out.write(singleBytes);
+					out.flush();
+					out.close();
+				}
+				else if (externalContents.size() > 0) {
+					// File sent as the whole body
+					final ExternalContent eContent = externalContents.get(0);
+					final File file = new File(eContent.getFilename());
+					if (!file.isFile()) {
+						throw new FileNotFoundException(file.getAbsolutePath());
+					}
+					if (eContent.getType() != null && !hasHeader(headers, "Content-Type")) {
+						exchange.setRequestHeader("Content-Type", eContent.getType());
+					}
 
-				println(" header: "  + "Content-Length" + " = " + contentLenght);
+					println(" header: Content-Length = {}", file.length());
 
-				final DataOutputStream out = new DataOutputStream(connection.getOutputStream());
-				out.write(singleContent.getBytes(Charset.forName("UTF8")));
-				out.flush();
-				out.close();
+					exchange.setFixedLengthStreamingMode(file.length());
+					final OutputStream out = exchange.getOutputStream();
+					HttpTransports.getFileBodyCache().write(file, out);
+					out.flush();
+					out.close();
+				}
 			}
+		} catch (final IOException e) {
+			exchange.close();
+			throw e;
 		}
 		
-		return connection;
+		return exchange;
 	}
 
-	private void processResponse(CallReport callReport, Response response, HttpURLConnection connection, int count) throws IOException {
+	private void processResponse(CallReport callReport, ResponsePlan response, HttpExchange exchange, int count, final VariableScope contextVariables) throws IOException {
 		println("RESPONSE:");
 
-		final List<Variable> contextVariables = workflow.getContext().getVariables();
-
-		final List<Variable> headerVariables = new ArrayList<Variable>();
-		final Map<String,List<String>> responseHeaders = connection.getHeaderFields();
+		// Response variables, then the context ones
+		final VariableScope headerVariables = new VariableScope(contextVariables);
+		final Map<String,List<String>> responseHeaders = exchange.getHeaderFields();
 		for (final String headerName : responseHeaders.keySet()) {
 			if (headerName != null) {
 				final Variable newVariable = new Variable();
 				newVariable.setId("header:" + headerName);
-				newVariable.setValue(connection.getHeaderField(headerName));
-				headerVariables.add(newVariable);
+				newVariable.setValue(exchange.getHeaderField(headerName));
+				headerVariables.declare(newVariable);
 			}
 		}
 				
 		final Variable statusVariable = new Variable();
 		statusVariable.setId("meta:Status");
-		statusVariable.setValue(connection.getHeaderField(null));
-		headerVariables.add(statusVariable);
+		statusVariable.setValue(exchange.getStatusLine());
+		headerVariables.declare(statusVariable);
 
 		final Variable codeVariable = new Variable();
 		codeVariable.setId("meta:HttpCode");
-		codeVariable.setValue(String.valueOf(connection.getResponseCode()));
-		headerVariables.add(codeVariable);
+		codeVariable.setValue(String.valueOf(exchange.getResponseCode()));
+		headerVariables.declare(codeVariable);
 		
-		for (final Variable headerVariable : headerVariables) {
-			println(" " + headerVariable.getId() + " = " + headerVariable.getValue());
+		for (final Variable headerVariable : headerVariables.getLocalVariables()) {
+			println(" {} = {}", headerVariable.getId(), headerVariable.getValue());
 		}
 
-		// Add context variables for substitution purpose
-		headerVariables.addAll(contextVariables);
-
 		String kind = "out";
 		boolean binary = false;
-		String contentType = connection.getHeaderField("Content-Type");
-		String contentEncoding = connection.getHeaderField("Content-Encoding");
+		String contentType = exchange.getHeaderField("Content-Type");
+		String contentEncoding = exchange.getHeaderField("Content-Encoding");
+		final Charset charset = getCharset(contentType);
 
 		// Handle : text/xml;charset=utf-8
 		if (contentType != null && contentType.contains(";")) {
@@ -472,123 +840,105 @@ public class WorkflowEngine {
 		}
 
 		
-		// Raw data of response
-		if (response != null && response.getRaw() != null) {
-			final RawResponse rawResponse = response.getRaw();
-			rawResponse.setCode(connection.getResponseCode());
-			rawResponse.setStatus(connection.getHeaderField(null));
+		// Raw data of response (kept by the call report)
+		RawResponse rawResponse = null;
+		if (response != null && response.isRaw()) {
+			rawResponse = new RawResponse();
+			callReport.setRawResponse(rawResponse);
+			rawResponse.setCode(exchange.getResponseCode());
+			rawResponse.setStatus(exchange.getStatusLine());
 			
 			for (final String headerName : responseHeaders.keySet()) {
 				if (headerName != null) {
 					final com.sap.azot.RawResponse.Header newResponseHeader = new com.sap.azot.RawResponse.Header();
 					newResponseHeader.setName(headerName);
-					newResponseHeader.setValue(connection.getHeaderField(headerName));
+					newResponseHeader.setValue(exchange.getHeaderField(headerName));
 					rawResponse.getHeaders().add(newResponseHeader);
 				}
 			}
 		}
 		
 		
-		InputStream responseStream = null;
-		try {
-			// Normal content
-			Object content = connection.getContent();
-			if (content instanceof InputStream) {
-				responseStream = (InputStream) content;				
-			}
-			else if(content instanceof ImageProducer) {
-				responseStream = connection.getInputStream();
-			}
-		} catch (IOException e) {
-			// Error content
-			responseStream = connection.getErrorStream();
-		}
-
-		String responseContent = "";
-		// Binary
-		if (binary) {
-			println("<binary>");
-			println();
+		final InputStream responseStream = exchange.getResponseStream();
 
-			if (AzotConfig.GLOBAL.DUMP && responseStream != null) {
-				final File responseFile = new File(workflowReport.getOutputDirectory(), "call_" + String.valueOf(count) + "_response." + kind);
-				final FileOutputStream out = new FileOutputStream(responseFile);
-				copy(responseStream, out);
-				out.flush();
-				out.close();
-				
-				// Raw data of response
-				if (response != null && response.getRaw() != null) {
-					final RawResponse rawResponse = response.getRaw();
-					
-					final ExternalContent reponseContent = new ExternalContent();
-					reponseContent.setType(contentType);
-					reponseContent.setFilename(responseFile.getAbsolutePath());
-					rawResponse.setExternalContent(reponseContent);
-				}
-
-				// Add a Variable with the dump path
-				final Variable filepathVariable = new Variable();
-				filepathVariable.setId("azot-dump-filepath");
-				filepathVariable.setValue(responseFile.getCanonicalPath());
-				headerVariables.add(filepathVariable);
-			}
-		} else {
-			if (responseStream != null) {
-				responseContent = stringify(responseStream);	
-			}
-
-			if (responseContent != null && !responseContent.isEmpty()) {
-
-				// Add content as an Azot variable
-				final Variable contentVariable = new Variable();
-				contentVariable.setId("meta:Content");
-				contentVariable.setValue(responseContent);
-				headerVariables.add(contentVariable);
-
-				println(" meta:Content = " + responseContent);
+		ResponseBody body = null;
+		try {
+			// Binary
+			if (binary) {
+				println("<binary>");
+				println();
 
-				if (AzotConfig.GLOBAL.DUMP) {
+				if (config.DUMP && responseStream != null) {
 					final File responseFile = new File(workflowReport.getOutputDirectory(), "call_" + String.valueOf(count) + "_response." + kind);
 					final FileOutputStream out = new FileOutputStream(responseFile);
-					out.write(responseContent.getBytes());
+					ResponseBody.copy(responseStream, out, HttpTransports.getBufferPool());
+					callReport.setResponseEndNanos(System.nanoTime());
 					out.flush();
 					out.close();
 					
+					// Raw data of response
+					if (rawResponse != null) {
+						final ExternalContent reponseContent = new ExternalContent();
+						reponseContent.setType(contentType);
+						reponseContent.setFilename(responseFile.getAbsolutePath());
+						rawResponse.setExternalContent(reponseContent);
+					}
+
 					// Add a Variable with the dump path
 					final Variable filepathVariable = new Variable();
 					filepathVariable.setId("azot-dump-filepath");
 					filepathVariable.setValue(responseFile.getCanonicalPath());
-					headerVariables.add(filepathVariable);
+					headerVariables.declare(filepathVariable);
+				}
+			} else {
+				body = ResponseBody.read(responseStream, charset, HttpTransports.getBufferPool());
+				callReport.setResponseEndNanos(System.nanoTime());
+
+				if (!body.isEmpty()) {
+
+					// Add content as an Azot variable (decoded only if something reads it)
+					final Variable contentVariable = headerVariables.declare(new ContentVariable(body));
+					if (config.VERBOSE) {
+						println(" meta:Content = {}", contentVariable.getValue());
+					}
+
+					if (config.DUMP) {
+						final File responseFile = new File(workflowReport.getOutputDirectory(), "call_" + String.valueOf(count) + "_response." + kind);
+						final FileOutputStream out = new FileOutputStream(responseFile);
+						body.writeTo(out.getChannel());
+						out.close();
+						
+						// Add a Variable with the dump path
+						final Variable filepathVariable = new Variable();
+						filepathVariable.setId("azot-dump-filepath");
+						filepathVariable.setValue(responseFile.getCanonicalPath());
+						headerVariables.declare(filepathVariable);
+					}
 				}
-			}
-			
-			// Raw data of response
-			if (response != null && response.getRaw() != null) {
-				final RawResponse rawResponse = response.getRaw();
 				
-				final Content reponseContent = new Content();
-				reponseContent.setType(contentType);
-				reponseContent.setValue(responseContent);
-				rawResponse.setContent(reponseContent);
+				// Raw data of response
+				if (rawResponse != null) {
+					final Content reponseContent = new Content();
+					reponseContent.setType(contentType);
+					reponseContent.setValue(body.asString());
+					rawResponse.setContent(reponseContent);
+				}
 			}
-		}
-	
 		
-		if (response != null) {
-			Document document = null;
 			
-			// Handle metadata on namespaces
-			if (response.isNamespaceAware()) {
-				try {
-					final XPath xpath = XFACTORY.newXPath();
-					document = initDocument(responseContent, document, response.isNamespaceAware());
-					final UniversalNamespaceCache nsCache = new UniversalNamespaceCache(document, false);
-					nsCache.setDebug(true);
-					xpath.setNamespaceContext(nsCache);
-					xpath.compile("/*");
+			if (response != null) {
+				// Parsed on first use (no document without a text content)
+				final ResponseDocument document = (body != null) ? new ResponseDocument(body, response.isNamespaceAware()) : null;
+
+				// Namespaces of the document (built once, used by all the expressions)
+				UniversalNamespaceCache namespaces = null;
+				
+				// Handle metadata on namespaces
+				if (response.isNamespaceAware() && document != null) {
+					namespaces = new UniversalNamespaceCache(document.get(), false);
+					namespaces.setDebug(true);
 					
-					final Map<String, String> uriForPrefixes = nsCache.getUris();
+					final Map<String, String> uriForPrefixes = namespaces.getUris();
 					final Set<String> uris = uriForPrefixes.keySet();
 					
 					for (final String uri : uris) {
@@ -597,81 +947,80 @@ public class WorkflowEngine {
 						final String nsVarName = "meta:NameSpace:" + uri;
 						nsVariable.setId(nsVarName);
 						nsVariable.setValue(uriForPrefixes.get(uri));
-						headerVariables.add(nsVariable);
+						headerVariables.declare(nsVariable);
 						
-						println(" " + nsVariable.getId() + " = " + nsVariable.getValue());
+						println(" {} = {}", nsVariable.getId(), nsVariable.getValue());
 					}
-				} catch (XPathExpressionException e) {
-					e.printStackTrace();
 				}
-			}
-
-			final List<Variable> responseVariables = response.getVariables();
-			for (final Variable responseVariable : responseVariables) {
-				// Don't modify the variable in response call to keep initial expression
-				final Variable variable = VariableHelper.addOrUpdateVariable(responseVariable.getId(), responseVariable.getValue(), responseVariable.isOverwrite(), responseVariable.isReport(), contextVariables);
 
-				String value = VariableHelper.substituteVariables(variable.getValue(), headerVariables);
+				final List<VariablePlan> responseVariables = response.getVariables();
+				for (final VariablePlan responseVariable : responseVariables) {
+					// The expression is evaluated before the update: it can refer to the previous value
+					final Variable existingVariable = contextVariables.get(responseVariable.getId());
 
-				if (responseContent != null) {
-					if(value.startsWith(XPATH)) {
-						// Init XML document (if needed)
-						document = initDocument(responseContent, document, response.isNamespaceAware());
-						value = processXPathValue(document, value, response.isNamespaceAware(), contextVariables);	
+					final String value;
+					if (existingVariable == null || responseVariable.isOverwrite()) {
+						value = evaluate(responseVariable.getValue(), document, namespaces, headerVariables, contextVariables, true);
+					} else {
+						value = evaluate(VariableHelper.substituteVariables(existingVariable.getValue(), headerVariables), document, namespaces, contextVariables, true);
 					}
-					else if(value.startsWith(AZOT)){
-						value = processAzotValue(responseContent, value, contextVariables);
+
+					if (existingVariable == null) {
+						contextVariables.addOrUpdate(responseVariable.getId(), value, responseVariable.isOverwrite(), responseVariable.isReport());
+					} else {
+						contextVariables.setValue(responseVariable.getId(), value);
 					}
+
+					println();
+					println("Setting variable: ${{}} = {}", responseVariable.getId(), value);
 				}
 
-				variable.setValue(value);
+				// Plugins handling
+				final List<PluginNode> responsePlugins = response.getPlugins();
+				for (final PluginNode responsePlugin : responsePlugins) {
+					PluginsManager.invokePlugin(responsePlugin, headerVariables, log);
+				}
 
-				println();
-				println("Setting variable: ${" + variable.getId() + "} = " + value);
+				
+				// Assertions handling
+				final List<ResponsePlan.Assertion> responseAsserts = response.getAsserts();
+				for (final ResponsePlan.Assertion responseAssert : responseAsserts) {
+					final String actual = evaluate(responseAssert.getActual(), document, namespaces, headerVariables, contextVariables, false);
+					final String expected = evaluate(responseAssert.getExpected(), document, namespaces, headerVariables, contextVariables, false);
+
+					if (actual != null && !actual.equals(expected)) {
+						callReport.setStatus(Status.FAILURE);
+						callReport.setType("com.sap.azot.AssertionFailedError");
+						callReport.setFailureMessage("Assert failure: expected='" + expected + "' actual='" + actual + "'");
+						break;
+					}
+				}
 			}
 
-			// Plugins handling
-			final List<PluginRef> responsePlugins = response.getPlugins();
-			for (final PluginRef responsePlugin : responsePlugins) {
-				PluginsManager.invokePlugin(responsePlugin.getName(), responsePlugin, headerVariables);
+		} finally {
+			if (body != null) {
+				body.release();
 			}
+		}
+	}
 
-			
-			// Assertions handling
-			final List<Assert> responseAsserts = response.getAsserts();
-			for (final Assert responseAssert : responseAsserts) {
-				String actual = responseAssert.getActual();
-				actual = VariableHelper.substituteVariables(actual, headerVariables);
-				actual = VariableHelper.substituteVariables(actual, contextVariables);
-
-				if (responseContent != null && actual.startsWith(XPATH)) {
-					// Init XML document (if needed)
-					document = initDocument(responseContent, document, response.isNamespaceAware());
-					actual = processXPathValue(document, actual, response.isNamespaceAware(), contextVariables);
-				}
-
-				String expected = responseAssert.getExpected();
-				expected = VariableHelper.substituteVariables(expected, headerVariables);
-				expected = VariableHelper.substituteVariables(expected, contextVariables);
-				if (responseContent != null && expected.startsWith(XPATH)) {
-					// Init XML document (if needed)
-					document = initDocument(responseContent, document, response.isNamespaceAware());
-					expected = processXPathValue(document, expected, response.isNamespaceAware(), contextVariables);
-				}
-
-				if (actual != null && !actual.equals(expected)) {
-					callReport.setStatus(Status.FAILURE);
-					callReport.setType("com.sap.azot.AssertionFailedError");
-					callReport.setFailureMessage("Assert failure: expected='" + expected + "' actual='" + actual + "'");
-					break;
-				}
+	private boolean hasHeader(final List<Header> headers, final String name) {
+		for (final Header header : headers) {
+			if (header.getName().equalsIgnoreCase(name)) {
+				return true;
 			}
 		}
-
+		return false;
 	}
 
-	private String getExpandedUrl(final Request request) {
-		return VariableHelper.substituteVariables(request.getUrl(), workflow.getContext().getVariables());
+	/**
+	 * Write the low byte of each character (as {@link java.io.DataOutputStream#writeBytes(String)}).
+	 */
+	private static void writeBytes(final ByteArrayOutputStream out, final String s) {
+		final int length = s.length();
+		for (int i = 0; i < length; i++) {
+			out.write((byte) s.charAt(i));
+		}
 	}
 
 	private boolean isMultipart(final List<Header> headers) {
@@ -686,7 +1035,7 @@ public class WorkflowEngine {
 	}
 
 	private void dumpFile(WorkflowReport workflowReport, int count, List<Content> contents, List<ExternalContent> externalContents) throws IOException {
-		if (AzotConfig.GLOBAL.DUMP) {
+		if (config.DUMP) {
 			final File requestFile = new File(workflowReport.getOutputDirectory(), "call_" + String.valueOf(count) + "_request.xml");
 			FileWriter writer = null;
 
@@ -716,125 +1065,96 @@ public class WorkflowEngine {
 
 	}
 
-	private List<Header> getExpandedHeaders(final Request request) {
+	private List<Header> getExpandedHeaders(final RequestPlan request, final VariableScope contextVariables) {
 
-		final List<Header> headers = request.getHeaders();
-		final List<Variable> contextVariables = workflow.getContext().getVariables();
+		final List<Header> headers = new ArrayList<Header>(request.getHeaders().size());
 
-		for (final Header header : headers) {
-			final String newValue = VariableHelper.substituteVariables(header.getValue(), contextVariables);
-			header.setValue(newValue);
+		for (final RequestPlan.Header headerPlan : request.getHeaders()) {
+			final Header header = new Header();
+			header.setName(headerPlan.getName());
+			header.setValue(render(headerPlan.getValue(), contextVariables));
 
 			if (header.getName().equals("Content-Type") && header.getValue().startsWith("multipart/form-data")) {
 				header.setValue("multipart/form-data;boundary=" + BOUNDARY);
 			}
 
-			println(" header:"  + header.getName() + " = " + header.getValue());
+			println(" header:{} = {}", header.getName(), header.getValue());
+			headers.add(header);
 		}
 
 		return headers;
 	}
 
-	private List<ExternalContent> getExpandedExternalContents(final Request request) {
+	private List<ExternalContent> getExpandedExternalContents(final RequestPlan request, final VariableScope contextVariables) {
 
-		final List<ExternalContent> externalContents = request.getExternalContents();
-		final List<Variable> contextVariables = workflow.getContext().getVariables();
+		final List<ExternalContent> externalContents = new ArrayList<ExternalContent>(request.getExternalContents().size());
 
-		for (final ExternalContent eContent : externalContents) {
+		for (final RequestPlan.FilePart part : request.getExternalContents()) {
 
 			print("External content :");
 
-			if (eContent.getName() != null) {
-				final String newName = VariableHelper.substituteVariables(eContent.getName(), contextVariables);
-				eContent.setName(newName);
+			final ExternalContent eContent = new ExternalContent();
 
-				print(" name="  + eContent.getName());
+			if (part.getName() != null) {
+				eContent.setName(part.getName().render(contextVariables));
+
+				print(" name={}", eContent.getName());
 			}
 
-			if (eContent.getType() != null) {
-				final String newType = VariableHelper.substituteVariables(eContent.getType(), contextVariables);			
-				eContent.setType(newType);
+			if (part.getType() != null) {
+				eContent.setType(part.getType().render(contextVariables));
 
-				print(" type="  + eContent.getType());
+				print(" type={}", eContent.getType());
 			}
 
-			if (eContent.getFilename() != null) {
-				final String newFilename = VariableHelper.substituteVariables(eContent.getFilename(), contextVariables);			
-				eContent.setFilename(newFilename);
+			if (part.getFilename() != null) {
+				eContent.setFilename(part.getFilename().render(contextVariables));
 
-				print(" filename="  + eContent.getFilename());
+				print(" filename={}", eContent.getFilename());
 			}
 
 			println();
+			externalContents.add(eContent);
 		}
 
 		return externalContents;
 	}
 
-	private List<Content> getExpandedContents(final Request request) {
+	private List<Content> getExpandedContents(final RequestPlan request, final VariableScope contextVariables) {
 
-		List<Content> contents = request.getContents();
-		final List<Variable> contextVariables = workflow.getContext().getVariables();
+		final List<Content> contents = new ArrayList<Content>(request.getContents().size());
 
-		for (Content content : contents) {
+		for (final RequestPlan.Part part : request.getContents()) {
 
 			print("Content :");
 
-			if (content.getName() != null) {
-				final String newName = VariableHelper.substituteVariables(content.getName(), contextVariables);
-				content.setName(newName);
+			final Content content = new Content();
+
+			if (part.getName() != null) {
+				content.setName(part.getName().render(contextVariables));
 
-				print(" name="  + content.getName());
+				print(" name={}", content.getName());
 			}
 
-			if (content.getType() != null) {
-				final String newType = VariableHelper.substituteVariables(content.getType(), contextVariables);			
-				content.setType(newType);
+			if (part.getType() != null) {
+				content.setType(part.getType().render(contextVariables));
 
-				print(" type="  + content.getType());
+				print(" type={}", content.getType());
 			}
 
 			println();
 
-			if (content.getValue() != null) {
-				final String newValue = VariableHelper.substituteVariables(content.getValue(), contextVariables);			
-				content.setValue(newValue.trim());
+			if (part.getValue() != null) {
+				content.setValue(part.getValue().render(contextVariables).trim());
 
 				println(content.getValue());
 			}
+			contents.add(content);
 		}
 
 		return contents;
 	}
 
-	private byte[] getFileContent(File file) {
-
-		//TODO test file size
-
-		byte[] buffer = new byte[(int) file.length()];
-		InputStream ios = null;
-		try {
-			ios = new FileInputStream(file);
-			if ( ios.read(buffer) == -1 ) {
-				throw new IOException("EOF reached while trying to read the whole file");
-			}        
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-			return null;
-		} catch (IOException e) {
-			e.printStackTrace();
-			return null;
-		} finally { 
-			try {
-				if ( ios != null ) 
-					ios.close();
-			} catch ( IOException e) {
-			}
-		}
-
-		return buffer;
-	}
-
 	private String generateBoundary() {
 
 		final char[] BOUNDARY_CHARS = "-_1234567890abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
@@ -852,56 +1172,90 @@ public class WorkflowEngine {
 
 	
 	
-	private String processXPathValue(Document document, String v, boolean namespaceAware, final List<Variable> contextVariables) {
-		if(v.contains(XPATH_EXPR)) {
-			String xpathExpr = v.substring(v.indexOf(XPATH_EXPR) + XPATH_EXPR.length(), v.lastIndexOf("}"));
-			xpathExpr = VariableHelper.substituteVariables(xpathExpr, contextVariables);
-			try {
-				final XPath xpath = XFACTORY.newXPath();
-				if (namespaceAware) {
-					xpath.setNamespaceContext(new UniversalNamespaceCache(document, false));	
-				}
-				
-				final XPathExpression expr = xpath.compile(xpathExpr);
+	/**
+	 * Evaluate a compiled value: its XPath expression is evaluated on the response document (if any).
+	 */
+	private String evaluate(final ValueExpression expression, final ResponseDocument document, final UniversalNamespaceCache namespaces,
+			final VariableScope headerVariables, final VariableScope contextVariables, final boolean azot) {
+		if (expression == null) {
+			return null;
+		}
+		if (document != null && expression.isXPath()) {
+			final String xpath = expression.getXPath().render(headerVariables);
+			final String result = evaluateXPath(expression.getKind() == ValueExpression.Kind.XPATH_NODES, xpath, document.get(), namespaces);
+			return (result != null) ? result : expression.getTemplate().render(headerVariables);
+		}
+		return evaluate(expression.getTemplate().render(headerVariables), document, namespaces, contextVariables, azot);
+	}
 
-				final Object result = expr.evaluate(document, XPathConstants.NODESET);
-				final NodeList nodes = (NodeList) result;
-				v = "";
-				for (int i = 0; i < nodes.getLength(); i++) {
-					if(i != 0) {
-						v += " ";
-					}
-					v += nodes.item(i).getNodeValue();
+	/**
+	 * Evaluate a substituted value (an expression can come from a variable value). Only the XPath expressions need
+	 * a response document: the azot functions also apply to the binary responses (ex: on azot-dump-filepath).
+	 */
+	private String evaluate(final String value, final ResponseDocument document, final UniversalNamespaceCache namespaces,
+			final VariableScope contextVariables, final boolean azot) {
+		if (value != null) {
+			if (value.startsWith(XPATH)) {
+				if (document != null) {
+					return processXPathValue(document.get(), value, namespaces, contextVariables);
 				}
-
-			} catch (XPathExpressionException e) {
-				e.printStackTrace();
 			}
+			else if (azot && value.startsWith(AZOT)) {
+				return processAzotValue(value, contextVariables);
+			}
+		}
+		return value;
+	}
 
+	private String processXPathValue(Document document, String v, UniversalNamespaceCache namespaces, final VariableScope contextVariables) {
+		if(v.contains(XPATH_EXPR)) {
+			String xpathExpr = v.substring(v.indexOf(XPATH_EXPR) + XPATH_EXPR.length(), v.lastIndexOf("}"));
+			xpathExpr = VariableHelper.substituteVariables(xpathExpr, contextVariables);
+			final String result = evaluateXPath(true, xpathExpr, document, namespaces);
+			if (result != null) {
+				v = result;
+			}
 		}
 		else if(v.contains(XPATH_EVAL)) {
 			String xpathEval = v.substring(v.indexOf(XPATH_EVAL) + XPATH_EVAL.length(), v.lastIndexOf("}"));
 			xpathEval = VariableHelper.substituteVariables(xpathEval, contextVariables);
-			
-			try {
-				final XPath xpath = XFACTORY.newXPath();
-				if (namespaceAware) {
-					xpath.setNamespaceContext(new UniversalNamespaceCache(document, false));	
-				}
-				
-				final XPathExpression expr = xpath.compile(xpathEval);
-
-				final Object result = expr.evaluate(document, XPathConstants.STRING);
-				v = result.toString();
-
-			} catch (XPathExpressionException e) {
-				e.printStackTrace();
+			final String result = evaluateXPath(false, xpathEval, document, namespaces);
+			if (result != null) {
+				v = result;
 			}
 		}
 		return v;
 	}
 
-	private String processAzotValue(String responseContent, String v, final List<Variable> contextVariables) {
+	/**
+	 * Return the values of the selected nodes (separated by spaces) or the string value of the expression.
+	 *
+	 * @param nodes <code>true</code> for the values of the nodes
+	 * @return <code>null</code> if the expression is invalid
+	 */
+	private String evaluateXPath(final boolean nodes, final String xpath, final Document document, final UniversalNamespaceCache namespaces) {
+		try {
+			if (nodes) {
+				final NodeList nodeList = (NodeList) XPathHelper.evaluate(xpath, namespaces, document, XPathConstants.NODESET);
+				final StringBuilder values = new StringBuilder();
+				for (int i = 0; i < nodeList.getLength(); i++) {
+					if(i != 0) {
+						values.append(' ');
+					}
+					values.append(nodeList.item(i).getNodeValue());
+				}
+				return values.toString();
+			}
+			return XPathHelper.evaluate(xpath, namespaces, document, XPathConstants.STRING).toString();
+		} catch (XPathExpressionException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+
+
+	private String processAzotValue(String v, final VariableScope contextVariables) {
 		if(v.contains(AZOT_REPLACE)) {
 			String azotExpr = v.substring(v.indexOf(AZOT_REPLACE) + AZOT_REPLACE.length(), v.lastIndexOf("}"));
 			azotExpr = VariableHelper.substituteVariables(azotExpr, contextVariables);
@@ -924,83 +1278,112 @@ public class WorkflowEngine {
 		return v;
 	}
 
-	private Document initDocument(String responseContent, Document document, boolean namespaceAware) {
-		if(document == null) {
-			try {
-				final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-				factory.setNamespaceAware(namespaceAware);
-				final DocumentBuilder builder = factory.newDocumentBuilder();
-				document = builder.parse(new ByteArrayInputStream(responseContent.getBytes("UTF8")));
-			} catch (UnsupportedEncodingException e) {
-				throw new AzotException(e);
-			} catch (ParserConfigurationException e) {
-				throw new AzotException(e);
-			} catch (SAXException e) {
-				throw new AzotException(e);
-			} catch (IOException e) {
-				throw new AzotException(e);
+	/**
+	 * Document of a response, parsed on first use.
+	 */
+	private static class ResponseDocument {
+
+		private final ResponseBody body;
+		private final boolean namespaceAware;
+		private Document document;
+
+		ResponseDocument(final ResponseBody body, final boolean namespaceAware) {
+			this.body = body;
+			this.namespaceAware = namespaceAware;
+		}
+
+		Document get() {
+			if(document == null) {
+				try {
+					// Parse the raw bytes: the parser handles the encoding declared by the document
+					document = XPathHelper.parse(body.asInputStream(), namespaceAware);
+				} catch (ParserConfigurationException e) {
+					throw new AzotException(e);
+				} catch (SAXException e) {
+					throw new AzotException(e);
+				} catch (IOException e) {
+					throw new AzotException(e);
+				}
 			}
+			return document;
 		}
-		return document;
 	}
 
 
-	private String stringify(final InputStream inputStream) {
-		if (inputStream == null) {
-			return "";
+	/**
+	 * <code>meta:Content</code> variable, decoded from the response body when its value is first read (the variable
+	 * can be reached through other variables, so its use cannot be known from the plan).
+	 */
+	private static final class ContentVariable extends Variable {
+
+		private final ResponseBody body;
+
+		ContentVariable(final ResponseBody body) {
+			this.body = body;
+			setId("meta:Content");
 		}
-		try {
-			int ichar;
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			for (;;) {
-				ichar = inputStream.read();
-				if (ichar < 0) {
-					break;
+
+		@Override
+		public String getValue() {
+			if (value == null) {
+				try {
+					value = body.asString();
+				} catch (final IOException e) {
+					throw new AzotException("Cannot decode the response content", e);
 				}
-				baos.write(ichar);
-			}
-			return baos.toString("UTF-8");
-		} catch (UnsupportedEncodingException e) {
-			throw new RuntimeException(e);
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		} finally {
-			try {
-				inputStream.close();
-			} catch (IOException e) {
-				throw new RuntimeException(e);
 			}
+			return value;
 		}
 	}
 
-	private final int copy(InputStream paramInputStream, OutputStream paramOutputStream) throws IOException {
-
-		byte[] arrayOfByte = new byte[4096];
-		int i = 0;
-		int j = 0;
-		while (-1 != (j = paramInputStream.read(arrayOfByte))) {
-			paramOutputStream.write(arrayOfByte, 0, j);
-			i += j;
+	/**
+	 * Return the charset of a Content-Type header (UTF-8 by default).
+	 */
+	private static Charset getCharset(final String contentType) {
+		if (contentType != null) {
+			for (final String parameter : contentType.split(";")) {
+				final String trimmed = parameter.trim();
+				if (trimmed.regionMatches(true, 0, "charset=", 0, 8)) {
+					final String name = trimmed.substring(8).replace("\"", "").trim();
+					try {
+						return Charset.forName(name);
+					} catch (IllegalCharsetNameException e) {
+						break;
+					} catch (UnsupportedCharsetException e) {
+						break;
+					}
+				}
+			}
 		}
-		return i;
+		return UTF8;
 	}
 
 	private void println() {
-		if (AzotConfig.GLOBAL.VERBOSE) {
-			System.out.println();
-		}
+		log.println();
 	}
 
 	private void println(String msg) {
-		if (AzotConfig.GLOBAL.VERBOSE) {
-			System.out.println(msg);
-		}
+		log.println(msg);
+	}
+
+	private void println(final String template, final Object arg) {
+		log.println(template, arg);
+	}
+
+	private void println(final String template, final Object arg1, final Object arg2) {
+		log.println(template, arg1, arg2);
+	}
+
+	private void println(final String template, final Object arg1, final Object arg2, final Object arg3) {
+		log.println(template, arg1, arg2, arg3);
 	}
 
 	private void print(String msg) {
-		if (AzotConfig.GLOBAL.VERBOSE) {
-			System.out.print(msg);
-		}
+		log.print(msg);
+	}
+
+	private void print(final String template, final Object arg) {
+		log.print(template, arg);
 	}
 
 	private void echo(String msg) {
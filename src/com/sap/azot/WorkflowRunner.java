@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the forked workflows of a launch (nested forks included) on a bounded executor, and waits for them.
+ *
+ * The executor is created on the first fork, with at most <code>azot-max-forked-workflows</code> workflows
+ * running at the same time (on virtual threads when available).
+ *
+ * @author amuller
+ */
+public final class WorkflowRunner {
+
+	/** <code>true</code> on the threads running a forked workflow */
+	private static final ThreadLocal<Boolean> FORKED_THREAD = new ThreadLocal<Boolean>();
+
+	private final RunConfig config;
+
+	private final Object lock = new Object();
+
+	/** Forked workflows not finished yet */
+	private final AtomicInteger outstanding = new AtomicInteger();
+
+	private final ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+
+	private ExecutorService executor = null;
+
+	public WorkflowRunner(final RunConfig config) {
+		this.config = config;
+	}
+
+	public RunConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * Run the given workflow asynchronously.
+	 *
+	 * @param workflow
+	 * @return the future of the workflow (its failure is also returned by {@link #join()})
+	 */
+	public Future<?> fork(final Runnable workflow) {
+		outstanding.incrementAndGet();
+		try {
+			return getExecutor().submit(new Runnable() {
+				@Override
+				public void run() {
+					FORKED_THREAD.set(Boolean.TRUE);
+					try {
+						workflow.run();
+					} catch (final RuntimeException e) {
+						failures.add(e);
+						throw e;
+					} catch (final Error e) {
+						failures.add(e);
+						throw e;
+					} finally {
+						FORKED_THREAD.remove();
+						done();
+					}
+				}
+			});
+		} catch (final RuntimeException e) {
+			done();
+			throw e;
+		}
+	}
+
+	/**
+	 * Return <code>true</code> if the current thread runs a forked workflow (or a workflow nested in it).
+	 *
+	 * @return
+	 */
+	public static boolean isForkedThread() {
+		return FORKED_THREAD.get() != null;
+	}
+
+	/**
+	 * Wait for all the forked workflows, including the ones forked while waiting.
+	 *
+	 * @return the failures of the forked workflows (empty if all of them succeeded)
+	 */
+	public List<Throwable> join() {
+		synchronized (lock) {
+			while (outstanding.get() > 0) {
+				try {
+					lock.wait();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new AzotException(e);
+				}
+			}
+		}
+
+		synchronized (this) {
+			if (executor != null) {
+				executor.shutdown();
+				executor = null;
+			}
+		}
+		return new ArrayList<Throwable>(failures);
+	}
+
+	private void done() {
+		if (outstanding.decrementAndGet() == 0) {
+			synchronized (lock) {
+				lock.notifyAll();
+			}
+		}
+	}
+
+	private synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = AzotExecutors.newBoundedExecutor("AzotWorkflow", Math.max(1, config.MAX_FORKED_WORKFLOWS), config.VIRTUAL_THREADS);
+		}
+		return executor;
+	}
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * Parsing of the responses and evaluation of XPath expressions.
+ *
+ * Document builders and compiled expressions are not thread-safe: they are pooled (rather than kept
+ * per thread, as the iterations can run on short-lived virtual threads).
+ *
+ * @author amuller
+ */
+public final class XPathHelper {
+
+	/** Maximum number of distinct expressions kept compiled */
+	private static final int MAX_EXPRESSIONS = 1024;
+
+	private static final XPathFactory XFACTORY = XPathFactory.newInstance();
+
+	private static final DocumentBuilderFactory FACTORY = newFactory(false);
+	private static final DocumentBuilderFactory NS_FACTORY = newFactory(true);
+
+	private static final Queue<DocumentBuilder> BUILDERS = new ConcurrentLinkedQueue<DocumentBuilder>();
+	private static final Queue<DocumentBuilder> NS_BUILDERS = new ConcurrentLinkedQueue<DocumentBuilder>();
+
+	private static final ConcurrentHashMap<ExpressionKey, Queue<XPathExpression>> EXPRESSIONS = new ConcurrentHashMap<ExpressionKey, Queue<XPathExpression>>();
+
+	private XPathHelper() {
+	}
+
+	private static DocumentBuilderFactory newFactory(final boolean namespaceAware) {
+		final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(namespaceAware);
+		return factory;
+	}
+
+	/**
+	 * Parse a XML document.
+	 *
+	 * @param inputStream
+	 * @param namespaceAware
+	 * @return
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 */
+	public static Document parse(final InputStream inputStream, final boolean namespaceAware) throws SAXException, IOException, ParserConfigurationException {
+		final Queue<DocumentBuilder> builders = namespaceAware ? NS_BUILDERS : BUILDERS;
+		DocumentBuilder builder = builders.poll();
+		if (builder == null) {
+			final DocumentBuilderFactory factory = namespaceAware ? NS_FACTORY : FACTORY;
+			// DocumentBuilderFactory is not thread-safe
+			synchronized (factory) {
+				builder = factory.newDocumentBuilder();
+			}
+		}
+		try {
+			return builder.parse(inputStream);
+		} finally {
+			builder.reset();
+			builders.offer(builder);
+		}
+	}
+
+	/**
+	 * Evaluate an expression (compiled once per namespace mapping).
+	 *
+	 * @param expression
+	 * @param namespaces namespaces of the document, <code>null</code> if not namespace aware
+	 * @param document
+	 * @param returnType
+	 * @return
+	 * @throws XPathExpressionException
+	 */
+	public static Object evaluate(final String expression, final UniversalNamespaceCache namespaces, final Document document, final QName returnType) throws XPathExpressionException {
+		final ExpressionKey key = new ExpressionKey(expression, (namespaces == null) ? null : namespaces.getPrefixUris());
+
+		Queue<XPathExpression> compiledExpressions = EXPRESSIONS.get(key);
+		XPathExpression compiledExpression = (compiledExpressions == null) ? null : compiledExpressions.poll();
+		if (compiledExpression == null) {
+			final XPath xpath = newXPath();
+			if (namespaces != null) {
+				// The prefixes are resolved at compilation time
+				xpath.setNamespaceContext(namespaces);
+			}
+			compiledExpression = xpath.compile(expression);
+		}
+
+		try {
+			return compiledExpression.evaluate(document, returnType);
+		} finally {
+			if (compiledExpressions == null && EXPRESSIONS.size() < MAX_EXPRESSIONS) {
+				final Queue<XPathExpression> newQueue = new ConcurrentLinkedQueue<XPathExpression>();
+				final Queue<XPathExpression> previous = EXPRESSIONS.putIfAbsent(key, newQueue);
+				compiledExpressions = (previous == null) ? newQueue : previous;
+			}
+			if (compiledExpressions != null) {
+				compiledExpressions.offer(compiledExpression);
+			}
+		}
+	}
+
+	private static XPath newXPath() {
+		// XPathFactory is not thread-safe
+		synchronized (XFACTORY) {
+			return XFACTORY.newXPath();
+		}
+	}
+
+	private static class ExpressionKey {
+
+		private final String expression;
+		private final Map<String, String> prefixes;
+		private final int hashCode;
+
+		ExpressionKey(final String expression, final Map<String, String> prefixes) {
+			this.expression = expression;
+			this.prefixes = prefixes;
+			this.hashCode = 31 * expression.hashCode() + ((prefixes == null) ? 0 : prefixes.hashCode());
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof ExpressionKey)) {
+				return false;
+			}
+			final ExpressionKey other = (ExpressionKey) obj;
+			return expression.equals(other.expression) && (prefixes == null ? other.prefixes == null : prefixes.equals(other.prefixes));
+		}
+	}
+}
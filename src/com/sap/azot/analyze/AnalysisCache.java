@@ -0,0 +1,261 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.analyze;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Summary of the analysis of a workflow directory (<code>analyze.cache</code>), kept with the fingerprint of the
+ * report it was computed from (size, modification time and SHA-1).
+ *
+ * A report with the same size and modification time is not read again; if only the modification time changed,
+ * the report is hashed and the summary reused when the content is the same.
+ *
+ * @author amuller
+ */
+final class AnalysisCache {
+
+	static final String FILE_NAME = "analyze.cache";
+
+	private static final int MAGIC = 0x415A4331; // AZC1
+
+	private static final int VERSION = 2;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File cacheFile;
+
+	private final File sourceFile;
+
+	private final long size;
+
+	private final long lastModified;
+
+	private byte[] hash;
+
+	/**
+	 * @param workflowDirectory
+	 * @param sourceFile the report the analysis is computed from
+	 */
+	AnalysisCache(final File workflowDirectory, final File sourceFile) {
+		this.cacheFile = new File(workflowDirectory, FILE_NAME);
+		this.sourceFile = sourceFile;
+		// Taken before the report is read: a report changed meanwhile is analyzed again the next time
+		this.size = sourceFile.length();
+		this.lastModified = sourceFile.lastModified();
+	}
+
+	/**
+	 * @return the cached analysis, <code>null</code> if there is none or if the report changed
+	 */
+	AnalysisData read() {
+		if (!cacheFile.isFile()) {
+			return null;
+		}
+		try {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+			final AnalysisData analysisData;
+			boolean touched = false;
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+					return null;
+				}
+				if (!sourceFile.getName().equals(readString(in)) || in.readLong() != size) {
+					return null;
+				}
+				final long cachedLastModified = in.readLong();
+				final int hashLength = in.readInt();
+				if (hashLength < 0 || hashLength > 64) {
+					return null;
+				}
+				final byte[] cachedHash = new byte[hashLength];
+				in.readFully(cachedHash);
+				if (cachedLastModified != lastModified) {
+					if (!Arrays.equals(cachedHash, getHash())) {
+						return null;
+					}
+					touched = true;
+				}
+				hash = cachedHash;
+				analysisData = readAnalysisData(in);
+			} finally {
+				in.close();
+			}
+			if (touched) {
+				// Same content: record the new modification time
+				write(analysisData);
+			}
+			return analysisData;
+		} catch (final IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Save the analysis of the report (errors are ignored, the report is analyzed again the next time).
+	 *
+	 * @param analysisData
+	 */
+	void write(final AnalysisData analysisData) {
+		final File tmpFile = new File(cacheFile.getParentFile(), FILE_NAME + ".tmp");
+		try {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				writeString(out, sourceFile.getName());
+				out.writeLong(size);
+				out.writeLong(lastModified);
+				final byte[] sourceHash = getHash();
+				out.writeInt(sourceHash.length);
+				out.write(sourceHash);
+				writeAnalysisData(out, analysisData);
+			} finally {
+				out.close();
+			}
+			if (!tmpFile.renameTo(cacheFile)) {
+				cacheFile.delete();
+				if (!tmpFile.renameTo(cacheFile)) {
+					tmpFile.delete();
+				}
+			}
+		} catch (final IOException e) {
+			tmpFile.delete();
+		}
+	}
+
+	private byte[] getHash() throws IOException {
+		if (hash == null) {
+			final MessageDigest digest;
+			try {
+				digest = MessageDigest.getInstance("SHA-1");
+			} catch (final NoSuchAlgorithmException e) {
+				throw new IOException(e);
+			}
+			final InputStream in = new FileInputStream(sourceFile);
+			try {
+				final byte[] buffer = new byte[64 * 1024];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					digest.update(buffer, 0, read);
+				}
+			} finally {
+				in.close();
+			}
+			hash = digest.digest();
+		}
+		return hash;
+	}
+
+	private static void writeAnalysisData(final DataOutputStream out, final AnalysisData analysisData) throws IOException {
+		writeString(out, analysisData.name);
+		out.writeLong(analysisData.duration);
+		out.writeInt(analysisData.window);
+
+		final Map<String, String> properties = analysisData.properties;
+		out.writeInt((properties == null) ? -1 : properties.size());
+		if (properties != null) {
+			for (final Map.Entry<String, String> property : properties.entrySet()) {
+				writeString(out, property.getKey());
+				writeString(out, property.getValue());
+			}
+		}
+
+		out.writeInt((analysisData.rows == null) ? -1 : analysisData.rows.length);
+		if (analysisData.rows != null) {
+			for (final AnalysisData.Row row : analysisData.rows) {
+				writeString(out, row.name);
+				out.writeInt(row.count);
+				out.writeInt(row.countErrors);
+				out.writeInt(row.countFailures);
+				out.writeInt(row.min);
+				out.writeInt(row.max);
+				out.writeLong(row.sum);
+				out.writeDouble(row.sumOfSquares);
+				row.histogram.write(out);
+			}
+		}
+	}
+
+	private static AnalysisData readAnalysisData(final DataInputStream in) throws IOException {
+		final AnalysisData analysisData = new AnalysisData();
+		analysisData.name = readString(in);
+		analysisData.duration = in.readLong();
+		analysisData.window = in.readInt();
+
+		final int propertyCount = in.readInt();
+		if (propertyCount >= 0) {
+			analysisData.properties = new LinkedHashMap<String, String>();
+			for (int i = 0; i < propertyCount; i++) {
+				final String name = readString(in);
+				analysisData.properties.put(name, readString(in));
+			}
+		}
+
+		final int rowCount = in.readInt();
+		if (rowCount >= 0) {
+			analysisData.rows = new AnalysisData.Row[rowCount];
+			for (int i = 0; i < rowCount; i++) {
+				final AnalysisData.Row row = new AnalysisData.Row();
+				row.name = readString(in);
+				row.count = in.readInt();
+				row.countErrors = in.readInt();
+				row.countFailures = in.readInt();
+				row.min = in.readInt();
+				row.max = in.readInt();
+				row.sum = in.readLong();
+				row.sumOfSquares = in.readDouble();
+				row.histogram.read(in);
+				analysisData.rows[i] = row;
+			}
+		}
+		return analysisData;
+	}
+
+	private static void writeString(final DataOutputStream out, final String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		final byte[] bytes = value.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(final DataInputStream in) throws IOException {
+		final int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		final byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+}
@@ -15,8 +15,12 @@
  */ 
 package com.sap.azot.analyze;
 
+import java.util.Arrays;
 import java.util.Map;
 
+import com.sap.azot.analyze.CallData.Status;
+import com.sap.azot.report.LatencyHistogram;
+
 /**
  * @author amuller
  */
@@ -26,8 +30,16 @@ public class AnalysisData {
 	long duration = -1;
 	String name = "";
 	Row[] rows;
+	/** Size (ms) of the windows of the time series, 0 if disabled */
+	int window = 0;
+	/** Time series, by window then in order of first appearance of the calls (not kept in the cache) */
+	Window[] windows;
 	
 
+	/**
+	 * Statistics of a call, accumulated in a single pass: the rows of several workflows can be merged
+	 * exactly (counts and sums are added, the latency histograms too).
+	 */
 	public static class Row {
 		String name = "";
 		int count = 0;
@@ -35,6 +47,127 @@ public class AnalysisData {
 		int countFailures = 0;
 		int min = Integer.MAX_VALUE;
 		int max = Integer.MIN_VALUE;
-		int avg = -1;
+		long sum = 0;
+		double sumOfSquares = 0;
+		/** Durations in us (ms * 1000), for the percentiles */
+		final LatencyHistogram histogram = new LatencyHistogram();
+
+		void add(final CallData callData) {
+			final int duration = callData.getDuration();
+			count++;
+			if (Status.ERROR.equals(callData.getStatus())) {
+				countErrors++;
+			} else if (Status.FAILURE.equals(callData.getStatus())) {
+				countFailures++;
+			}
+			if (duration < min) {
+				min = duration;
+			}
+			if (duration > max) {
+				max = duration;
+			}
+			sum += duration;
+			sumOfSquares += (double) duration * duration;
+			histogram.recordValue(duration * 1000L);
+		}
+
+		void add(final Row row) {
+			count += row.count;
+			countErrors += row.countErrors;
+			countFailures += row.countFailures;
+			if (row.min < min) {
+				min = row.min;
+			}
+			if (row.max > max) {
+				max = row.max;
+			}
+			sum += row.sum;
+			sumOfSquares += row.sumOfSquares;
+			histogram.add(row.histogram);
+		}
+
+		/**
+		 * @return the mean duration (ms), -1 if empty
+		 */
+		double getMean() {
+			return (count == 0) ? -1 : (double) sum / count;
+		}
+
+		/**
+		 * @return the standard deviation of the durations (ms), 0 if empty
+		 */
+		double getStandardDeviation() {
+			if (count == 0) {
+				return 0;
+			}
+			final double mean = (double) sum / count;
+			return Math.sqrt(Math.max(0, sumOfSquares / count - mean * mean));
+		}
+
+		/**
+		 * @param percentile between 0 and 100
+		 * @return the duration (ms) at the given percentile (relative error below 1%), 0 if empty
+		 */
+		double getPercentile(final double percentile) {
+			return histogram.getValueAtPercentile(percentile) / 1000d;
+		}
+	}
+
+	/**
+	 * Calls of a name started during a window of the time series.
+	 */
+	public static class Window {
+		/** Start of the window (ms from the start of the workflow) */
+		int start = 0;
+		String name = "";
+		int count = 0;
+		int countErrors = 0;
+		int countFailures = 0;
+		/** Durations (ms), sorted by {@link #complete()} */
+		int[] durations = new int[16];
+
+		void add(final CallData callData) {
+			if (count == durations.length) {
+				durations = Arrays.copyOf(durations, count * 2);
+			}
+			durations[count++] = callData.getDuration();
+			if (Status.ERROR.equals(callData.getStatus())) {
+				countErrors++;
+			} else if (Status.FAILURE.equals(callData.getStatus())) {
+				countFailures++;
+			}
+		}
+
+		void complete() {
+			durations = Arrays.copyOf(durations, count);
+			Arrays.sort(durations);
+		}
+
+		/**
+		 * @param window size of the window (ms)
+		 * @return the number of calls per second
+		 */
+		double getThroughput(final int window) {
+			return count * 1000d / window;
+		}
+
+		/**
+		 * @return the ratio of calls in error or failed
+		 */
+		double getErrorRate() {
+			return (count == 0) ? 0 : (double) (countErrors + countFailures) / count;
+		}
+
+		/**
+		 * @param percentile between 0 and 100
+		 * @return the duration (ms) at the given percentile (nearest rank), 0 if empty
+		 */
+		int getPercentile(final double percentile) {
+			if (count == 0) {
+				return 0;
+			}
+			final int rank = (int) Math.ceil(Math.min(Math.max(percentile, 0), 100) / 100 * count);
+			return durations[Math.max(1, rank) - 1];
+		}
 	}
 }
@@ -15,17 +15,22 @@
  */ 
 package com.sap.azot.analyze;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import javax.xml.stream.FactoryConfigurationError;
 import javax.xml.stream.XMLInputFactory;
@@ -34,21 +39,55 @@ import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.TransformerFactoryConfigurationError;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
 import com.sap.azot.analyze.CallData.Status;
+import com.sap.azot.report.BinaryResultSink;
 
 /**
+ * Analyzes the workflow reports of a directory tree: the directories are scanned and the reports processed in parallel.
+ *
  * @author amuller
  */
 public class AnalyzeLauncher {
 
+	/** The factories are not thread-safe: one per thread */
+	private static final ThreadLocal<XMLInputFactory> XML_INPUT_FACTORY = new ThreadLocal<XMLInputFactory>() {
+		@Override
+		protected XMLInputFactory initialValue() {
+			return XMLInputFactory.newInstance();
+		}
+	};
+
+	private static final ThreadLocal<XMLOutputFactory> XML_OUTPUT_FACTORY = new ThreadLocal<XMLOutputFactory>() {
+		@Override
+		protected XMLOutputFactory initialValue() {
+			return XMLOutputFactory.newInstance();
+		}
+	};
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** <code>analyze.xsl</code>, compiled once (thread-safe) */
+	private static Templates analyzeTemplates;
+
+	/** Size (ms) of the windows of the time series, 0 if disabled */
+	private final int window;
+
+	private AnalyzeLauncher(final int window) {
+		this.window = window;
+	}
+
 	/**
-	 * @param args
+	 * @param args directory path, then parallelism (optional, number of processors by default) and size of the
+	 * windows of the time series in ms (optional, 10000 by default, 0 to disable it); or <code>-compare</code>,
+	 * see {@link #compare(String[])}
 	 * @throws IOException 
 	 */
 	public static void main(final String[] args) {
@@ -56,6 +95,27 @@ public class AnalyzeLauncher {
 			System.err.println("Please provide directory path as the first argument.");
 			System.exit(1);
 		}
+		if ("-compare".equals(args[0])) {
+			System.exit(compare(args));
+		}
+		int parallelism = Runtime.getRuntime().availableProcessors();
+		if (args.length > 1) {
+			try {
+				parallelism = Integer.parseInt(args[1]);
+			} catch (final NumberFormatException e) {
+				System.err.println("Please provide a valid parallelism as the second argument.");
+				System.exit(1);
+			}
+		}
+		int window = 10000;
+		if (args.length > 2) {
+			try {
+				window = Integer.parseInt(args[2]);
+			} catch (final NumberFormatException e) {
+				System.err.println("Please provide a valid window size (ms) as the third argument.");
+				System.exit(1);
+			}
+		}
 
 		final File workflowsDirectory = new File(args[0]);
 		if (!workflowsDirectory.exists() || !workflowsDirectory.isDirectory()) {
@@ -63,8 +123,7 @@ public class AnalyzeLauncher {
 			System.exit(1);
 		}
 
-		final Map<File, AnalysisData> processedWorkflows = new TreeMap<File, AnalysisData>();
-		processWorkflowDirectory(workflowsDirectory, processedWorkflows);
+		final Map<File, AnalysisData> processedWorkflows = analyzeDirectory(workflowsDirectory, parallelism, window);
 		
 		// Generate consolidated analysis
 		generatedConsolidatedAnalysis(processedWorkflows);
@@ -72,53 +131,141 @@ public class AnalyzeLauncher {
 	}
 
 
+	/**
+	 * Compare a candidate run with a baseline run: <code>-compare baselineDirectory candidateDirectory [tolerance [significance]]</code>.
+	 * The tolerance is a percentage (10 by default), the significance level of the Mann-Whitney U test is 0.05 by default.
+	 * Writes <code>compare.xml</code>.
+	 *
+	 * @param args
+	 * @return the exit code: 0 if there is no regression, 2 otherwise (1 for invalid arguments)
+	 */
+	private static int compare(final String[] args) {
+		if (args.length < 3) {
+			System.err.println("Please provide the baseline and candidate directory paths after -compare.");
+			return 1;
+		}
+		final File baselineDirectory = new File(args[1]);
+		final File candidateDirectory = new File(args[2]);
+		if (!baselineDirectory.isDirectory() || !candidateDirectory.isDirectory()) {
+			System.err.println("Please provide valid baseline and candidate directory paths after -compare.");
+			return 1;
+		}
+		double tolerance = 10;
+		double significance = 0.05;
+		try {
+			if (args.length > 3) {
+				tolerance = Double.parseDouble(args[3]);
+			}
+			if (args.length > 4) {
+				significance = Double.parseDouble(args[4]);
+			}
+		} catch (final NumberFormatException e) {
+			System.err.println("Please provide a valid tolerance (%) and significance level.");
+			return 1;
+		}
+
+		final int parallelism = Runtime.getRuntime().availableProcessors();
+		final AnalysisData baseline = consolidate(analyzeDirectory(baselineDirectory, parallelism, 10000));
+		final AnalysisData candidate = consolidate(analyzeDirectory(candidateDirectory, parallelism, 10000));
+
+		final RunComparison comparison = new RunComparison(baseline, candidate, tolerance, significance);
+		comparison.print(System.out);
+		try {
+			comparison.writeXML(new File("compare.xml"), baselineDirectory, candidateDirectory);
+		} catch (final Exception e) {
+			e.printStackTrace();
+		}
+		return comparison.hasRegression() ? 2 : 0;
+	}
+
+
+	private static Map<File, AnalysisData> analyzeDirectory(final File workflowsDirectory, final int parallelism, final int window) {
+		final ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+		try {
+			return pool.invoke(new WorkflowDirectoryTask(workflowsDirectory, Math.max(0, window)));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+
 	private static void generatedConsolidatedHTML(final Map<File, AnalysisData> processedWorkflows) {
 		try {
 			final File globalAnalyze = new File("global-analyze.html");
-			final FileWriter gaWriter = new FileWriter(globalAnalyze);
-			gaWriter.write("<html>");
-			gaWriter.write("<body>");
-			
-			// Consolidated analyze
-			final File consolidatedAnalysisHTML = new File("analyze.html");
-			if(consolidatedAnalysisHTML.exists() && consolidatedAnalysisHTML.isFile()) {
-				final String consolidatedAnalyse = stringify(new FileInputStream(consolidatedAnalysisHTML));
-				gaWriter.write(consolidatedAnalyse);	
-			}
-			
-			// Workflow analyzes
-			for (final File processedWorkflowDirectory : processedWorkflows.keySet()) {
-				final File analyseFile =  new File(processedWorkflowDirectory, "analyze.html");
-				if(analyseFile.exists() && analyseFile.isFile()) {
-					final String fragmentAnalyse = stringify(new FileInputStream(analyseFile));
-					gaWriter.write(fragmentAnalyse);	
+			final FileOutputStream gaOut = new FileOutputStream(globalAnalyze);
+			try {
+				// The fragments are copied as is (by the file system if possible)
+				final FileChannel gaChannel = gaOut.getChannel();
+				write(gaChannel, "<html>");
+				write(gaChannel, "<body>");
+				
+				// Consolidated analyze
+				transferFragment(new File("analyze.html"), gaChannel);
+				
+				// Workflow analyzes
+				for (final File processedWorkflowDirectory : processedWorkflows.keySet()) {
+					transferFragment(new File(processedWorkflowDirectory, "analyze.html"), gaChannel);
 				}
+				
+				write(gaChannel, "</body>");
+				write(gaChannel, "</html>");
+			} finally {
+				gaOut.close();
 			}
-			
-			gaWriter.write("</body>");
-			gaWriter.write("</html>");
-			gaWriter.flush();
-			gaWriter.close();
 		} catch (final IOException e) {
 			e.printStackTrace();
 		}
 	}
 
 
+	private static void write(final FileChannel channel, final String text) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(UTF8));
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+
+	private static void transferFragment(final File fragmentFile, final FileChannel channel) throws IOException {
+		if (!fragmentFile.isFile()) {
+			return;
+		}
+		final FileInputStream in = new FileInputStream(fragmentFile);
+		try {
+			final FileChannel fragmentChannel = in.getChannel();
+			final long size = fragmentChannel.size();
+			long position = 0;
+			while (position < size) {
+				final long transferred = fragmentChannel.transferTo(position, size - position, channel);
+				if (transferred <= 0) {
+					break;
+				}
+				position += transferred;
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+
 	private static void generatedConsolidatedAnalysis(final Map<File, AnalysisData> processedWorkflows) throws FactoryConfigurationError, TransformerFactoryConfigurationError {
+		final AnalysisData consolidatedData = consolidate(processedWorkflows);
+		generateXML(consolidatedData, new File("."));
+		generateHTML(consolidatedData, new File("."));
+	}
+
+
+	private static AnalysisData consolidate(final Map<File, AnalysisData> processedWorkflows) {
 		// Build consolidated workflow analysis data 
 		final AnalysisData consolidatedData = new AnalysisData();
 		consolidatedData.name = "Consolidated Analysis";
+		long totalDuration = 0;
 
 		final List<AnalysisData.Row> consolidatedRows = new ArrayList<AnalysisData.Row>();
 		for (final File processedWorkflowDirectory : processedWorkflows.keySet()) {
 			final AnalysisData analysisData = processedWorkflows.get(processedWorkflowDirectory);
 
-			if (consolidatedData.duration == -1) {
-				consolidatedData.duration += analysisData.duration;
-			} else {
-				consolidatedData.duration = (consolidatedData.duration + analysisData.duration) / 2;
-			}
+			totalDuration += analysisData.duration;
 			
 			if (analysisData.rows != null) {
 				for (final AnalysisData.Row analysisRow : analysisData.rows) {
@@ -136,55 +283,103 @@ public class AnalyzeLauncher {
 						consolidatedRows.add(existingConsolidatedRow);
 					}
 					
-					existingConsolidatedRow.count += analysisRow.count;
-					existingConsolidatedRow.countErrors += analysisRow.countErrors;
-					existingConsolidatedRow.countFailures += analysisRow.countFailures;
-					
-					if (existingConsolidatedRow.min > analysisRow.min) {
-						existingConsolidatedRow.min = analysisRow.min;
-					}
-					if (existingConsolidatedRow.max < analysisRow.max) {
-						existingConsolidatedRow.max = analysisRow.max;
-					}
-					if (existingConsolidatedRow.avg == -1) {
-						existingConsolidatedRow.avg = analysisRow.avg;
-					} else {
-						existingConsolidatedRow.avg =  (existingConsolidatedRow.avg + analysisRow.avg) / 2;
-					}
+					existingConsolidatedRow.add(analysisRow);
 				}	
 			}
 		}
+		// Mean duration of the workflows
+		if (!processedWorkflows.isEmpty()) {
+			consolidatedData.duration = totalDuration / processedWorkflows.size();
+		}
 		consolidatedData.rows = consolidatedRows.toArray(new AnalysisData.Row[consolidatedRows.size()]);
-		
-		generateXML(consolidatedData, new File("."));
-		generateHTML(consolidatedData, new File("."));
+		return consolidatedData;
 	}
 	
 	
-	private static void processWorkflowDirectory(final File workflowsDirectory, final Map<File, AnalysisData> processedWorkflows) {
-		final File workflowReportFile = new File(workflowsDirectory, "report.xml");
-		if (workflowReportFile.exists() && workflowReportFile.isFile()) {
-			//System.out .println("Azotyzing: " + workflowReportFile.getAbsolutePath());
-			final AnalysisData analysisData = new AnalyzeLauncher().processWorkflowReport(workflowReportFile);
-			processedWorkflows.put(workflowsDirectory, analysisData);
+	/**
+	 * Processes the report of a directory, or forks a task per sub-directory. The results are merged
+	 * into a sorted map, so that the order does not depend on the scheduling.
+	 */
+	private static class WorkflowDirectoryTask extends RecursiveTask<Map<File, AnalysisData>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final File workflowsDirectory;
+
+		private final int window;
+
+		WorkflowDirectoryTask(final File workflowsDirectory, final int window) {
+			this.workflowsDirectory = workflowsDirectory;
+			this.window = window;
 		}
-		else {
-			final File[] files = workflowsDirectory.listFiles();
-			for (final File file : files) {
-				if (file.isDirectory()) {
-					processWorkflowDirectory(file, processedWorkflows);
+
+		@Override
+		protected Map<File, AnalysisData> compute() {
+			final Map<File, AnalysisData> processedWorkflows = new TreeMap<File, AnalysisData>();
+			final File workflowReportFile = new File(workflowsDirectory, "report.xml");
+			final File binaryReportFile = new File(workflowsDirectory, BinaryResultSink.FILE_NAME);
+			if (workflowReportFile.isFile() || binaryReportFile.isFile()) {
+				//System.out .println("Azotyzing: " + workflowReportFile.getAbsolutePath());
+				final AnalysisData analysisData = new AnalyzeLauncher(window).processWorkflowReport(workflowsDirectory);
+				processedWorkflows.put(workflowsDirectory, analysisData);
+			}
+			else {
+				final File[] files = workflowsDirectory.listFiles();
+				if (files != null) {
+					final List<WorkflowDirectoryTask> subTasks = new ArrayList<WorkflowDirectoryTask>();
+					for (final File file : files) {
+						if (file.isDirectory()) {
+							subTasks.add(new WorkflowDirectoryTask(file, window));
+						}
+					}
+					invokeAll(subTasks);
+					for (final WorkflowDirectoryTask subTask : subTasks) {
+						processedWorkflows.putAll(subTask.join());
+					}
 				}
-			}	
+			}
+			return processedWorkflows;
+		}
+	}
+
+	private AnalysisData processWorkflowReport(final File workflowDirectory) {
+		// Columnar results if available, report.xml otherwise
+		final File binaryReportFile = new File(workflowDirectory, BinaryResultSink.FILE_NAME);
+		final File sourceFile = binaryReportFile.isFile() ? binaryReportFile : new File(workflowDirectory, "report.xml");
+
+		// Unchanged report: the outputs are up to date, unless one of them was removed
+		final AnalysisCache cache = new AnalysisCache(workflowDirectory, sourceFile);
+		final AnalysisData cachedAnalysisData = cache.read();
+		if (cachedAnalysisData != null && cachedAnalysisData.window == window && new File(workflowDirectory, "analyze.xml").isFile()
+				&& (!hasHTML(cachedAnalysisData) || new File(workflowDirectory, "analyze.html").isFile())) {
+			return cachedAnalysisData;
+		}
+
+		WorkflowData workflowData = null;
+		if (binaryReportFile.isFile()) {
+			workflowData = BinaryReportReader.read(binaryReportFile, window);
+		}
+		if (workflowData == null) {
+			workflowData = parseWorkflowReport(new File(workflowDirectory, "report.xml"));
+		}
+
+		// Output generation (XML and HTML)
+		final AnalysisData analysisData = workflowData.createAnalysisData();
+		// Cached only if both outputs are written: a failed output is generated again by the next analysis
+		if (generateXML(analysisData, workflowDirectory) && generateHTML(analysisData, workflowDirectory)) {
+			cache.write(analysisData);
 		}
+		
+		return analysisData;
 	}
 
-	private AnalysisData processWorkflowReport(final File workflowReportFile) {
-		final WorkflowData workflowData = new WorkflowData();
+	private WorkflowData parseWorkflowReport(final File workflowReportFile) {
+		final WorkflowData workflowData = new WorkflowData(window);
 		try {
 			final InputStream in = new FileInputStream(workflowReportFile);
-			final XMLInputFactory factory = XMLInputFactory.newInstance();
-			final XMLStreamReader parser = factory.createXMLStreamReader(in);
+			final XMLStreamReader parser = XML_INPUT_FACTORY.get().createXMLStreamReader(in);
 
+			String currentCallName = null;
 			CallData currentCallData = null;
 			while (parser.hasNext()) {
 
@@ -198,8 +393,8 @@ public class AnalyzeLauncher {
 						workflowData.setDuration((long)(duration * 1000)); // convert to milliseconds
 					}
 					else if ("testcase".equals(parser.getName().toString())) {
-						currentCallData = workflowData.addCallData(
-							parser.getAttributeValue(null, "callName"),
+						currentCallName = parser.getAttributeValue(null, "callName");
+						currentCallData = new CallData(
 							Integer.parseInt(parser.getAttributeValue(null, "callStartTime")),
 							Integer.parseInt(parser.getAttributeValue(null, "callEndTime"))
 						);
@@ -221,6 +416,14 @@ public class AnalyzeLauncher {
 						}
 					}
 					break;
+
+				case XMLStreamConstants.END_ELEMENT:
+					// The status is known once the test case is closed
+					if ("testcase".equals(parser.getName().toString()) && currentCallData != null) {
+						workflowData.addCallData(currentCallName, currentCallData);
+						currentCallData = null;
+					}
+					break;
 				}
 			}
 			
@@ -228,127 +431,156 @@ public class AnalyzeLauncher {
 		} catch (final Exception e) {
 			e.printStackTrace();
 		}
+		return workflowData;
+	}
 
-		// Output generation (XML and HTML)
-		final File analyzeOuputDirectory = workflowReportFile.getParentFile();
-		final AnalysisData analysisData = workflowData.createAnalysisData();
-		generateXML(analysisData, analyzeOuputDirectory);
-		generateHTML(analysisData, analyzeOuputDirectory);
-		
-		return analysisData;
+
+	private static synchronized Templates getAnalyzeTemplates() throws IOException, TransformerException {
+		if (analyzeTemplates == null) {
+			InputStream xslIS = ClassLoader.getSystemResourceAsStream("analyze.xsl");
+			if(xslIS == null) {
+				xslIS = ClassLoader.getSystemResourceAsStream("/analyze.xsl");
+			}
+			if(xslIS == null) {
+				xslIS = AnalyzeLauncher.class.getClassLoader().getResourceAsStream("analyze.xsl");
+			}
+			if(xslIS == null) {
+				xslIS = AnalyzeLauncher.class.getClassLoader().getResourceAsStream("/analyze.xsl");
+			}
+			if(xslIS == null) {
+				xslIS = Thread.currentThread().getContextClassLoader().getResourceAsStream("analyze.xsl");
+			}
+			if(xslIS == null) {
+				xslIS = Thread.currentThread().getContextClassLoader().getResourceAsStream("/analyze.xsl");
+			}
+			if(xslIS == null) {
+				xslIS = new FileInputStream(new File("analyze.xsl"));
+			}
+			
+			try {
+				analyzeTemplates = TransformerFactory.newInstance().newTemplates(new StreamSource(xslIS));
+			} finally {
+				xslIS.close();
+			}
+		}
+		return analyzeTemplates;
 	}
 
 
-	private static void generateHTML(final AnalysisData analysisData, final File analyzeOuputDirectory) throws TransformerFactoryConfigurationError {
+	/**
+	 * Return <code>true</code> if an HTML report is generated for the given analysis (not without calls).
+	 */
+	private static boolean hasHTML(final AnalysisData analysisData) {
+		return analysisData.rows != null && analysisData.rows.length > 0;
+	}
+
+	/**
+	 * @return <code>false</code> if the HTML report cannot be written
+	 */
+	private static boolean generateHTML(final AnalysisData analysisData, final File analyzeOuputDirectory) throws TransformerFactoryConfigurationError {
 		// Write HTML report
-		if (analysisData.rows != null && analysisData.rows.length > 0) {
+		if (hasHTML(analysisData)) {
 	        try {
-				TransformerFactory factory = TransformerFactory.newInstance();
-				InputStream xslIS = ClassLoader.getSystemResourceAsStream("analyze.xsl");
-				if(xslIS == null) {
-					xslIS = ClassLoader.getSystemResourceAsStream("/analyze.xsl");
-				}
-				if(xslIS == null) {
-					xslIS = AnalyzeLauncher.class.getClassLoader().getResourceAsStream("analyze.xsl");
-				}
-				if(xslIS == null) {
-					xslIS = AnalyzeLauncher.class.getClassLoader().getResourceAsStream("/analyze.xsl");
-				}
-				if(xslIS == null) {
-					xslIS = Thread.currentThread().getContextClassLoader().getResourceAsStream("analyze.xsl");
-				}
-				if(xslIS == null) {
-					xslIS = Thread.currentThread().getContextClassLoader().getResourceAsStream("/analyze.xsl");
-				}
-				if(xslIS == null) {
-					xslIS = new FileInputStream(new File("analyze.xsl"));
-				}
-				
-				Source xslt = new StreamSource(xslIS);
-				Transformer transformer = factory.newTransformer(xslt);
+				Transformer transformer = getAnalyzeTemplates().newTransformer();
 				
 				final File analysisFile =  new File(analyzeOuputDirectory, "analyze.xml");
 				if(analysisFile.exists() && analysisFile.length() > 0) {
 					Source text = new StreamSource(analysisFile);
 					transformer.transform(text, new StreamResult(new File(analyzeOuputDirectory, "analyze.html")));	
+				} else {
+					return false;
 				}
 			} catch (final Exception e) {
 				e.printStackTrace();
+				return false;
 			}	
 		}
+		return true;
 	}
 
 
-	private static void generateXML(final AnalysisData analysisData, final File analyzeOuputDirectory) throws FactoryConfigurationError {
+	/**
+	 * @return <code>false</code> if the XML report cannot be written
+	 */
+	private static boolean generateXML(final AnalysisData analysisData, final File analyzeOuputDirectory) throws FactoryConfigurationError {
 		// Write XML report
 		try {
 			// Create an output factory
-			final XMLOutputFactory xmlof = XMLOutputFactory.newInstance();
+			final XMLOutputFactory xmlof = XML_OUTPUT_FACTORY.get();
 
 			// Create an XML stream writer
 			final File reportFile = new File(analyzeOuputDirectory, "analyze.xml");
-			final XMLStreamWriter analyseWriter = xmlof.createXMLStreamWriter(new FileWriter(reportFile));
-			analyseWriter.writeStartDocument();
-			analyseWriter.writeStartElement("analyze");
-			analyseWriter.writeAttribute("duration", String.valueOf(analysisData.duration));
-			analyseWriter.writeAttribute("name", analysisData.name);
+			final FileWriter reportWriter = new FileWriter(reportFile);
+			try {
+				final XMLStreamWriter analyseWriter = xmlof.createXMLStreamWriter(reportWriter);
+				analyseWriter.writeStartDocument();
+				analyseWriter.writeStartElement("analyze");
+				analyseWriter.writeAttribute("duration", String.valueOf(analysisData.duration));
+				analyseWriter.writeAttribute("name", analysisData.name);
 		
-			if(analysisData.properties != null) {
-				for (String propertyName : analysisData.properties.keySet()) {
-					analyseWriter.writeStartElement("property");
-					analyseWriter.writeAttribute("name", propertyName);
-					analyseWriter.writeAttribute("value", analysisData.properties.get(propertyName));
-					analyseWriter.writeEndElement();
-				}	
-			}
+				if(analysisData.properties != null) {
+					for (String propertyName : analysisData.properties.keySet()) {
+						analyseWriter.writeStartElement("property");
+						analyseWriter.writeAttribute("name", propertyName);
+						analyseWriter.writeAttribute("value", analysisData.properties.get(propertyName));
+						analyseWriter.writeEndElement();
+					}	
+				}
 			
-			if(analysisData.rows != null) {
-				for (final AnalysisData.Row row : analysisData.rows) {
-					analyseWriter.writeStartElement("call");
-					analyseWriter.writeAttribute("name", row.name);
-					analyseWriter.writeAttribute("count", String.valueOf(row.count));
-					analyseWriter.writeAttribute("errors", String.valueOf(row.countErrors));
-					analyseWriter.writeAttribute("failures", String.valueOf(row.countFailures));
-					analyseWriter.writeAttribute("min", String.valueOf(row.min));
-					analyseWriter.writeAttribute("max", String.valueOf(row.max));
-					analyseWriter.writeAttribute("avg", String.valueOf(row.avg));
+				if(analysisData.rows != null) {
+					for (final AnalysisData.Row row : analysisData.rows) {
+						analyseWriter.writeStartElement("call");
+						analyseWriter.writeAttribute("name", row.name);
+						analyseWriter.writeAttribute("count", String.valueOf(row.count));
+						analyseWriter.writeAttribute("errors", String.valueOf(row.countErrors));
+						analyseWriter.writeAttribute("failures", String.valueOf(row.countFailures));
+						analyseWriter.writeAttribute("min", String.valueOf(row.min));
+						analyseWriter.writeAttribute("max", String.valueOf(row.max));
+						analyseWriter.writeAttribute("avg", formatDecimal(row.getMean()));
+						analyseWriter.writeAttribute("stddev", formatDecimal(row.getStandardDeviation()));
+						analyseWriter.writeAttribute("p50", formatDecimal(row.getPercentile(50)));
+						analyseWriter.writeAttribute("p95", formatDecimal(row.getPercentile(95)));
+						analyseWriter.writeAttribute("p99", formatDecimal(row.getPercentile(99)));
+						analyseWriter.writeEndElement();
+					}	
+				}
+
+				if(analysisData.windows != null && analysisData.windows.length > 0) {
+					analyseWriter.writeStartElement("timeseries");
+					analyseWriter.writeAttribute("window", String.valueOf(analysisData.window));
+					for (final AnalysisData.Window window : analysisData.windows) {
+						analyseWriter.writeStartElement("window");
+						analyseWriter.writeAttribute("start", String.valueOf(window.start));
+						analyseWriter.writeAttribute("call", window.name);
+						analyseWriter.writeAttribute("count", String.valueOf(window.count));
+						analyseWriter.writeAttribute("errors", String.valueOf(window.countErrors));
+						analyseWriter.writeAttribute("failures", String.valueOf(window.countFailures));
+						analyseWriter.writeAttribute("throughput", formatDecimal(window.getThroughput(analysisData.window)));
+						analyseWriter.writeAttribute("errorRate", String.format(Locale.ROOT, "%.4f", window.getErrorRate()));
+						analyseWriter.writeAttribute("p50", String.valueOf(window.getPercentile(50)));
+						analyseWriter.writeAttribute("p95", String.valueOf(window.getPercentile(95)));
+						analyseWriter.writeAttribute("p99", String.valueOf(window.getPercentile(99)));
+						analyseWriter.writeAttribute("max", String.valueOf(window.getPercentile(100)));
+						analyseWriter.writeEndElement();
+					}
 					analyseWriter.writeEndElement();
-				}	
-			}
+				}
 
-			analyseWriter.writeEndElement();
-			analyseWriter.writeEndDocument();
-			analyseWriter.close();
+				analyseWriter.writeEndElement();
+				analyseWriter.writeEndDocument();
+				analyseWriter.close();
+			} finally {
+				// Not closed by the XML writer
+				reportWriter.close();
+			}
 		} catch (final Exception e) {
 			e.printStackTrace();
+			return false;
 		}
+		return true;
 	}
 	
-	private static String stringify(final InputStream inputStream) {
-		if (inputStream == null) {
-			return "";
-		}
-		try {
-			int ichar;
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			for (;;) {
-				ichar = inputStream.read();
-				if (ichar < 0) {
-					break;
-				}
-				baos.write(ichar);
-			}
-			return baos.toString("UTF-8");
-		} catch (UnsupportedEncodingException e) {
-			throw new RuntimeException(e);
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		} finally {
-			try {
-				inputStream.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
+	private static String formatDecimal(final double value) {
+		return String.format(Locale.ROOT, "%.2f", value);
 	}
 }
@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.analyze;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import com.sap.azot.analyze.CallData.Status;
+import com.sap.azot.report.BinaryResultSink;
+
+/**
+ * Reads the columnar results written by {@link BinaryResultSink}: the footer, then each block, are memory-mapped
+ * and scanned directly.
+ *
+ * @author amuller
+ */
+public class BinaryReportReader {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final Status[] STATUSES = Status.values();
+
+	private BinaryReportReader() {}
+
+	/**
+	 * Read the given results file.
+	 *
+	 * @param reportFile
+	 * @param window size (ms) of the windows of the time series, 0 to disable it
+	 * @return the workflow data, <code>null</code> if the file is invalid or incomplete
+	 */
+	public static WorkflowData read(final File reportFile, final int window) {
+		try {
+			final RandomAccessFile file = new RandomAccessFile(reportFile, "r");
+			try {
+				return read(file.getChannel(), window);
+			} finally {
+				file.close();
+			}
+		} catch (final IOException e) {
+			return null;
+		} catch (final BufferUnderflowException e) {
+			return null;
+		} catch (final IllegalArgumentException e) {
+			return null;
+		} catch (final IndexOutOfBoundsException e) {
+			return null;
+		}
+	}
+
+	private static WorkflowData read(final FileChannel channel, final int window) throws IOException {
+		final long size = channel.size();
+		if (size < 8 + BinaryResultSink.TRAILER_SIZE) {
+			return null;
+		}
+
+		final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, 8);
+		if (header.getInt() != BinaryResultSink.MAGIC || header.getInt() != BinaryResultSink.VERSION) {
+			return null;
+		}
+
+		final MappedByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, size - BinaryResultSink.TRAILER_SIZE, BinaryResultSink.TRAILER_SIZE);
+		final long footerOffset = trailer.getLong();
+		if (trailer.getInt() != BinaryResultSink.MAGIC || footerOffset < 8 || footerOffset > size - BinaryResultSink.TRAILER_SIZE) {
+			// Not closed (the workflow did not end)
+			return null;
+		}
+
+		final WorkflowData workflowData = new WorkflowData(window);
+		final MappedByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, footerOffset, size - BinaryResultSink.TRAILER_SIZE - footerOffset);
+
+		final String[] names = new String[footer.getInt()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = readString(footer);
+		}
+		workflowData.setName(readString(footer));
+		workflowData.setDuration(footer.getLong());
+
+		final int propertyCount = footer.getInt();
+		for (int i = 0; i < propertyCount; i++) {
+			final String name = readString(footer);
+			workflowData.getProperties().put(name, readString(footer));
+		}
+
+		final int blockCount = footer.getInt();
+		final long[] blockOffsets = new long[blockCount + 1];
+		for (int i = 0; i < blockCount; i++) {
+			blockOffsets[i] = footer.getLong();
+			footer.getInt();
+		}
+		blockOffsets[blockCount] = footerOffset;
+
+		for (int i = 0; i < blockCount; i++) {
+			final MappedByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY, blockOffsets[i], blockOffsets[i + 1] - blockOffsets[i]);
+			readBlock(block, names, workflowData);
+		}
+		return workflowData;
+	}
+
+	private static void readBlock(final ByteBuffer block, final String[] names, final WorkflowData workflowData) {
+		final int count = block.getInt();
+		final int nameLength = block.getInt();
+		final int startLength = block.getInt();
+		final int durationLength = block.getInt();
+
+		// A cursor per column
+		final ByteBuffer nameColumn = slice(block, block.position(), nameLength);
+		final ByteBuffer startColumn = slice(block, block.position() + nameLength, startLength);
+		final ByteBuffer durationColumn = slice(block, block.position() + nameLength + startLength, durationLength);
+		final int statusOffset = block.position() + nameLength + startLength + durationLength;
+
+		int startTime = 0;
+		for (int i = 0; i < count; i++) {
+			final String name = names[readVarInt(nameColumn)];
+			final int zigzag = readVarInt(startColumn);
+			startTime += (zigzag >>> 1) ^ -(zigzag & 1);
+			final int endTime = startTime + readVarInt(durationColumn);
+
+			final CallData callData = new CallData(startTime, endTime);
+			final int status = block.get(statusOffset + i);
+			if (status > 0 && status < STATUSES.length) {
+				callData.setStatus(STATUSES[status]);
+			}
+			workflowData.addCallData(name, callData);
+		}
+	}
+
+	private static ByteBuffer slice(final ByteBuffer buffer, final int offset, final int length) {
+		final ByteBuffer slice = buffer.duplicate();
+		slice.limit(offset + length);
+		slice.position(offset);
+		return slice;
+	}
+
+	private static int readVarInt(final ByteBuffer column) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = column.get();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	private static String readString(final ByteBuffer buffer) {
+		final int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+}
@@ -0,0 +1,266 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.analyze;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.sap.azot.report.LatencyHistogram;
+
+/**
+ * Compares the consolidated analysis of a candidate run with the one of a baseline run, call by call.
+ *
+ * A call regresses when its median or p95 latency is slower by more than the tolerance and the difference
+ * is significant (two-sided Mann-Whitney U test on the latency histograms), or when its throughput drops by
+ * more than the tolerance.
+ *
+ * @author amuller
+ */
+final class RunComparison {
+
+	static final class Result {
+		String name;
+		/** <code>null</code> if the call is new */
+		AnalysisData.Row baseline;
+		/** <code>null</code> if the call is missing */
+		AnalysisData.Row candidate;
+		double baselineThroughput;
+		double candidateThroughput;
+		double u;
+		double pValue = 1;
+		String status = "ok";
+	}
+
+	private final double tolerance;
+
+	private final double significance;
+
+	private final List<Result> results = new ArrayList<Result>();
+
+	private int regressionCount = 0;
+
+	/**
+	 * @param baseline
+	 * @param candidate
+	 * @param tolerance in percents
+	 * @param significance level of the test
+	 */
+	RunComparison(final AnalysisData baseline, final AnalysisData candidate, final double tolerance, final double significance) {
+		this.tolerance = tolerance;
+		this.significance = significance;
+
+		final Map<String, Result> resultsByName = new LinkedHashMap<String, Result>();
+		for (final AnalysisData.Row row : baseline.rows) {
+			final Result result = new Result();
+			result.name = row.name;
+			result.baseline = row;
+			result.baselineThroughput = getThroughput(row, baseline.duration);
+			result.status = "missing";
+			resultsByName.put(row.name, result);
+		}
+		for (final AnalysisData.Row row : candidate.rows) {
+			Result result = resultsByName.get(row.name);
+			if (result == null) {
+				result = new Result();
+				result.name = row.name;
+				result.status = "new";
+				resultsByName.put(row.name, result);
+			}
+			result.candidate = row;
+			result.candidateThroughput = getThroughput(row, candidate.duration);
+			if (result.baseline != null) {
+				compare(result);
+			}
+		}
+		results.addAll(resultsByName.values());
+	}
+
+	private void compare(final Result result) {
+		final double[] test = mannWhitney(result.baseline.histogram, result.candidate.histogram);
+		result.u = test[0];
+		result.pValue = test[1];
+		final boolean slower = test[2] > 0;
+
+		final boolean latencyRegression = slower && result.pValue < significance
+				&& (getDelta(result.baseline.getPercentile(50), result.candidate.getPercentile(50)) > tolerance
+						|| getDelta(result.baseline.getPercentile(95), result.candidate.getPercentile(95)) > tolerance);
+		final boolean throughputRegression = result.baselineThroughput > 0
+				&& -getDelta(result.baselineThroughput, result.candidateThroughput) > tolerance;
+
+		if (latencyRegression || throughputRegression) {
+			result.status = "regression";
+			regressionCount++;
+		} else {
+			result.status = "ok";
+		}
+	}
+
+	boolean hasRegression() {
+		return regressionCount > 0;
+	}
+
+	void print(final PrintStream out) {
+		out.println(String.format(Locale.ROOT, "%-30s %-10s %10s %10s %10s %10s %10s", "Call", "Status", "p50 %", "p95 %", "p99 %", "Thrpt %", "p-value"));
+		for (final Result result : results) {
+			if (result.baseline == null || result.candidate == null) {
+				out.println(String.format(Locale.ROOT, "%-30s %-10s", result.name, result.status));
+				continue;
+			}
+			out.println(String.format(Locale.ROOT, "%-30s %-10s %+10.1f %+10.1f %+10.1f %+10.1f %10.4f", result.name, result.status,
+					getDelta(result.baseline.getPercentile(50), result.candidate.getPercentile(50)),
+					getDelta(result.baseline.getPercentile(95), result.candidate.getPercentile(95)),
+					getDelta(result.baseline.getPercentile(99), result.candidate.getPercentile(99)),
+					getDelta(result.baselineThroughput, result.candidateThroughput),
+					result.pValue));
+		}
+		out.println(regressionCount + " regression(s), tolerance " + tolerance + "%, significance " + significance);
+	}
+
+	void writeXML(final File file, final File baselineDirectory, final File candidateDirectory) throws Exception {
+		final OutputStream out = new FileOutputStream(file);
+		try {
+			final XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeStartElement("compare");
+			writer.writeAttribute("baseline", baselineDirectory.getAbsolutePath());
+			writer.writeAttribute("candidate", candidateDirectory.getAbsolutePath());
+			writer.writeAttribute("tolerance", String.valueOf(tolerance));
+			writer.writeAttribute("significance", String.valueOf(significance));
+			writer.writeAttribute("regressions", String.valueOf(regressionCount));
+
+			for (final Result result : results) {
+				writer.writeStartElement("call");
+				writer.writeAttribute("name", result.name);
+				writer.writeAttribute("status", result.status);
+				if (result.baseline != null) {
+					writeRow(writer, "baseline", result.baseline, result.baselineThroughput);
+				}
+				if (result.candidate != null) {
+					writeRow(writer, "candidate", result.candidate, result.candidateThroughput);
+				}
+				if (result.baseline != null && result.candidate != null) {
+					writer.writeAttribute("p50Delta", format(getDelta(result.baseline.getPercentile(50), result.candidate.getPercentile(50))));
+					writer.writeAttribute("p95Delta", format(getDelta(result.baseline.getPercentile(95), result.candidate.getPercentile(95))));
+					writer.writeAttribute("p99Delta", format(getDelta(result.baseline.getPercentile(99), result.candidate.getPercentile(99))));
+					writer.writeAttribute("throughputDelta", format(getDelta(result.baselineThroughput, result.candidateThroughput)));
+					writer.writeAttribute("u", format(result.u));
+					writer.writeAttribute("pValue", String.format(Locale.ROOT, "%.6f", result.pValue));
+				}
+				writer.writeEndElement();
+			}
+
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.close();
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeRow(final XMLStreamWriter writer, final String prefix, final AnalysisData.Row row, final double throughput) throws Exception {
+		writer.writeAttribute(prefix + "Count", String.valueOf(row.count));
+		writer.writeAttribute(prefix + "Errors", String.valueOf(row.countErrors + row.countFailures));
+		writer.writeAttribute(prefix + "Throughput", format(throughput));
+		writer.writeAttribute(prefix + "P50", format(row.getPercentile(50)));
+		writer.writeAttribute(prefix + "P95", format(row.getPercentile(95)));
+		writer.writeAttribute(prefix + "P99", format(row.getPercentile(99)));
+	}
+
+	private static String format(final double value) {
+		return String.format(Locale.ROOT, "%.2f", value);
+	}
+
+	/**
+	 * @return the calls per second, 0 if the duration is unknown
+	 */
+	private static double getThroughput(final AnalysisData.Row row, final long duration) {
+		return (duration > 0) ? row.count * 1000d / duration : 0;
+	}
+
+	/**
+	 * @return the change from the baseline value in percents
+	 */
+	private static double getDelta(final double baseline, final double candidate) {
+		if (baseline == 0) {
+			return (candidate == 0) ? 0 : 100;
+		}
+		return (candidate - baseline) * 100 / baseline;
+	}
+
+	/**
+	 * Two-sided Mann-Whitney U test, values of a same bucket being ties (normal approximation with tie and
+	 * continuity corrections).
+	 *
+	 * @param baseline
+	 * @param candidate
+	 * @return U of the candidate, p-value, and a positive number if the candidate tends to be slower
+	 */
+	static double[] mannWhitney(final LatencyHistogram baseline, final LatencyHistogram candidate) {
+		final double n1 = baseline.getTotalCount();
+		final double n2 = candidate.getTotalCount();
+		if (n1 == 0 || n2 == 0) {
+			return new double[] {0, 1, 0};
+		}
+
+		// Rank sum of the candidate, ties get the mean rank of their group
+		double rank = 0;
+		double rankSum = 0;
+		double tieCorrection = 0;
+		for (int i = 0; i < candidate.getBucketCount(); i++) {
+			final double count1 = baseline.getCountAtBucket(i);
+			final double count2 = candidate.getCountAtBucket(i);
+			final double ties = count1 + count2;
+			if (ties == 0) {
+				continue;
+			}
+			rankSum += count2 * (rank + (ties + 1) / 2);
+			tieCorrection += ties * ties * ties - ties;
+			rank += ties;
+		}
+
+		final double n = n1 + n2;
+		final double u = rankSum - n2 * (n2 + 1) / 2;
+		final double mean = n1 * n2 / 2;
+		final double variance = n1 * n2 / 12 * ((n + 1) - tieCorrection / (n * (n - 1)));
+		if (variance <= 0) {
+			return new double[] {u, 1, 0};
+		}
+		final double z = (Math.abs(u - mean) - 0.5) / Math.sqrt(variance);
+		final double pValue = (z <= 0) ? 1 : Math.min(1, erfc(z / Math.sqrt(2)));
+		return new double[] {u, pValue, u - mean};
+	}
+
+	/**
+	 * Complementary error function (fractional error below 1.2e-7).
+	 */
+	private static double erfc(final double x) {
+		final double z = Math.abs(x);
+		final double t = 1 / (1 + 0.5 * z);
+		final double r = t * Math.exp(-z * z - 1.26551223 + t * (1.00002368 + t * (0.37409196 + t * (0.09678418
+				+ t * (-0.18628806 + t * (0.27886807 + t * (-1.13520398 + t * (1.48851587 + t * (-0.82215223 + t * 0.17087277)))))))));
+		return (x >= 0) ? r : 2 - r;
+	}
+}
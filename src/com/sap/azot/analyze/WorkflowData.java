@@ -15,20 +15,25 @@
  */ 
 package com.sap.azot.analyze;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
-import com.sap.azot.analyze.CallData.Status;
+import java.util.TreeMap;
 
 /**
  * @author amuller
  */
 public class WorkflowData {
 
-	private Map<String, List<CallData>> callData = new HashMap<String, List<CallData>>();
-	private List<String> callNames = new LinkedList<String>();
+	/** Statistics per call name, in order of first appearance (the calls are not kept) */
+	private Map<String, AnalysisData.Row> rows = new LinkedHashMap<String, AnalysisData.Row>();
+	
+	/** Size (ms) of the windows of the time series, 0 if disabled */
+	private final int window;
+	/** Time series: calls per window index then per call name */
+	private TreeMap<Integer, Map<String, AnalysisData.Window>> windows = new TreeMap<Integer, Map<String, AnalysisData.Window>>();
 	
 	private String name;
 	private long duration; // in milliseconds
@@ -36,7 +41,14 @@ public class WorkflowData {
 	private Map<String, String> properties = new HashMap<String, String>();
 	
 	public WorkflowData() {
-
+		this(0);
+	}
+	
+	/**
+	 * @param window size (ms) of the windows of the time series, 0 to disable it
+	 */
+	public WorkflowData(final int window) {
+		this.window = window;
 	}
 	
 	
@@ -56,18 +68,18 @@ public class WorkflowData {
 		this.duration = duration;
 	}
 
-	public List<CallData> getCallData(final String callName) {
-		List<CallData> callDataList = callData.get(callName); 
-		if(callDataList == null) {
-			callDataList = new LinkedList<CallData>();
-			callData.put(callName, callDataList);
-			callNames.add(callName);
+	private AnalysisData.Row getRow(final String callName) {
+		AnalysisData.Row row = rows.get(callName);
+		if(row == null) {
+			row = new AnalysisData.Row();
+			row.name = callName;
+			rows.put(callName, row);
 		}
-		return callDataList;
+		return row;
 	}
 	
 	public List<String> getCallNames() {
-		return callNames;
+		return new ArrayList<String>(rows.keySet());
 	}
 	
 	public Map<String, String> getProperties() {
@@ -75,70 +87,62 @@ public class WorkflowData {
 	}
 
 	public int getCount(final String callName) {
-		return getCallData(callName).size();
+		return getRow(callName).count;
 	}
 	
 	public int getCountErrors(final String callName) {
-		int nbErrors = 0;
-		final List<CallData> data = getCallData(callName);
-		for (final CallData callData : data) {
-			if(Status.ERROR.equals(callData.getStatus())) {
-				nbErrors++;
-			}
-		}
-		return nbErrors;
+		return getRow(callName).countErrors;
 	}
 	
 	public int getCountFailures(final String callName) {
-		int nbErrors = 0;
-		final List<CallData> data = getCallData(callName);
-		for (final CallData callData : data) {
-			if(Status.FAILURE.equals(callData.getStatus())) {
-				nbErrors++;
-			}
-		}
-		return nbErrors;
+		return getRow(callName).countFailures;
 	}
 	
 	public int getMinimum(final String callName) {
-		int min = Integer.MAX_VALUE;
-		final List<CallData> callDataList = getCallData(callName);
-		for (final CallData callDataEntry : callDataList) {
-			if (callDataEntry.getDuration() < min) {
-				min = callDataEntry.getDuration();
-			}
-		}
-		return min;
+		return getRow(callName).min;
 	}
 	
 	public int getMaximum(final String callName) {
-		int max = Integer.MIN_VALUE;
-		final List<CallData> callDataList = getCallData(callName);
-		for (final CallData callDataEntry : callDataList) {
-			if (callDataEntry.getDuration() > max) {
-				max = callDataEntry.getDuration();
-			}
-		}
-		return max;
+		return getRow(callName).max;
 	}
 	
-	public int getAverage(final String callName) {
-		float avg = -1;
-		final List<CallData> callDataList = getCallData(callName);
-		for (final CallData callDataEntry : callDataList) {
-			if (avg == -1) {
-				avg = callDataEntry.getDuration();
-			} else {
-				avg = (avg + (float)callDataEntry.getDuration()) / (float)2;
-			}
-		}
-		return (int) avg;
+	public double getAverage(final String callName) {
+		return getRow(callName).getMean();
+	}
+	
+	public double getStandardDeviation(final String callName) {
+		return getRow(callName).getStandardDeviation();
+	}
+	
+	public double getPercentile(final String callName, final double percentile) {
+		return getRow(callName).getPercentile(percentile);
 	}
 	
-	public CallData addCallData(final String callName, final int startTime, final int endTime) {
-		final CallData callData = new CallData(startTime, endTime);
-		getCallData(callName).add(callData);
-		return callData;
+	/**
+	 * Account a finished call (its status must be set).
+	 *
+	 * @param callName
+	 * @param callData
+	 */
+	public void addCallData(final String callName, final CallData callData) {
+		getRow(callName).add(callData);
+
+		if (window > 0) {
+			final int index = Math.max(0, callData.getStartTime()) / window;
+			Map<String, AnalysisData.Window> callWindows = windows.get(index);
+			if (callWindows == null) {
+				callWindows = new LinkedHashMap<String, AnalysisData.Window>();
+				windows.put(index, callWindows);
+			}
+			AnalysisData.Window callWindow = callWindows.get(callName);
+			if (callWindow == null) {
+				callWindow = new AnalysisData.Window();
+				callWindow.start = index * window;
+				callWindow.name = callName;
+				callWindows.put(callName, callWindow);
+			}
+			callWindow.add(callData);
+		}
 	}
 	
 	public AnalysisData createAnalysisData() {
@@ -146,24 +150,17 @@ public class WorkflowData {
 		analysisData.name = getName();
 		analysisData.duration = getDuration();
 		analysisData.properties = getProperties();
-		
-		final List<String> callNames = getCallNames();
-		analysisData.rows = new AnalysisData.Row[callNames.size()];
+		analysisData.rows = rows.values().toArray(new AnalysisData.Row[rows.size()]);
 
-		int i = 0;
-		for (final String callName : callNames) {
-			analysisData.rows[i] = new AnalysisData.Row();
-			analysisData.rows[i].name = callName;
-			analysisData.rows[i].count = getCount(callName);
-			analysisData.rows[i].countErrors = getCountErrors(callName);
-			analysisData.rows[i].countFailures = getCountFailures(callName);
-			analysisData.rows[i].min = getMinimum(callName);
-			analysisData.rows[i].max = getMaximum(callName);
-			analysisData.rows[i].avg = getAverage(callName);
-			
-			i++;
+		analysisData.window = window;
+		final List<AnalysisData.Window> timeSeries = new ArrayList<AnalysisData.Window>();
+		for (final Map<String, AnalysisData.Window> callWindows : windows.values()) {
+			for (final AnalysisData.Window callWindow : callWindows.values()) {
+				callWindow.complete();
+				timeSeries.add(callWindow);
+			}
 		}
-		
+		analysisData.windows = timeSeries.toArray(new AnalysisData.Window[timeSeries.size()]);
 		return analysisData;
 	}
 }
@@ -17,13 +17,29 @@ package com.sap.azot.ant;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.xml.bind.JAXBException;
 
 import org.apache.tools.ant.Task;
 
 import com.sap.azot.AzotException;
+import com.sap.azot.AzotExecutors;
 import com.sap.azot.Launcher;
+import com.sap.azot.RunConfig;
+import com.sap.azot.VariableScope;
+import com.sap.azot.WorkflowCache;
+import com.sap.azot.analyze.AnalyzeLauncher;
+import com.sap.azot.metrics.MetricsRegistry;
+import com.sap.azot.plan.ExecutionPlan;
 
 
 /**
@@ -33,8 +49,6 @@ import com.sap.azot.Launcher;
  */
 public class AzotTask extends Task {
 
-	private final ThreadGroup antWorkflowStarterGroup = new ThreadGroup("AntWorkflowStarterGroup");
-	
 	private boolean verbose = false;
 	private boolean debug = false;
 	private boolean dump = false;
@@ -42,6 +56,9 @@ public class AzotTask extends Task {
 	private boolean report = false;
 	private boolean analyze = false;
 
+	/** Maximum number of workflows executed at the same time in concurrent mode (0 for the number of processors) */
+	private int threads = 0;
+
 	/** Variables */
 	private final List<VariableDef> variables = new ArrayList<VariableDef>();
 
@@ -56,80 +73,174 @@ public class AzotTask extends Task {
 			System.out.println("debug: " + debug);
 			System.out.println("dump: " + dump);
 			System.out.println("concurrent:" + concurrent);
+			System.out.println("threads:" + threads);
 			System.out.println("report:" + report);
 			System.out.println("analyze:" + analyze);
 		}
 
 		if (workflow != null && workflow.getFilename() != null) {
 			final File workflowFile = new File(workflow.getFilename());
+
+			// Configuration, plugins and transport are initialized once for all the workflows
+			final RunConfig config = RunConfig.load(createProperties());
+			final VariableScope initVariables = new Launcher(config).init();
 			
-			if (workflowFile.isFile()) 
-			{
-				final AzotTaskWorkflowStarter starter = new AzotTaskWorkflowStarter(workflowFile.getAbsolutePath());
-				starter.run();
-			} 
-			else if (workflowFile.isDirectory()) 
-			{
-				final File[] workflowFiles = workflowFile.listFiles();
-				for (final File file : workflowFiles) {
-					if (file.getName().endsWith(".xml")) {
-						final AzotTaskWorkflowStarter starter = new AzotTaskWorkflowStarter(file.getAbsolutePath());
-						if (concurrent) {
-							final Thread workflowThread = new Thread(antWorkflowStarterGroup, starter);
-							workflowThread.start();	
-						} else {
-							starter.run();
+			try {
+				if (workflowFile.isFile()) 
+				{
+					final AzotTaskWorkflowStarter starter = new AzotTaskWorkflowStarter(workflowFile.getAbsolutePath(), config, initVariables);
+					starter.run();
+				} 
+				else if (workflowFile.isDirectory()) 
+				{
+					final List<File> workflowFiles = new ArrayList<File>();
+					for (final File file : workflowFile.listFiles()) {
+						if (file.getName().endsWith(".xml")) {
+							workflowFiles.add(file);
+						}
+					}
+
+					if (concurrent) {
+						executeConcurrently(schedule(workflowFiles, config.OUTPUT_DIRECTORY), config, initVariables);
+					} else {
+						for (final File file : workflowFiles) {
+							new AzotTaskWorkflowStarter(file.getAbsolutePath(), config, initVariables).run();
 						}
 					}
 				}
+
+				if (analyze) {
+					AnalyzeLauncher.main(new String[] {config.OUTPUT_DIRECTORY.getAbsolutePath(), String.valueOf(config.ANALYZE_PARALLELISM), String.valueOf(config.ANALYZE_WINDOW)});
+				}
+			} finally {
+				MetricsRegistry.stopEndpoint();
 			}
 		}
+	}
+
+	/**
+	 * Execute the workflows (in the given order) on a bounded pool.
+	 *
+	 * @param workflowFiles
+	 * @param config
+	 * @param initVariables
+	 */
+	private void executeConcurrently(final List<File> workflowFiles, final RunConfig config, final VariableScope initVariables) {
+		final int maxConcurrency = (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+		final ExecutorService executor = AzotExecutors.newBoundedExecutor("AzotTask", maxConcurrency, config.VIRTUAL_THREADS);
+		try {
+			final List<Future<?>> starters = new ArrayList<Future<?>>(workflowFiles.size());
+			for (final File file : workflowFiles) {
+				starters.add(executor.submit(new AzotTaskWorkflowStarter(file.getAbsolutePath(), config, initVariables)));
+			}
+			for (final Future<?> starter : starters) {
+				try {
+					starter.get();
+				} catch (final ExecutionException e) {
+					e.getCause().printStackTrace();
+				}
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AzotException(e);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Sort the workflows by decreasing duration of their previous run (read from the reports of the output directory),
+	 * so that the longest ones don't start last. The workflows without history come first.
+	 *
+	 * @param workflowFiles
+	 * @param outputDirectory
+	 * @return
+	 */
+	private List<File> schedule(final List<File> workflowFiles, final File outputDirectory) {
+		final WorkflowHistory history = new WorkflowHistory();
+		if (outputDirectory != null && outputDirectory.isDirectory()) {
+			history.load(outputDirectory);
+		}
 
-		while (antWorkflowStarterGroup.activeCount() > 0) {
+		final Map<File, Long> durations = new HashMap<File, Long>();
+		for (final File file : workflowFiles) {
+			long duration = -1;
 			try {
-				Thread.sleep(1000);
-			} catch (final InterruptedException e) {
-				throw new AzotException(e);
+				final ExecutionPlan plan = WorkflowCache.get(file);
+				if (plan != null && plan.getName() != null) {
+					duration = history.getDuration(plan.getName());
+				}
+			} catch (final JAXBException e) {
+				// Reported by its launch
+			} catch (final RuntimeException e) {
+				// Reported by its launch
+			}
+			durations.put(file, (duration < 0) ? Long.MAX_VALUE : duration);
+		}
+
+		final List<File> scheduled = new ArrayList<File>(workflowFiles);
+		Collections.sort(scheduled, new Comparator<File>() {
+			@Override
+			public int compare(final File file1, final File file2) {
+				final long duration1 = durations.get(file1);
+				final long duration2 = durations.get(file2);
+				if (duration1 != duration2) {
+					return (duration1 > duration2) ? -1 : 1;
+				}
+				return file1.getName().compareTo(file2.getName());
+			}
+		});
+
+		if (verbose) {
+			System.out.println("history: " + history.size() + " workflow(s)");
+		}
+		return scheduled;
+	}
+
+	private Properties createProperties() {
+		final Properties customProperties = new Properties();
+		customProperties.setProperty("azot-verbose", String.valueOf(verbose));
+		customProperties.setProperty("azot-debug", String.valueOf(debug));
+		customProperties.setProperty("azot-dump", String.valueOf(dump));
+		customProperties.setProperty("azot-report", String.valueOf(report));
+		customProperties.setProperty("azot-analyze", String.valueOf(analyze));
+		
+		for (int i = 0; i < variables.size(); i++) {
+			customProperties.setProperty(variables.get(i).getId(), variables.get(i).getValue());
+			if(verbose) {
+				System.out.println(variables.get(i).getId() + ": " + variables.get(i).getValue());
 			}
 		}
+		return customProperties;
 	}
 
 	public class AzotTaskWorkflowStarter implements Runnable {
 		
 		private final String workflowFile;
+		private final RunConfig config;
+		private final VariableScope initVariables;
 
-		public AzotTaskWorkflowStarter(final String workflowFile) {
+		public AzotTaskWorkflowStarter(final String workflowFile, final RunConfig config, final VariableScope initVariables) {
 			this.workflowFile = workflowFile;
+			this.config = config;
+			this.initVariables = initVariables;
 		}
 		
 		public void run() 
 		{
-			final String[] azotArgs = new String[1];
-			azotArgs[0] = workflowFile;
-			
-			final Properties customProperties = new Properties();
-			customProperties.setProperty("azot-verbose", String.valueOf(verbose));
-			customProperties.setProperty("azot-debug", String.valueOf(debug));
-			customProperties.setProperty("azot-dump", String.valueOf(dump));
-			customProperties.setProperty("azot-report", String.valueOf(report));
-			customProperties.setProperty("azot-analyze", String.valueOf(analyze));
-			
-			for (int i = 0; i < variables.size(); i++) {
-				customProperties.setProperty(variables.get(i).getId(), variables.get(i).getValue());
-				if(verbose) {
-					System.out.println(variables.get(i).getId() + ": " + variables.get(i).getValue());
-				}
-			}
-
 			if (verbose) {
-				for (int i = 0; i < azotArgs.length; i++) {
-					System.out.println("arg " + i + ": '" + azotArgs[i] + "'");
-				}
+				System.out.println("arg 0: '" + workflowFile + "'");
 			}
 
 			try {
+				// Each workflow works on its own copy of the initial variables
+				final VariableScope workflowVariables = initVariables.snapshot();
+				workflowVariables.addOrUpdate("0", workflowFile, true, false);
 
-				Launcher.main(azotArgs, customProperties);
+				final List<Throwable> failures = new Launcher(config).launchAndJoin(new File(workflowFile), workflowVariables);
+				for (final Throwable failure : failures) {
+					failure.printStackTrace();
+				}
 			} catch (final Throwable e) {
 				e.printStackTrace();
 			}
@@ -191,6 +302,14 @@ public class AzotTask extends Task {
 		this.concurrent = concurrent;
 	}
 
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
 	public boolean isReport() {
 		return report;
 	}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.ant;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Durations of the previous runs of the workflows, read from the <code>report.xml</code> files of an output directory
+ * (the most recent report of a workflow wins).
+ *
+ * @author amuller
+ */
+public class WorkflowHistory {
+
+	private final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+	/** Duration (in ms) by workflow name */
+	private final Map<String, Long> durations = new HashMap<String, Long>();
+
+	/** Last modification of the report of each duration */
+	private final Map<String, Long> reportTimes = new HashMap<String, Long>();
+
+	/**
+	 * Read the reports of the given directory (and of its sub directories).
+	 *
+	 * @param outputDirectory
+	 */
+	public void load(final File outputDirectory) {
+		final File reportFile = new File(outputDirectory, "report.xml");
+		if (reportFile.isFile()) {
+			loadReport(reportFile);
+			return;
+		}
+		final File[] files = outputDirectory.listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				if (file.isDirectory()) {
+					load(file);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return the duration of the last run of a workflow.
+	 *
+	 * @param name
+	 * @return the duration in ms, -1 if the workflow has never been run
+	 */
+	public long getDuration(final String name) {
+		final Long duration = durations.get(name);
+		return (duration == null) ? -1 : duration.longValue();
+	}
+
+	public int size() {
+		return durations.size();
+	}
+
+	private void loadReport(final File reportFile) {
+		try {
+			final InputStream in = new FileInputStream(reportFile);
+			try {
+				final XMLStreamReader parser = factory.createXMLStreamReader(in);
+				while (parser.hasNext()) {
+					if (parser.next() == XMLStreamConstants.START_ELEMENT) {
+						// Only the root element is needed
+						if ("testsuite".equals(parser.getLocalName())) {
+							final String name = parser.getAttributeValue(null, "name");
+							final String time = parser.getAttributeValue(null, "time");
+							if (name != null && time != null) {
+								put(name, (long) (Float.parseFloat(time) * 1000), reportFile.lastModified());
+							}
+						}
+						break;
+					}
+				}
+				parser.close();
+			} finally {
+				in.close();
+			}
+		} catch (final IOException e) {
+			// No history for this report
+		} catch (final XMLStreamException e) {
+			// No history for this report
+		} catch (final NumberFormatException e) {
+			// No history for this report
+		}
+	}
+
+	private void put(final String name, final long duration, final long reportTime) {
+		final Long previousReportTime = reportTimes.get(name);
+		if (previousReportTime == null || previousReportTime.longValue() < reportTime) {
+			durations.put(name, duration);
+			reportTimes.put(name, reportTime);
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.log;
+
+import java.io.File;
+
+/**
+ * Verbose output of a workflow, written asynchronously by the {@link LogSink}.
+ *
+ * The messages are templates where each <code>{}</code> is replaced by the next argument: nothing is built
+ * when the log is disabled, and the formatting is done by the writer thread. The arguments must not be
+ * modified after the call (strings, numbers...).
+ *
+ * @author amuller
+ */
+public final class Log {
+
+	private final LogSink sink;
+
+	private final LogSink.Target target;
+
+	private final boolean enabled;
+
+	private Log(final LogSink sink, final LogSink.Target target, final boolean enabled) {
+		this.sink = sink;
+		this.target = target;
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Create a log writing to the console.
+	 *
+	 * @param sink
+	 * @param enabled
+	 * @return
+	 */
+	public static Log console(final LogSink sink, final boolean enabled) {
+		return new Log(sink, sink.getConsole(), enabled);
+	}
+
+	/**
+	 * Create a log writing to the given file (created with the first message).
+	 *
+	 * @param sink
+	 * @param file
+	 * @param enabled
+	 * @return
+	 */
+	public static Log file(final LogSink sink, final File file, final boolean enabled) {
+		return new Log(sink, sink.newFileTarget(file), enabled);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void println() {
+		if (enabled) {
+			sink.append(target, true, null, 0, null, null, null);
+		}
+	}
+
+	public void println(final String message) {
+		if (enabled) {
+			sink.append(target, true, message, 0, null, null, null);
+		}
+	}
+
+	public void println(final String template, final Object arg) {
+		if (enabled) {
+			sink.append(target, true, template, 1, arg, null, null);
+		}
+	}
+
+	public void println(final String template, final Object arg1, final Object arg2) {
+		if (enabled) {
+			sink.append(target, true, template, 2, arg1, arg2, null);
+		}
+	}
+
+	public void println(final String template, final Object arg1, final Object arg2, final Object arg3) {
+		if (enabled) {
+			sink.append(target, true, template, 3, arg1, arg2, arg3);
+		}
+	}
+
+	public void print(final String message) {
+		if (enabled) {
+			sink.append(target, false, message, 0, null, null, null);
+		}
+	}
+
+	public void print(final String template, final Object arg) {
+		if (enabled) {
+			sink.append(target, false, template, 1, arg, null, null);
+		}
+	}
+
+	/**
+	 * Return the number of messages of this log dropped because the buffer of the sink was full.
+	 *
+	 * @return
+	 */
+	public long getDropped() {
+		return target.getDropped();
+	}
+
+	/**
+	 * Wait until the messages of this log are written.
+	 */
+	public void flush() {
+		sink.flush();
+	}
+
+	/**
+	 * Write the pending messages, then close the file of the log (nothing for the console).
+	 */
+	public void close() {
+		if (target != sink.getConsole()) {
+			sink.close(target);
+		}
+		sink.flush();
+	}
+}
@@ -0,0 +1,368 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.sap.azot.RunConfig;
+
+/**
+ * Asynchronous writer of the verbose output.
+ *
+ * The messages are stored in a bounded ring of preallocated entries (a template and its arguments, formatted later),
+ * then formatted and written by a background thread. When the ring is full, a message is dropped (and counted) or
+ * the caller waits, depending on <code>azot-log-drop</code>.
+ *
+ * @author amuller
+ */
+public final class LogSink {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Maximum number of entries written between two flushes of the outputs */
+	private static final int BATCH_SIZE = 256;
+
+	private static LogSink shared = null;
+
+	/** Configuration the shared sink was created from */
+	private static RunConfig sharedConfig = null;
+
+	private final Entry[] ring;
+
+	private final boolean drop;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	private final Condition drained = lock.newCondition();
+
+	/** Index of the next entry to write */
+	private int head = 0;
+
+	/** Number of entries waiting in the ring */
+	private int size = 0;
+
+	private long appended = 0;
+	private long written = 0;
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final Target console = new Target(System.out, null);
+
+	LogSink(final int capacity, final boolean drop) {
+		this.ring = new Entry[Math.max(1, capacity)];
+		for (int i = 0; i < ring.length; i++) {
+			ring[i] = new Entry();
+		}
+		this.drop = drop;
+
+		final Thread writer = new Thread(new Drainer(), "AzotLog");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Return the sink shared by the runs of the JVM (created from the first configuration, the later ones only get
+	 * a warning if their buffer size or drop policy differ).
+	 *
+	 * @param config
+	 * @return
+	 */
+	public static synchronized LogSink get(final RunConfig config) {
+		if (shared == null) {
+			shared = new LogSink(config.LOG_BUFFER_SIZE, config.LOG_DROP);
+			sharedConfig = config;
+		} else {
+			config.warnIgnoredSettings("log sink", sharedConfig, "azot-log-buffer-size", "azot-log-drop");
+		}
+		return shared;
+	}
+
+	public Target getConsole() {
+		return console;
+	}
+
+	/**
+	 * Create a target writing to the given file (created with the first message).
+	 *
+	 * @param file
+	 * @return
+	 */
+	public Target newFileTarget(final File file) {
+		return new Target(null, file);
+	}
+
+	/**
+	 * Return the number of messages dropped because the ring was full.
+	 *
+	 * @return
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Wait until the messages appended before this call are written.
+	 */
+	public void flush() {
+		lock.lock();
+		try {
+			final long target = appended;
+			while (written < target) {
+				drained.awaitUninterruptibly();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void append(final Target target, final boolean newLine, final String template, final int argCount, final Object arg1, final Object arg2, final Object arg3) {
+		append(target, newLine, false, template, argCount, arg1, arg2, arg3);
+	}
+
+	/**
+	 * Close the file of the given target, once its messages are written (never dropped).
+	 *
+	 * @param target
+	 */
+	void close(final Target target) {
+		append(target, false, true, null, 0, null, null, null);
+	}
+
+	private void append(final Target target, final boolean newLine, final boolean close, final String template, final int argCount, final Object arg1, final Object arg2, final Object arg3) {
+		lock.lock();
+		try {
+			while (size == ring.length) {
+				if (drop && !close) {
+					dropped.incrementAndGet();
+					target.dropped.incrementAndGet();
+					return;
+				}
+				notFull.awaitUninterruptibly();
+			}
+			ring[(head + size) % ring.length].set(target, newLine, close, template, argCount, arg1, arg2, arg3);
+			size++;
+			appended++;
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Output of messages: the console or a file.
+	 */
+	public static final class Target {
+
+		private final File file;
+		private final PrintStream stream;
+		private Writer fileWriter = null;
+		private boolean closed = false;
+
+		private final AtomicLong dropped = new AtomicLong();
+
+		private Target(final PrintStream stream, final File file) {
+			this.stream = stream;
+			this.file = file;
+		}
+
+		/**
+		 * Return the number of messages of this target dropped because the ring was full.
+		 *
+		 * @return
+		 */
+		public long getDropped() {
+			return dropped.get();
+		}
+
+		private void write(final CharSequence text) throws IOException {
+			if (stream != null) {
+				stream.append(text);
+			} else if (!closed) {
+				if (fileWriter == null) {
+					file.getParentFile().mkdirs();
+					fileWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), UTF8));
+				}
+				fileWriter.append(text);
+			}
+		}
+
+		private void flush() throws IOException {
+			if (stream != null) {
+				stream.flush();
+			} else if (fileWriter != null) {
+				fileWriter.flush();
+			}
+		}
+
+		private void close() throws IOException {
+			closed = true;
+			if (fileWriter != null) {
+				fileWriter.close();
+				fileWriter = null;
+			}
+		}
+	}
+
+	private static final class Entry {
+
+		private Target target;
+		private boolean newLine;
+		private boolean close;
+		private String template;
+		private int argCount;
+		private Object arg1;
+		private Object arg2;
+		private Object arg3;
+
+		private void set(final Target target, final boolean newLine, final boolean close, final String template, final int argCount, final Object arg1, final Object arg2, final Object arg3) {
+			this.target = target;
+			this.newLine = newLine;
+			this.close = close;
+			this.template = template;
+			this.argCount = argCount;
+			this.arg1 = arg1;
+			this.arg2 = arg2;
+			this.arg3 = arg3;
+		}
+
+		private void copy(final Entry entry) {
+			set(entry.target, entry.newLine, entry.close, entry.template, entry.argCount, entry.arg1, entry.arg2, entry.arg3);
+		}
+
+		private void clear() {
+			set(null, false, false, null, 0, null, null, null);
+		}
+
+		/**
+		 * Append the template to the buffer, each <code>{}</code> being replaced by the next argument
+		 * (a message without arguments is written as is).
+		 */
+		private void format(final StringBuilder buffer) {
+			if (template == null) {
+				return;
+			}
+			int start = 0;
+			int argIndex = 0;
+			int index;
+			while (argIndex < argCount && (index = template.indexOf("{}", start)) >= 0) {
+				buffer.append(template, start, index);
+				buffer.append((argIndex == 0) ? arg1 : (argIndex == 1) ? arg2 : arg3);
+				argIndex++;
+				start = index + 2;
+			}
+			buffer.append(template, start, template.length());
+		}
+	}
+
+	private final class Drainer implements Runnable {
+
+		private final Entry[] batch = new Entry[BATCH_SIZE];
+
+		private final StringBuilder buffer = new StringBuilder(256);
+
+		private final List<Target> touched = new ArrayList<Target>();
+
+		private final String lineSeparator = System.getProperty("line.separator");
+
+		@Override
+		public void run() {
+			for (int i = 0; i < batch.length; i++) {
+				batch[i] = new Entry();
+			}
+
+			while (true) {
+				int count = 0;
+				lock.lock();
+				try {
+					while (size == 0) {
+						notEmpty.awaitUninterruptibly();
+					}
+					count = Math.min(size, batch.length);
+					for (int i = 0; i < count; i++) {
+						batch[i].copy(ring[head]);
+						ring[head].clear();
+						head = (head + 1) % ring.length;
+					}
+					size -= count;
+					notFull.signalAll();
+				} finally {
+					lock.unlock();
+				}
+
+				for (int i = 0; i < count; i++) {
+					write(batch[i]);
+					batch[i].clear();
+				}
+				for (final Target target : touched) {
+					try {
+						target.flush();
+					} catch (final IOException e) {
+						// Nothing more can be logged
+					}
+				}
+				touched.clear();
+
+				lock.lock();
+				try {
+					written += count;
+					drained.signalAll();
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+
+		private void write(final Entry entry) {
+			final Target target = entry.target;
+			try {
+				if (entry.close) {
+					touched.remove(target);
+					final long targetDropped = target.getDropped();
+					if (targetDropped > 0) {
+						target.write(targetDropped + " message(s) dropped (log buffer full)" + lineSeparator);
+					}
+					target.close();
+					return;
+				}
+
+				buffer.setLength(0);
+				entry.format(buffer);
+				if (entry.newLine) {
+					buffer.append(lineSeparator);
+				}
+				target.write(buffer);
+				if (!touched.contains(target)) {
+					touched.add(target);
+				}
+			} catch (final IOException e) {
+				// Nothing more can be logged
+			}
+		}
+	}
+}
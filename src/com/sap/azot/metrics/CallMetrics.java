@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.metrics;
+
+import com.sap.azot.report.CallReport;
+import com.sap.azot.report.LatencyHistogram;
+
+/**
+ * Live metrics of the calls of a same name, updated without locks by the workflow threads.
+ *
+ * The calls are also counted in the totals of the registry.
+ *
+ * @author amuller
+ */
+public class CallMetrics implements CallMetricsMBean {
+
+	private final String name;
+
+	/** Totals of the registry, <code>null</code> for the totals themselves */
+	private final CallMetrics total;
+
+	private final StripedCounter inFlight = new StripedCounter();
+	private final StripedCounter calls = new StripedCounter();
+	private final StripedCounter errors = new StripedCounter();
+	private final StripedCounter failures = new StripedCounter();
+	private final StripedCounter latencySum = new StripedCounter();
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	/** Sampled by the registry */
+	private long lastCalls = 0;
+	private volatile double callsPerSecond = 0;
+
+	CallMetrics(final String name, final CallMetrics total) {
+		this.name = name;
+		this.total = total;
+	}
+
+	public void callStarted() {
+		inFlight.increment();
+		if (total != null) {
+			total.callStarted();
+		}
+	}
+
+	/**
+	 * @param latencyMicros
+	 * @param status
+	 */
+	public void callEnded(final long latencyMicros, final CallReport.Status status) {
+		inFlight.decrement();
+		calls.increment();
+		if (status == CallReport.Status.ERROR) {
+			errors.increment();
+		} else if (status == CallReport.Status.FAILURE) {
+			failures.increment();
+		}
+		latencySum.add(latencyMicros);
+		latency.recordValue(latencyMicros);
+		if (total != null) {
+			total.callEnded(latencyMicros, status);
+		}
+	}
+
+	/**
+	 * Compute the calls per second since the previous sample (called by the sampler thread only).
+	 *
+	 * @param elapsedNanos since the previous sample
+	 */
+	void sample(final long elapsedNanos) {
+		final long count = calls.sum();
+		callsPerSecond = (elapsedNanos > 0) ? (count - lastCalls) * 1e9 / elapsedNanos : 0;
+		lastCalls = count;
+	}
+
+	LatencyHistogram getLatencyHistogram() {
+		return latency;
+	}
+
+	/**
+	 * @return the sum of the latencies in us
+	 */
+	long getLatencySum() {
+		return latencySum.sum();
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public long getInFlightCalls() {
+		return inFlight.sum();
+	}
+
+	@Override
+	public long getCalls() {
+		return calls.sum();
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	@Override
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	@Override
+	public double getCallsPerSecond() {
+		return callsPerSecond;
+	}
+
+	@Override
+	public double getMeanLatency() {
+		final long count = calls.sum();
+		return (count == 0) ? 0 : latencySum.sum() / 1000d / count;
+	}
+
+	@Override
+	public double getLatencyP50() {
+		return latency.getValueAtPercentile(50) / 1000d;
+	}
+
+	@Override
+	public double getLatencyP95() {
+		return latency.getValueAtPercentile(95) / 1000d;
+	}
+
+	@Override
+	public double getLatencyP99() {
+		return latency.getValueAtPercentile(99) / 1000d;
+	}
+
+	@Override
+	public double getMaxLatency() {
+		return latency.getMaxValue() / 1000d;
+	}
+}
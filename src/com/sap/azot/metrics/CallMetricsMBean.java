@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.metrics;
+
+/**
+ * Live metrics of the calls of a same name (latencies in ms, since the start of the JVM).
+ *
+ * @author amuller
+ */
+public interface CallMetricsMBean {
+
+	String getName();
+
+	long getInFlightCalls();
+
+	long getCalls();
+
+	long getErrors();
+
+	long getFailures();
+
+	/**
+	 * @return the calls ended during the last second
+	 */
+	double getCallsPerSecond();
+
+	double getMeanLatency();
+
+	double getLatencyP50();
+
+	double getLatencyP95();
+
+	double getLatencyP99();
+
+	double getMaxLatency();
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.sap.azot.RunConfig;
+
+/**
+ * Live metrics of the calls of all the workflows of the JVM: in-flight calls, calls per second, errors and
+ * latencies, per call name and in total.
+ *
+ * They are registered as MBeans (<code>com.sap.azot:type=Metrics,name=Total</code> and
+ * <code>com.sap.azot:type=CallMetrics,name=&lt;call&gt;</code>) and can be scraped from a local OpenMetrics
+ * endpoint (<code>http://localhost:&lt;azot-metrics-port&gt;/metrics</code>).
+ *
+ * @author amuller
+ */
+public class MetricsRegistry {
+
+	/** Period of the computation of the calls per second */
+	private static final long SAMPLING_PERIOD = 1000;
+
+	private static final String DOMAIN = "com.sap.azot";
+
+	private static MetricsRegistry registry = null;
+
+	private static OpenMetricsEndpoint endpoint = null;
+
+	/** Configuration the registry was created from */
+	private static RunConfig registryConfig = null;
+
+	/** Configuration the endpoint was started from */
+	private static RunConfig endpointConfig = null;
+
+	private final boolean jmx;
+
+	private final CallMetrics total = new CallMetrics("Total", null);
+
+	private final ConcurrentMap<String, CallMetrics> calls = new ConcurrentHashMap<String, CallMetrics>();
+
+	private MetricsRegistry(final boolean jmx) {
+		this.jmx = jmx;
+		if (jmx) {
+			register(total, DOMAIN + ":type=Metrics,name=Total");
+		}
+
+		final Timer sampler = new Timer("AzotMetricsSampler", true);
+		sampler.scheduleAtFixedRate(new TimerTask() {
+			private long lastSample = System.nanoTime();
+
+			@Override
+			public void run() {
+				final long now = System.nanoTime();
+				total.sample(now - lastSample);
+				for (final CallMetrics callMetrics : calls.values()) {
+					callMetrics.sample(now - lastSample);
+				}
+				lastSample = now;
+			}
+		}, SAMPLING_PERIOD, SAMPLING_PERIOD);
+	}
+
+	/**
+	 * Create the registry (only the first time) and start the OpenMetrics endpoint if a port is configured and
+	 * the endpoint is not running. A later configuration asking for another JMX registration, or for another port
+	 * while the endpoint is running, only gets a warning.
+	 *
+	 * @param config
+	 */
+	public static synchronized void init(final RunConfig config) {
+		if (registry == null) {
+			registry = new MetricsRegistry(config.METRICS_JMX);
+			registryConfig = config;
+		} else {
+			config.warnIgnoredSettings("metrics registry", registryConfig, "azot-metrics-jmx");
+		}
+		if (endpoint != null) {
+			if (config.METRICS_PORT > 0) {
+				config.warnIgnoredSettings("metrics endpoint", endpointConfig, "azot-metrics-port");
+			}
+		} else if (config.METRICS_PORT > 0) {
+			try {
+				endpoint = new OpenMetricsEndpoint(registry, config.METRICS_PORT);
+				endpointConfig = config;
+			} catch (final IOException e) {
+				// The run goes on without the endpoint
+				System.err.println("The metrics endpoint cannot be started on port " + config.METRICS_PORT + ": " + e);
+			}
+		}
+	}
+
+	public static synchronized MetricsRegistry get() {
+		if (registry == null) {
+			init(RunConfig.DEFAULTS);
+		}
+		return registry;
+	}
+
+	/**
+	 * Stop the OpenMetrics endpoint (if any), the metrics are still recorded.
+	 */
+	public static synchronized void stopEndpoint() {
+		if (endpoint != null) {
+			endpoint.stop();
+			endpoint = null;
+			endpointConfig = null;
+		}
+	}
+
+	/**
+	 * @param name source of the name of the calls (not rendered: the number of metrics must stay bounded)
+	 * @return the metrics of the calls of the given name (created the first time)
+	 */
+	public CallMetrics getCallMetrics(final String name) {
+		CallMetrics callMetrics = calls.get(name);
+		if (callMetrics == null) {
+			final CallMetrics newCallMetrics = new CallMetrics(name, total);
+			callMetrics = calls.putIfAbsent(name, newCallMetrics);
+			if (callMetrics == null) {
+				callMetrics = newCallMetrics;
+				if (jmx) {
+					register(callMetrics, DOMAIN + ":type=CallMetrics,name=" + ObjectName.quote(name));
+				}
+			}
+		}
+		return callMetrics;
+	}
+
+	public CallMetrics getTotal() {
+		return total;
+	}
+
+	/**
+	 * @return the metrics of each call name, sorted by name
+	 */
+	public List<CallMetrics> getAllCallMetrics() {
+		final List<CallMetrics> allCallMetrics = new ArrayList<CallMetrics>(calls.values());
+		Collections.sort(allCallMetrics, new Comparator<CallMetrics>() {
+			@Override
+			public int compare(final CallMetrics callMetrics1, final CallMetrics callMetrics2) {
+				return callMetrics1.getName().compareTo(callMetrics2.getName());
+			}
+		});
+		return allCallMetrics;
+	}
+
+	private static void register(final Object mbean, final String name) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, new ObjectName(name));
+		} catch (final JMException e) {
+			// Monitoring only
+			System.err.println("The MBean " + name + " cannot be registered: " + e);
+		}
+	}
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Locale;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the metrics of the registry in the OpenMetrics text format on <code>/metrics</code>, on the loopback
+ * interface only.
+ *
+ * @author amuller
+ */
+final class OpenMetricsEndpoint implements HttpHandler {
+
+	private static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+	private final MetricsRegistry registry;
+
+	private final HttpServer server;
+
+	OpenMetricsEndpoint(final MetricsRegistry registry, final int port) throws IOException {
+		this.registry = registry;
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/metrics", this);
+		server.start();
+	}
+
+	void stop() {
+		server.stop(0);
+	}
+
+	@Override
+	public void handle(final HttpExchange exchange) throws IOException {
+		try {
+			final byte[] body = format(registry.getAllCallMetrics()).getBytes(UTF8);
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			if ("HEAD".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(200, -1);
+				return;
+			}
+			exchange.sendResponseHeaders(200, body.length);
+			final OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	static String format(final List<CallMetrics> allCallMetrics) {
+		final StringBuilder text = new StringBuilder(1024 + allCallMetrics.size() * 1024);
+
+		family(text, "azot_calls_in_flight", "gauge", "Calls in progress");
+		for (final CallMetrics callMetrics : allCallMetrics) {
+			sample(text, "azot_calls_in_flight", callMetrics, null, String.valueOf(callMetrics.getInFlightCalls()));
+		}
+		family(text, "azot_calls", "counter", "Ended calls");
+		for (final CallMetrics callMetrics : allCallMetrics) {
+			sample(text, "azot_calls_total", callMetrics, null, String.valueOf(callMetrics.getCalls()));
+		}
+		family(text, "azot_call_errors", "counter", "Calls ended in error");
+		for (final CallMetrics callMetrics : allCallMetrics) {
+			sample(text, "azot_call_errors_total", callMetrics, null, String.valueOf(callMetrics.getErrors()));
+		}
+		family(text, "azot_call_failures", "counter", "Calls with a failed assertion");
+		for (final CallMetrics callMetrics : allCallMetrics) {
+			sample(text, "azot_call_failures_total", callMetrics, null, String.valueOf(callMetrics.getFailures()));
+		}
+		family(text, "azot_calls_per_second", "gauge", "Calls ended during the last second");
+		for (final CallMetrics callMetrics : allCallMetrics) {
+			sample(text, "azot_calls_per_second", callMetrics, null, format(callMetrics.getCallsPerSecond()));
+		}
+
+		family(text, "azot_call_latency_seconds", "summary", "Latency of the calls");
+		text.append("# UNIT azot_call_latency_seconds seconds\n");
+		for (final CallMetrics callMetrics : allCallMetrics) {
+			for (final double quantile : QUANTILES) {
+				final long value = callMetrics.getLatencyHistogram().getValueAtPercentile(quantile * 100);
+				sample(text, "azot_call_latency_seconds", callMetrics, String.valueOf(quantile), format(value / 1e6));
+			}
+			sample(text, "azot_call_latency_seconds_sum", callMetrics, null, format(callMetrics.getLatencySum() / 1e6));
+			sample(text, "azot_call_latency_seconds_count", callMetrics, null, String.valueOf(callMetrics.getLatencyHistogram().getTotalCount()));
+		}
+
+		text.append("# EOF\n");
+		return text.toString();
+	}
+
+	private static void family(final StringBuilder text, final String name, final String type, final String help) {
+		text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+		text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+	}
+
+	private static void sample(final StringBuilder text, final String name, final CallMetrics callMetrics, final String quantile, final String value) {
+		text.append(name).append("{call=\"");
+		escape(text, callMetrics.getName());
+		text.append('"');
+		if (quantile != null) {
+			text.append(",quantile=\"").append(quantile).append('"');
+		}
+		text.append("} ").append(value).append('\n');
+	}
+
+	private static void escape(final StringBuilder text, final String value) {
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c == '\\' || c == '"') {
+				text.append('\\').append(c);
+			} else if (c == '\n') {
+				text.append("\\n");
+			} else {
+				text.append(c);
+			}
+		}
+	}
+
+	private static String format(final double value) {
+		return String.format(Locale.ROOT, "%.6f", value);
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free counter spreading the updates of concurrent threads over padded cells (the sum is not an atomic
+ * snapshot, which is fine for monitoring).
+ *
+ * @author amuller
+ */
+final class StripedCounter {
+
+	/** A cell every 8 longs (64 bytes) to keep them on distinct cache lines */
+	private static final int PADDING_SHIFT = 3;
+
+	private static final int STRIPE_MASK;
+	static {
+		int stripes = 1;
+		while (stripes < 2 * Runtime.getRuntime().availableProcessors() && stripes < 64) {
+			stripes <<= 1;
+		}
+		STRIPE_MASK = stripes - 1;
+	}
+
+	private final AtomicLongArray cells = new AtomicLongArray((STRIPE_MASK + 1) << PADDING_SHIFT);
+
+	void increment() {
+		add(1);
+	}
+
+	void decrement() {
+		add(-1);
+	}
+
+	void add(final long delta) {
+		cells.addAndGet(getStripe() << PADDING_SHIFT, delta);
+	}
+
+	long sum() {
+		long sum = 0;
+		for (int i = 0; i <= STRIPE_MASK; i++) {
+			sum += cells.get(i << PADDING_SHIFT);
+		}
+		return sum;
+	}
+
+	private static int getStripe() {
+		// Fibonacci hashing of the thread id (consecutive ids land on distinct stripes)
+		final long hash = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+		return (int) (hash >>> 32) & STRIPE_MASK;
+	}
+}
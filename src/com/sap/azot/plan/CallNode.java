@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.plan;
+
+import com.sap.azot.VariableTemplate;
+
+/**
+ * HTTP call.
+ *
+ * @author amuller
+ */
+public final class CallNode implements PlanNode {
+
+	private final int index;
+	private final VariableTemplate name;
+	private final RequestPlan request;
+	private final ResponsePlan response;
+
+	CallNode(final int index, final VariableTemplate name, final RequestPlan request, final ResponsePlan response) {
+		this.index = index;
+		this.name = name;
+		this.request = request;
+		this.response = response;
+	}
+
+	/**
+	 * Return the position of the call in its plan (document order), see {@link ExecutionPlan#getCalls()}.
+	 *
+	 * @return
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Return the name, <code>null</code> if the call has no name.
+	 *
+	 * @return
+	 */
+	public VariableTemplate getName() {
+		return name;
+	}
+
+	/**
+	 * Return the request, <code>null</code> if the call has none (it fails when processed).
+	 *
+	 * @return
+	 */
+	public RequestPlan getRequest() {
+		return request;
+	}
+
+	/**
+	 * Return the response handling, <code>null</code> if the response is ignored.
+	 *
+	 * @return
+	 */
+	public ResponsePlan getResponse() {
+		return response;
+	}
+}
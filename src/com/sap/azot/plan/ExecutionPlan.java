@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.plan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.sap.azot.Assert;
+import com.sap.azot.Call;
+import com.sap.azot.Content;
+import com.sap.azot.ExternalContent;
+import com.sap.azot.Loop;
+import com.sap.azot.Parallel;
+import com.sap.azot.PluginRef;
+import com.sap.azot.Repeat;
+import com.sap.azot.Request;
+import com.sap.azot.Response;
+import com.sap.azot.Variable;
+import com.sap.azot.VariableHelper;
+import com.sap.azot.VariableTemplate;
+import com.sap.azot.Workflow;
+import com.sap.azot.WorkflowRef;
+
+/**
+ * Workflow compiled for its execution: node types resolved, templates and XPath expressions parsed.
+ *
+ * A plan is immutable (the substituted values only live during an execution): the executions of a
+ * workflow, concurrent or not, share the same plan.
+ *
+ * @author amuller
+ */
+public final class ExecutionPlan {
+
+	private final String name;
+	private final List<Variable> contextVariables;
+	private final List<PlanNode> nodes;
+	private final List<CallNode> calls;
+
+	private ExecutionPlan(final String name, final List<Variable> contextVariables, final List<PlanNode> nodes, final List<CallNode> calls) {
+		this.name = name;
+		this.contextVariables = contextVariables;
+		this.nodes = nodes;
+		this.calls = calls;
+	}
+
+	/**
+	 * Compile the given workflow (the workflow is not referenced by the plan).
+	 *
+	 * @param workflow
+	 * @return
+	 */
+	public static ExecutionPlan compile(final Workflow workflow) {
+		final List<Variable> contextVariables = new ArrayList<Variable>();
+		if (workflow.getContext() != null) {
+			for (final Variable variable : workflow.getContext().getVariables()) {
+				contextVariables.add(VariableHelper.clone(variable));
+			}
+		}
+
+		final List<CallNode> calls = new ArrayList<CallNode>();
+		final List<PlanNode> nodes = compileNodes(workflow.getCallsAndWorkflowsAndLoops(), calls);
+
+		return new ExecutionPlan(workflow.getName(), Collections.unmodifiableList(contextVariables), nodes, Collections.unmodifiableList(calls));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Return the context variables of the workflow.
+	 * They are shared by the executions: they must be copied before being declared.
+	 *
+	 * @return
+	 */
+	public List<Variable> getContextVariables() {
+		return contextVariables;
+	}
+
+	public List<PlanNode> getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Return all the calls of the plan (in document order), a call being at its {@link CallNode#getIndex()}.
+	 *
+	 * @return
+	 */
+	public List<CallNode> getCalls() {
+		return calls;
+	}
+
+	private static List<PlanNode> compileNodes(final List<Object> executables, final List<CallNode> calls) {
+		final List<PlanNode> nodes = new ArrayList<PlanNode>(executables.size());
+		for (final Object executable : executables) {
+			if (executable instanceof Call) {
+				nodes.add(compileCall((Call) executable, calls));
+			}
+			else if (executable instanceof WorkflowRef) {
+				final WorkflowRef workflowRef = (WorkflowRef) executable;
+				nodes.add(new WorkflowRefNode(template(workflowRef.getFilename()), workflowRef.isFork(), compileVariables(workflowRef.getVariables())));
+			}
+			else if (executable instanceof Loop) {
+				final Loop loop = (Loop) executable;
+				nodes.add(new LoopNode(template(loop.getIn()), loop.getVariableId(), compileNodes(loop.getCallsAndWorkflowsAndLoops(), calls)));
+			}
+			else if (executable instanceof Repeat) {
+				final Repeat repeat = (Repeat) executable;
+				nodes.add(new RepeatNode(template(repeat.getTimes()), template(repeat.getRate()), template(repeat.getDuration()), template(repeat.getMaxOutstanding()),
+						repeat.getVariableId(), compileNodes(repeat.getCallsAndWorkflowsAndLoops(), calls)));
+			}
+			else if (executable instanceof Parallel) {
+				final Parallel parallel = (Parallel) executable;
+				nodes.add(new ParallelNode(template(parallel.getMaxConcurrency()), compileNodes(parallel.getCallsAndWorkflowsAndLoops(), calls)));
+			}
+			else if (executable instanceof PluginRef) {
+				nodes.add(compilePlugin((PluginRef) executable));
+			}
+		}
+		return Collections.unmodifiableList(nodes);
+	}
+
+	private static CallNode compileCall(final Call call, final List<CallNode> calls) {
+		final RequestPlan requestPlan = compileRequest(call.getRequest());
+
+		ResponsePlan responsePlan = null;
+		final Response response = call.getResponse();
+		if (response != null) {
+			final List<PluginNode> plugins = new ArrayList<PluginNode>(response.getPlugins().size());
+			for (final PluginRef plugin : response.getPlugins()) {
+				plugins.add(compilePlugin(plugin));
+			}
+
+			final List<ResponsePlan.Assertion> asserts = new ArrayList<ResponsePlan.Assertion>(response.getAsserts().size());
+			for (final Assert responseAssert : response.getAsserts()) {
+				asserts.add(new ResponsePlan.Assertion(ValueExpression.compile(responseAssert.getActual()), ValueExpression.compile(responseAssert.getExpected())));
+			}
+
+			responsePlan = new ResponsePlan(response.isNamespaceAware(), response.getRaw() != null, compileVariables(response.getVariables()),
+					Collections.unmodifiableList(plugins), Collections.unmodifiableList(asserts));
+		}
+
+		final CallNode callNode = new CallNode(calls.size(), template(call.getName()), requestPlan, responsePlan);
+		calls.add(callNode);
+		return callNode;
+	}
+
+	/**
+	 * @return <code>null</code> if the call has no request (the call fails when it is processed)
+	 */
+	private static RequestPlan compileRequest(final Request request) {
+		if (request == null) {
+			return null;
+		}
+
+		final List<RequestPlan.Header> headers = new ArrayList<RequestPlan.Header>(request.getHeaders().size());
+		for (final Request.Header header : request.getHeaders()) {
+			headers.add(new RequestPlan.Header(header.getName(), template(header.getValue())));
+		}
+
+		final List<RequestPlan.Part> contents = new ArrayList<RequestPlan.Part>(request.getContents().size());
+		for (final Content content : request.getContents()) {
+			contents.add(new RequestPlan.Part(template(content.getName()), template(content.getType()), template(content.getValue())));
+		}
+
+		final List<RequestPlan.FilePart> externalContents = new ArrayList<RequestPlan.FilePart>(request.getExternalContents().size());
+		for (final ExternalContent eContent : request.getExternalContents()) {
+			externalContents.add(new RequestPlan.FilePart(template(eContent.getName()), template(eContent.getType()), template(eContent.getFilename())));
+		}
+
+		return new RequestPlan(request.getMethod(), template(request.getUrl()),
+				Collections.unmodifiableList(headers), Collections.unmodifiableList(contents), Collections.unmodifiableList(externalContents));
+	}
+
+	private static PluginNode compilePlugin(final PluginRef plugin) {
+		return new PluginNode(plugin.getName(), compileVariables(plugin.getVariables()));
+	}
+
+	private static List<VariablePlan> compileVariables(final List<Variable> variables) {
+		final List<VariablePlan> plans = new ArrayList<VariablePlan>(variables.size());
+		for (final Variable variable : variables) {
+			plans.add(new VariablePlan(variable.getId(), ValueExpression.compile(variable.getValue()), variable.isOverwrite(), variable.isReport()));
+		}
+		return Collections.unmodifiableList(plans);
+	}
+
+	private static VariableTemplate template(final String source) {
+		return (source == null) ? null : VariableTemplate.compile(source);
+	}
+}
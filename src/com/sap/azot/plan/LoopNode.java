@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.plan;
+
+import java.util.List;
+
+import com.sap.azot.VariableTemplate;
+
+/**
+ * Loop over the values (separated by spaces) of a string.
+ *
+ * @author amuller
+ */
+public final class LoopNode implements PlanNode {
+
+	private final VariableTemplate in;
+	private final String variableId;
+	private final List<PlanNode> nodes;
+
+	LoopNode(final VariableTemplate in, final String variableId, final List<PlanNode> nodes) {
+		this.in = in;
+		this.variableId = variableId;
+		this.nodes = nodes;
+	}
+
+	public VariableTemplate getIn() {
+		return in;
+	}
+
+	public String getVariableId() {
+		return variableId;
+	}
+
+	public List<PlanNode> getNodes() {
+		return nodes;
+	}
+}
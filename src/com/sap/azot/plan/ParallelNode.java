@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.plan;
+
+import java.util.List;
+
+import com.sap.azot.VariableTemplate;
+
+/**
+ * Children executed concurrently.
+ *
+ * @author amuller
+ */
+public final class ParallelNode implements PlanNode {
+
+	private final VariableTemplate maxConcurrency;
+	private final List<PlanNode> nodes;
+
+	ParallelNode(final VariableTemplate maxConcurrency, final List<PlanNode> nodes) {
+		this.maxConcurrency = maxConcurrency;
+		this.nodes = nodes;
+	}
+
+	/**
+	 * Return the maximum number of children executed at the same time, <code>null</code> for no limit.
+	 *
+	 * @return
+	 */
+	public VariableTemplate getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	public List<PlanNode> getNodes() {
+		return nodes;
+	}
+}
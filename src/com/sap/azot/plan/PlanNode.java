@@ -0,0 +1,26 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.plan;
+
+/**
+ * Executable node of an {@link ExecutionPlan} (call, nested workflow, loop, repeat, parallel, plugin).
+ *
+ * The nodes are immutable: they can be executed by several threads at the same time.
+ *
+ * @author amuller
+ */
+public interface PlanNode {
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.plan;
+
+import java.util.List;
+
+/**
+ * Plugin invocation (in a workflow or in a response).
+ *
+ * @author amuller
+ */
+public final class PluginNode implements PlanNode {
+
+	private final String name;
+	private final List<VariablePlan> variables;
+
+	PluginNode(final String name, final List<VariablePlan> variables) {
+		this.name = name;
+		this.variables = variables;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Return the variables given to the plugin only.
+	 *
+	 * @return
+	 */
+	public List<VariablePlan> getVariables() {
+		return variables;
+	}
+}
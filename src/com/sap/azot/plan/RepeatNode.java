@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.plan;
+
+import java.util.List;
+
+import com.sap.azot.VariableTemplate;
+
+/**
+ * Repetition, closed (<code>times</code>) or open (<code>rate</code> with <code>times</code> or <code>duration</code>).
+ *
+ * The templates are <code>null</code> when the attribute is missing.
+ *
+ * @author amuller
+ */
+public final class RepeatNode implements PlanNode {
+
+	private final VariableTemplate times;
+	private final VariableTemplate rate;
+	private final VariableTemplate duration;
+	private final VariableTemplate maxOutstanding;
+	private final String variableId;
+	private final List<PlanNode> nodes;
+
+	RepeatNode(final VariableTemplate times, final VariableTemplate rate, final VariableTemplate duration, final VariableTemplate maxOutstanding,
+			final String variableId, final List<PlanNode> nodes) {
+		this.times = times;
+		this.rate = rate;
+		this.duration = duration;
+		this.maxOutstanding = maxOutstanding;
+		this.variableId = variableId;
+		this.nodes = nodes;
+	}
+
+	public VariableTemplate getTimes() {
+		return times;
+	}
+
+	public VariableTemplate getRate() {
+		return rate;
+	}
+
+	public VariableTemplate getDuration() {
+		return duration;
+	}
+
+	public VariableTemplate getMaxOutstanding() {
+		return maxOutstanding;
+	}
+
+	public String getVariableId() {
+		return variableId;
+	}
+
+	public List<PlanNode> getNodes() {
+		return nodes;
+	}
+}
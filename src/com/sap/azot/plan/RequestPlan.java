@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.plan;
+
+import java.util.List;
+
+import com.sap.azot.VariableTemplate;
+
+/**
+ * Request of a call.
+ *
+ * @author amuller
+ */
+public final class RequestPlan {
+
+	private final String method;
+	private final VariableTemplate url;
+	private final List<Header> headers;
+	private final List<Part> contents;
+	private final List<FilePart> externalContents;
+
+	RequestPlan(final String method, final VariableTemplate url, final List<Header> headers, final List<Part> contents, final List<FilePart> externalContents) {
+		this.method = method;
+		this.url = url;
+		this.headers = headers;
+		this.contents = contents;
+		this.externalContents = externalContents;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public VariableTemplate getUrl() {
+		return url;
+	}
+
+	public List<Header> getHeaders() {
+		return headers;
+	}
+
+	public List<Part> getContents() {
+		return contents;
+	}
+
+	public List<FilePart> getExternalContents() {
+		return externalContents;
+	}
+
+	/**
+	 * Request header (the name is not substituted).
+	 */
+	public static final class Header {
+
+		private final String name;
+		private final VariableTemplate value;
+
+		Header(final String name, final VariableTemplate value) {
+			this.name = name;
+			this.value = value;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public VariableTemplate getValue() {
+			return value;
+		}
+	}
+
+	/**
+	 * Inline content (each template can be <code>null</code>).
+	 */
+	public static final class Part {
+
+		private final VariableTemplate name;
+		private final VariableTemplate type;
+		private final VariableTemplate value;
+
+		Part(final VariableTemplate name, final VariableTemplate type, final VariableTemplate value) {
+			this.name = name;
+			this.type = type;
+			this.value = value;
+		}
+
+		public VariableTemplate getName() {
+			return name;
+		}
+
+		public VariableTemplate getType() {
+			return type;
+		}
+
+		public VariableTemplate getValue() {
+			return value;
+		}
+	}
+
+	/**
+	 * Content read from a file (each template can be <code>null</code>).
+	 */
+	public static final class FilePart {
+
+		private final VariableTemplate name;
+		private final VariableTemplate type;
+		private final VariableTemplate filename;
+
+		FilePart(final VariableTemplate name, final VariableTemplate type, final VariableTemplate filename) {
+			this.name = name;
+			this.type = type;
+			this.filename = filename;
+		}
+
+		public VariableTemplate getName() {
+			return name;
+		}
+
+		public VariableTemplate getType() {
+			return type;
+		}
+
+		public VariableTemplate getFilename() {
+			return filename;
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.plan;
+
+import java.util.List;
+
+/**
+ * Response handling of a call: variables, plugins then asserts.
+ *
+ * @author amuller
+ */
+public final class ResponsePlan {
+
+	private final boolean namespaceAware;
+	private final boolean raw;
+	private final List<VariablePlan> variables;
+	private final List<PluginNode> plugins;
+	private final List<Assertion> asserts;
+
+	ResponsePlan(final boolean namespaceAware, final boolean raw, final List<VariablePlan> variables, final List<PluginNode> plugins, final List<Assertion> asserts) {
+		this.namespaceAware = namespaceAware;
+		this.raw = raw;
+		this.variables = variables;
+		this.plugins = plugins;
+		this.asserts = asserts;
+	}
+
+	public boolean isNamespaceAware() {
+		return namespaceAware;
+	}
+
+	/**
+	 * Return <code>true</code> if the raw data of the response (code, headers, content) is kept.
+	 *
+	 * @return
+	 */
+	public boolean isRaw() {
+		return raw;
+	}
+
+	public List<VariablePlan> getVariables() {
+		return variables;
+	}
+
+	public List<PluginNode> getPlugins() {
+		return plugins;
+	}
+
+	public List<Assertion> getAsserts() {
+		return asserts;
+	}
+
+	/**
+	 * Comparison of an actual value with an expected one (each value can be <code>null</code>).
+	 */
+	public static final class Assertion {
+
+		private final ValueExpression actual;
+		private final ValueExpression expected;
+
+		Assertion(final ValueExpression actual, final ValueExpression expected) {
+			this.actual = actual;
+			this.expected = expected;
+		}
+
+		public ValueExpression getActual() {
+			return actual;
+		}
+
+		public ValueExpression getExpected() {
+			return expected;
+		}
+	}
+}
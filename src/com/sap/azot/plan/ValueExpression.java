@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.plan;
+
+import com.sap.azot.VariableTemplate;
+
+/**
+ * Value of a response variable or of an assert: a template, or an XPath expression evaluated on the response.
+ *
+ * The kind is resolved when the plan is compiled. A template producing an expression at execution time
+ * (ex: <code>${myExpression}</code>) is {@link Kind#TEXT}: the engine detects it on the substituted value.
+ *
+ * @author amuller
+ */
+public final class ValueExpression {
+
+	public enum Kind {
+		/** Substituted template */
+		TEXT,
+		/** <code>${xpath-expr:...}</code>: values of the selected nodes, separated by spaces */
+		XPATH_NODES,
+		/** <code>${xpath-eval:...}</code>: string value of the expression */
+		XPATH_STRING
+	}
+
+	private static final String XPATH_EXPR = "${xpath-expr:";
+	private static final String XPATH_EVAL = "${xpath-eval:";
+
+	private final Kind kind;
+	private final VariableTemplate template;
+	private final VariableTemplate xpath;
+
+	private ValueExpression(final Kind kind, final VariableTemplate template, final VariableTemplate xpath) {
+		this.kind = kind;
+		this.template = template;
+		this.xpath = xpath;
+	}
+
+	/**
+	 * Compile the given value, <code>null</code> if there is no value.
+	 *
+	 * @param value
+	 * @return
+	 */
+	public static ValueExpression compile(final String value) {
+		if (value == null) {
+			return null;
+		}
+		final VariableTemplate template = VariableTemplate.compile(value);
+		if (value.endsWith("}")) {
+			if (value.startsWith(XPATH_EXPR)) {
+				return new ValueExpression(Kind.XPATH_NODES, template, VariableTemplate.compile(value.substring(XPATH_EXPR.length(), value.length() - 1)));
+			}
+			if (value.startsWith(XPATH_EVAL)) {
+				return new ValueExpression(Kind.XPATH_STRING, template, VariableTemplate.compile(value.substring(XPATH_EVAL.length(), value.length() - 1)));
+			}
+		}
+		return new ValueExpression(Kind.TEXT, template, null);
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public boolean isXPath() {
+		return kind != Kind.TEXT;
+	}
+
+	/**
+	 * Return the whole value (used as is when there is no document to evaluate the XPath expression on).
+	 *
+	 * @return
+	 */
+	public VariableTemplate getTemplate() {
+		return template;
+	}
+
+	/**
+	 * Return the XPath expression, <code>null</code> for a {@link Kind#TEXT} value.
+	 *
+	 * @return
+	 */
+	public VariableTemplate getXPath() {
+		return xpath;
+	}
+
+	public String getSource() {
+		return template.getSource();
+	}
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.plan;
+
+/**
+ * Variable declared by a node (response, nested workflow, plugin).
+ *
+ * @author amuller
+ */
+public final class VariablePlan {
+
+	private final String id;
+	private final ValueExpression value;
+	private final boolean overwrite;
+	private final boolean report;
+
+	public VariablePlan(final String id, final ValueExpression value, final boolean overwrite, final boolean report) {
+		this.id = id;
+		this.value = value;
+		this.overwrite = overwrite;
+		this.report = report;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Return the value, <code>null</code> if the variable has no value.
+	 *
+	 * @return
+	 */
+	public ValueExpression getValue() {
+		return value;
+	}
+
+	/**
+	 * Return the source of the value, <code>null</code> if the variable has no value.
+	 *
+	 * @return
+	 */
+	public String getSource() {
+		return (value == null) ? null : value.getSource();
+	}
+
+	public boolean isOverwrite() {
+		return overwrite;
+	}
+
+	public boolean isReport() {
+		return report;
+	}
+}
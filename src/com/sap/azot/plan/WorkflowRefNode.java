@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.plan;
+
+import java.util.List;
+
+import com.sap.azot.VariableTemplate;
+
+/**
+ * Nested workflow.
+ *
+ * @author amuller
+ */
+public final class WorkflowRefNode implements PlanNode {
+
+	private final VariableTemplate filename;
+	private final boolean fork;
+	private final List<VariablePlan> variables;
+
+	WorkflowRefNode(final VariableTemplate filename, final boolean fork, final List<VariablePlan> variables) {
+		this.filename = filename;
+		this.fork = fork;
+		this.variables = variables;
+	}
+
+	public VariableTemplate getFilename() {
+		return filename;
+	}
+
+	public boolean isFork() {
+		return fork;
+	}
+
+	/**
+	 * Return the variables given to the nested workflow.
+	 *
+	 * @return
+	 */
+	public List<VariablePlan> getVariables() {
+		return variables;
+	}
+}
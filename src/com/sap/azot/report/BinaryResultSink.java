@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.report;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes <code>report.azr</code>, a compact columnar copy of the results read by the analyzer.
+ *
+ * Layout (big endian):
+ * <ul>
+ * <li>header: magic, version</li>
+ * <li>blocks of at most {@link #BLOCK_SIZE} calls: count, byte lengths of the 3 varint columns, then the columns
+ * (call name ids, start times as zigzag deltas, durations) and a status byte per call</li>
+ * <li>footer: call name dictionary, workflow name and duration (ms), summary properties, block index (offset, count)</li>
+ * <li>trailer: footer offset, magic</li>
+ * </ul>
+ * Times are in ms from the start of the workflow, like the <code>callStartTime</code> attributes of <code>report.xml</code>.
+ *
+ * @author amuller
+ */
+public class BinaryResultSink implements ResultSink {
+
+	public static final String FILE_NAME = "report.azr";
+
+	public static final int MAGIC = 0x415A5231; // AZR1
+
+	public static final int VERSION = 1;
+
+	public static final int BLOCK_SIZE = 65536;
+
+	/** Trailer: footer offset (long) and magic (int) */
+	public static final int TRAILER_SIZE = 12;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+	private final List<String> names = new ArrayList<String>();
+
+	private final int[] nameIds = new int[BLOCK_SIZE];
+	private final int[] startTimes = new int[BLOCK_SIZE];
+	private final int[] endTimes = new int[BLOCK_SIZE];
+	private final byte[] statuses = new byte[BLOCK_SIZE];
+	private int count = 0;
+
+	private final List<long[]> blocks = new ArrayList<long[]>();
+
+	private long startTime;
+	private DataOutputStream out;
+
+	/** Number of bytes written (the file can be bigger than 2 GB) */
+	private long position = 0;
+
+	@Override
+	public void open(final WorkflowReport report) throws IOException {
+		startTime = report.getStartTime();
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(report.getOutputDirectory(), FILE_NAME)), 64 * 1024));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		position = 8;
+	}
+
+	@Override
+	public void write(final CallReport callReport) throws IOException {
+		final String callName = (callReport.getName() == null) ? "call_" + String.valueOf(callReport.getIndex()) : callReport.getName();
+		Integer nameId = dictionary.get(callName);
+		if (nameId == null) {
+			nameId = names.size();
+			dictionary.put(callName, nameId);
+			names.add(callName);
+		}
+
+		final int callStartTime = (int) (callReport.getStartTime() - startTime);
+		nameIds[count] = nameId;
+		startTimes[count] = callStartTime;
+		endTimes[count] = callStartTime + (int) (callReport.getEndTime() - callReport.getStartTime());
+		statuses[count] = (byte) callReport.getStatus().ordinal();
+		count++;
+
+		if (count == BLOCK_SIZE) {
+			writeBlock();
+		}
+	}
+
+	@Override
+	public void close(final WorkflowReport report) throws IOException {
+		try {
+			if (count > 0) {
+				writeBlock();
+			}
+
+			final long footerOffset = position;
+			out.writeInt(names.size());
+			for (final String name : names) {
+				writeString(name);
+			}
+			writeString(report.getName());
+			out.writeLong((long) (report.getTime() * 1000));
+
+			final Map<String, String> properties = report.getSummaryProperties();
+			out.writeInt(properties.size());
+			for (final Map.Entry<String, String> property : properties.entrySet()) {
+				writeString(property.getKey());
+				writeString(property.getValue());
+			}
+
+			out.writeInt(blocks.size());
+			for (final long[] block : blocks) {
+				out.writeLong(block[0]);
+				out.writeInt((int) block[1]);
+			}
+
+			out.writeLong(footerOffset);
+			out.writeInt(MAGIC);
+		} finally {
+			out.close();
+		}
+	}
+
+	private void writeBlock() throws IOException {
+		final ByteArrayOutputStream nameColumn = new ByteArrayOutputStream(count * 2);
+		final ByteArrayOutputStream startColumn = new ByteArrayOutputStream(count * 2);
+		final ByteArrayOutputStream durationColumn = new ByteArrayOutputStream(count * 2);
+		int previousStart = 0;
+		for (int i = 0; i < count; i++) {
+			writeVarInt(nameColumn, nameIds[i]);
+			final int delta = startTimes[i] - previousStart;
+			writeVarInt(startColumn, (delta << 1) ^ (delta >> 31));
+			writeVarInt(durationColumn, endTimes[i] - startTimes[i]);
+			previousStart = startTimes[i];
+		}
+
+		blocks.add(new long[] {position, count});
+		out.writeInt(count);
+		out.writeInt(nameColumn.size());
+		out.writeInt(startColumn.size());
+		out.writeInt(durationColumn.size());
+		nameColumn.writeTo(out);
+		startColumn.writeTo(out);
+		durationColumn.writeTo(out);
+		out.write(statuses, 0, count);
+		position += 16 + nameColumn.size() + startColumn.size() + durationColumn.size() + count;
+		count = 0;
+	}
+
+	private void writeString(final String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		final byte[] bytes = value.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static void writeVarInt(final ByteArrayOutputStream column, final int value) {
+		int remaining = value;
+		while ((remaining & ~0x7F) != 0) {
+			column.write((remaining & 0x7F) | 0x80);
+			remaining >>>= 7;
+		}
+		column.write(remaining);
+	}
+}
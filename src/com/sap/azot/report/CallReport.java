@@ -18,6 +18,9 @@ package com.sap.azot.report;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 
+import com.sap.azot.RawResponse;
+import com.sap.azot.transport.PhaseTimings;
+
 /**
  * @author amuller
  */
@@ -26,12 +29,26 @@ public class CallReport {
 	private long startTime = System.currentTimeMillis();
 	private long endTime = System.currentTimeMillis();
 	
+	/** Monotonic timestamps (System.nanoTime()) */
+	private long startNanos = System.nanoTime();
+	private long endNanos = startNanos;
+	private long intendedStartNanos = -1;
+	
+	/** Phases of the request (set by the transport) */
+	private PhaseTimings timings;
+	/** End of the response download, -1 if not read */
+	private long responseEndNanos = -1;
+	
 	private String url;
 	private String name;
+	private int index;
 	private Status status = Status.SUCCESS;
 	private String message;
 	private String type;
 	
+	/** Raw data of the response (only if the call asks for it) */
+	private RawResponse rawResponse;
+	
 	public String getUrl() {
 		return url;
 	}
@@ -48,6 +65,19 @@ public class CallReport {
 		return name;
 	}
 	
+	/**
+	 * Position of the call in the workflow (in start order).
+	 * 
+	 * @return
+	 */
+	public int getIndex() {
+		return index;
+	}
+	
+	public void setIndex(int index) {
+		this.index = index;
+	}
+	
 	public long getStartTime() {
 		return startTime;
 	}
@@ -68,6 +98,103 @@ public class CallReport {
 		this.endTime = endTime;
 	}
 	
+	public long getStartNanos() {
+		return startNanos;
+	}
+	
+	public void setStartNanos(long startNanos) {
+		this.startNanos = startNanos;
+	}
+	
+	public long getEndNanos() {
+		return endNanos;
+	}
+	
+	public void setEndNanos(long endNanos) {
+		this.endNanos = endNanos;
+	}
+	
+	/**
+	 * Time at which the call should have started (open model scheduling), -1 if not scheduled.
+	 * 
+	 * @return
+	 */
+	public long getIntendedStartNanos() {
+		return intendedStartNanos;
+	}
+	
+	public void setIntendedStartNanos(long intendedStartNanos) {
+		this.intendedStartNanos = intendedStartNanos;
+	}
+	
+	/**
+	 * Latency of the call in microseconds. A call started after its intended start time is measured
+	 * from the intended start time, so that the delay caused by the previous calls is not omitted.
+	 * 
+	 * @return
+	 */
+	public long getLatencyMicros() {
+		long from = startNanos;
+		if (intendedStartNanos != -1 && intendedStartNanos < startNanos) {
+			from = intendedStartNanos;
+		}
+		return (endNanos - from) / 1000;
+	}
+	
+	public PhaseTimings getTimings() {
+		return timings;
+	}
+	
+	public void setTimings(PhaseTimings timings) {
+		this.timings = timings;
+	}
+	
+	public long getResponseEndNanos() {
+		return responseEndNanos;
+	}
+	
+	public void setResponseEndNanos(long responseEndNanos) {
+		this.responseEndNanos = responseEndNanos;
+	}
+	
+	/**
+	 * Duration of a phase of the call in microseconds, -1 if not measured.
+	 * 
+	 * @param phase
+	 * @return
+	 */
+	public long getPhaseMicros(final Phase phase) {
+		if (phase == Phase.PROCESSING) {
+			return (responseEndNanos == -1) ? -1 : (endNanos - responseEndNanos) / 1000;
+		}
+		if (timings == null) {
+			return -1;
+		}
+
+		long nanos;
+		switch (phase) {
+			case DNS:
+				nanos = timings.getDnsNanos();
+				break;
+			case CONNECT:
+				nanos = timings.getConnectNanos();
+				break;
+			case TLS:
+				nanos = timings.getTlsNanos();
+				break;
+			case SEND:
+				nanos = timings.getSendNanos();
+				break;
+			case WAIT:
+				nanos = timings.getWaitNanos();
+				break;
+			default:
+				nanos = (timings.getFirstByteNanos() == -1 || responseEndNanos == -1) ? -1 : responseEndNanos - timings.getFirstByteNanos();
+				break;
+		}
+		return (nanos < 0) ? -1 : nanos / 1000;
+	}
+	
 	public Status getStatus() {
 		return status;
 	}
@@ -91,6 +218,14 @@ public class CallReport {
 		this.message = cause;
 	}
 	
+	public RawResponse getRawResponse() {
+		return rawResponse;
+	}
+	
+	public void setRawResponse(RawResponse rawResponse) {
+		this.rawResponse = rawResponse;
+	}
+	
 	public String getType() {
 		return type;
 	}
@@ -102,4 +237,12 @@ public class CallReport {
 	public static enum Status {
 		SUCCESS, FAILURE, ERROR
 	}
+
+	/**
+	 * Phases of a call: DNS resolution, TCP connect, TLS handshake, request write, wait for the first byte
+	 * of the response, response download, then processing by Azot (extraction of the variables, dump...).
+	 */
+	public static enum Phase {
+		DNS, CONNECT, TLS, SEND, WAIT, DOWNLOAD, PROCESSING
+	}
 }
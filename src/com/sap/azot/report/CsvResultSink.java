@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.report;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Writes a line per call to <code>calls.csv</code> (RFC 4180 quoting).
+ *
+ * @author amuller
+ */
+public class CsvResultSink implements ResultSink {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private Writer out;
+
+	@Override
+	public void open(final WorkflowReport report) throws IOException {
+		out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(report.getOutputDirectory(), "calls.csv")), UTF8));
+		out.write("index,name,url,status,type,startTime,endTime,latencyMicros,message\r\n");
+	}
+
+	@Override
+	public void write(final CallReport callReport) throws IOException {
+		out.write(String.valueOf(callReport.getIndex()));
+		out.write(',');
+		writeField(callReport.getName());
+		out.write(',');
+		writeField(callReport.getUrl());
+		out.write(',');
+		out.write(callReport.getStatus().name());
+		out.write(',');
+		writeField(callReport.getType());
+		out.write(',');
+		out.write(String.valueOf(callReport.getStartTime()));
+		out.write(',');
+		out.write(String.valueOf(callReport.getEndTime()));
+		out.write(',');
+		out.write(String.valueOf(callReport.getLatencyMicros()));
+		out.write(',');
+		writeField(callReport.getMessage());
+		out.write("\r\n");
+	}
+
+	@Override
+	public void close(final WorkflowReport report) throws IOException {
+		out.close();
+	}
+
+	private void writeField(final String value) throws IOException {
+		if (value == null) {
+			return;
+		}
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+			out.write(value);
+			return;
+		}
+		out.write('"');
+		out.write(value.replace("\"", "\"\""));
+		out.write('"');
+	}
+}
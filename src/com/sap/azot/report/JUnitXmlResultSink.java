@@ -0,0 +1,207 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.report;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Map;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes <code>report.xml</code> (JUnit format).
+ *
+ * The test cases are streamed to <code>report.xml.part</code> as the calls finish, so they are listed in completion
+ * order (not in document order: the calls of parallel branches and loops are interleaved); the test suite (counters,
+ * properties) is written around them when the workflow is closed.
+ *
+ * @author amuller
+ */
+public class JUnitXmlResultSink implements ResultSink {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final XMLOutputFactory xmlof = XMLOutputFactory.newInstance();
+
+	private final NumberFormat formatter = new DecimalFormat("000");
+
+	private String name;
+	private long startTime;
+
+	private File partFile;
+	private Writer partWriter;
+	private XMLStreamWriter caseWriter;
+
+	private int tests = 0;
+	private int errors = 0;
+	private int failures = 0;
+
+	@Override
+	public void open(final WorkflowReport report) throws IOException {
+		name = report.getName();
+		startTime = report.getStartTime();
+		partFile = new File(report.getOutputDirectory(), "report.xml.part");
+		partWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(partFile), UTF8));
+		try {
+			caseWriter = xmlof.createXMLStreamWriter(partWriter);
+		} catch (final XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	@Override
+	public void write(final CallReport callReport) throws IOException {
+		final String callName = (callReport.getName() == null) ? "call_" + String.valueOf(callReport.getIndex()) : callReport.getName();
+		try {
+			caseWriter.writeStartElement("testcase");
+			caseWriter.writeAttribute("time", String.valueOf(callReport.getTime()));
+			caseWriter.writeAttribute("classname", name + "." + formatter.format(callReport.getIndex()) + "_" + callName);
+			caseWriter.writeAttribute("name", String.valueOf(callReport.getUrl()));
+			final long callStartTime = callReport.getStartTime() - startTime;
+			final long callEndTime = callStartTime + (callReport.getEndTime() - callReport.getStartTime());
+
+			// Azot custom attributes
+			caseWriter.writeAttribute("callStartTime", String.valueOf(callStartTime));
+			caseWriter.writeAttribute("callEndTime", String.valueOf(callEndTime));
+			caseWriter.writeAttribute("callName", callName);
+			for (final CallReport.Phase phase : CallReport.Phase.values()) {
+				final long micros = callReport.getPhaseMicros(phase);
+				if (micros != -1) {
+					caseWriter.writeAttribute(phase.name().toLowerCase() + "Micros", String.valueOf(micros));
+				}
+			}
+
+			switch (callReport.getStatus()) {
+				case ERROR:
+					errors++;
+					caseWriter.writeStartElement("error");
+					caseWriter.writeAttribute("type", String.valueOf(callReport.getType()));
+					caseWriter.writeCharacters(String.valueOf(callReport.getMessage()));
+					caseWriter.writeEndElement();
+					break;
+				case FAILURE:
+					failures++;
+					caseWriter.writeStartElement("failure");
+					caseWriter.writeAttribute("type", String.valueOf(callReport.getType()));
+					caseWriter.writeAttribute("message", String.valueOf(callReport.getMessage()));
+					caseWriter.writeCharacters(String.valueOf(callReport.getMessage()));
+					caseWriter.writeEndElement();
+					break;
+				default:
+					break;
+			}
+			caseWriter.writeEndElement();
+			caseWriter.flush();
+		} catch (final XMLStreamException e) {
+			throw new IOException(e);
+		}
+		tests++;
+	}
+
+	@Override
+	public void close(final WorkflowReport report) throws IOException {
+		try {
+			caseWriter.close();
+		} catch (final XMLStreamException e) {
+			throw new IOException(e);
+		} finally {
+			partWriter.close();
+		}
+
+		final File reportFile = new File(report.getOutputDirectory(), "report.xml");
+		final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(reportFile), UTF8));
+		try {
+			final XMLStreamWriter reportWriter = xmlof.createXMLStreamWriter(out);
+			reportWriter.writeStartDocument();
+			reportWriter.writeStartElement("testsuite");
+			reportWriter.writeAttribute("errors", String.valueOf(errors));
+			reportWriter.writeAttribute("failures", String.valueOf(failures));
+			reportWriter.writeAttribute("hostname", report.getHostname());
+			reportWriter.writeAttribute("name", name);
+			reportWriter.writeAttribute("tests", String.valueOf(tests));
+			reportWriter.writeAttribute("time", String.valueOf(report.getTime()));
+			reportWriter.writeAttribute("timestamp", getTimestamp());
+
+			reportWriter.writeStartElement("properties");
+			for (final Map.Entry<String, String> property : report.getSummaryProperties().entrySet()) {
+				writeProperty(reportWriter, property.getKey(), property.getValue());
+			}
+			reportWriter.writeEndElement();
+
+			// Streamed test cases
+			reportWriter.flush();
+			copy(partFile, out);
+
+			reportWriter.writeEndElement();
+			reportWriter.writeEndDocument();
+			reportWriter.close();
+		} catch (final XMLStreamException e) {
+			throw new IOException(e);
+		} finally {
+			out.close();
+		}
+		partFile.delete();
+	}
+
+	private void writeProperty(final XMLStreamWriter reportWriter, final String name, final String value) throws XMLStreamException {
+		reportWriter.writeStartElement("property");
+		reportWriter.writeAttribute("name", name);
+		reportWriter.writeAttribute("value", String.valueOf(value));
+		reportWriter.writeEndElement();
+	}
+
+	private String getTimestamp() {
+		try {
+			final GregorianCalendar gCalendar = new GregorianCalendar();
+			gCalendar.setTime(new Date(startTime));
+
+			final XMLGregorianCalendar xmlCalendar = DatatypeFactory.newInstance().newXMLGregorianCalendar(gCalendar);
+			return xmlCalendar.toString();
+		} catch (DatatypeConfigurationException e) {
+			return "";
+		}
+	}
+
+	private static void copy(final File file, final Writer out) throws IOException {
+		final Reader in = new InputStreamReader(new FileInputStream(file), UTF8);
+		try {
+			final char[] buffer = new char[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.report;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Writes a JSON object per call to <code>calls.jsonl</code> (JSON Lines).
+ *
+ * @author amuller
+ */
+public class JsonLinesResultSink implements ResultSink {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private Writer out;
+
+	private String workflow;
+
+	@Override
+	public void open(final WorkflowReport report) throws IOException {
+		workflow = report.getName();
+		out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(report.getOutputDirectory(), "calls.jsonl")), UTF8));
+	}
+
+	@Override
+	public void write(final CallReport callReport) throws IOException {
+		out.write("{\"workflow\":");
+		writeString(workflow);
+		out.write(",\"index\":");
+		out.write(String.valueOf(callReport.getIndex()));
+		out.write(",\"name\":");
+		writeString(callReport.getName());
+		out.write(",\"url\":");
+		writeString(callReport.getUrl());
+		out.write(",\"status\":");
+		writeString(callReport.getStatus().name());
+		out.write(",\"type\":");
+		writeString(callReport.getType());
+		out.write(",\"startTime\":");
+		out.write(String.valueOf(callReport.getStartTime()));
+		out.write(",\"endTime\":");
+		out.write(String.valueOf(callReport.getEndTime()));
+		out.write(",\"latencyMicros\":");
+		out.write(String.valueOf(callReport.getLatencyMicros()));
+		out.write(",\"message\":");
+		writeString(callReport.getMessage());
+		out.write("}\n");
+	}
+
+	@Override
+	public void close(final WorkflowReport report) throws IOException {
+		out.close();
+	}
+
+	private void writeString(final String value) throws IOException {
+		if (value == null) {
+			out.write("null");
+			return;
+		}
+		out.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			switch (c) {
+				case '"':
+					out.write("\\\"");
+					break;
+				case '\\':
+					out.write("\\\\");
+					break;
+				case '\n':
+					out.write("\\n");
+					break;
+				case '\r':
+					out.write("\\r");
+					break;
+				case '\t':
+					out.write("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						out.write(String.format("\\u%04x", (int) c));
+					} else {
+						out.write(c);
+					}
+					break;
+			}
+		}
+		out.write('"');
+	}
+}
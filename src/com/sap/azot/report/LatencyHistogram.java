@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.report;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with microsecond resolution (same bucket layout as HdrHistogram).
+ *
+ * Values are recorded in log-linear buckets keeping 2 significant digits (relative error below 1%)
+ * from 1 us up to 1 hour; bigger values are counted in the last bucket (the maximum stays exact).
+ * Recording is lock-free and can be done concurrently.
+ *
+ * @author amuller
+ */
+public class LatencyHistogram {
+
+	/** Highest value (in us) with a dedicated bucket: 1 hour */
+	private static final long HIGHEST_TRACKABLE_VALUE = 3600L * 1000 * 1000;
+
+	/** 2 significant digits: 2 * 10^2 rounded up to a power of 2 = 256 sub-buckets */
+	private static final int SUB_BUCKET_HALF_COUNT_MAGNITUDE = 7;
+	private static final int SUB_BUCKET_HALF_COUNT = 1 << SUB_BUCKET_HALF_COUNT_MAGNITUDE;
+	private static final int SUB_BUCKET_COUNT = SUB_BUCKET_HALF_COUNT * 2;
+	private static final long SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+	private static final int LEADING_ZERO_COUNT_BASE = 64 - SUB_BUCKET_HALF_COUNT_MAGNITUDE - 1;
+	private static final int COUNTS_LENGTH;
+	static {
+		int bucketCount = 1;
+		long smallestUntrackableValue = SUB_BUCKET_COUNT;
+		while (smallestUntrackableValue <= HIGHEST_TRACKABLE_VALUE) {
+			smallestUntrackableValue <<= 1;
+			bucketCount++;
+		}
+		COUNTS_LENGTH = (bucketCount + 1) * SUB_BUCKET_HALF_COUNT;
+	}
+
+	private final AtomicLongArray counts = new AtomicLongArray(COUNTS_LENGTH);
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong minValue = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong maxValue = new AtomicLong(0);
+
+	/**
+	 * Record a latency.
+	 *
+	 * @param value latency in microseconds
+	 */
+	public void recordValue(final long value) {
+		final long v = Math.max(0, value);
+		final int index = Math.min(countsIndexFor(Math.min(v, HIGHEST_TRACKABLE_VALUE)), COUNTS_LENGTH - 1);
+		counts.incrementAndGet(index);
+		totalCount.incrementAndGet();
+		updateMinMax(v, v);
+	}
+
+	/**
+	 * Add the values recorded by another histogram (the result is the same as if they were recorded here).
+	 *
+	 * @param other
+	 */
+	public void add(final LatencyHistogram other) {
+		for (int i = 0; i < COUNTS_LENGTH; i++) {
+			final long count = other.counts.get(i);
+			if (count != 0) {
+				counts.addAndGet(i, count);
+			}
+		}
+		totalCount.addAndGet(other.getTotalCount());
+
+		if (other.getTotalCount() > 0) {
+			updateMinMax(other.minValue.get(), other.maxValue.get());
+		}
+	}
+
+	/**
+	 * Write the recorded values (the non-empty buckets only).
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(final DataOutput out) throws IOException {
+		final long[] snapshot = new long[COUNTS_LENGTH];
+		long total = 0;
+		int bucketCount = 0;
+		for (int i = 0; i < COUNTS_LENGTH; i++) {
+			snapshot[i] = counts.get(i);
+			if (snapshot[i] != 0) {
+				total += snapshot[i];
+				bucketCount++;
+			}
+		}
+		out.writeLong(total);
+		out.writeLong(minValue.get());
+		out.writeLong(maxValue.get());
+		out.writeInt(bucketCount);
+		for (int i = 0; i < COUNTS_LENGTH; i++) {
+			if (snapshot[i] != 0) {
+				out.writeInt(i);
+				out.writeLong(snapshot[i]);
+			}
+		}
+	}
+
+	/**
+	 * Add the values written by {@link #write(DataOutput)}.
+	 *
+	 * @param in
+	 * @throws IOException
+	 */
+	public void read(final DataInput in) throws IOException {
+		final long total = in.readLong();
+		final long min = in.readLong();
+		final long max = in.readLong();
+		final int bucketCount = in.readInt();
+		for (int i = 0; i < bucketCount; i++) {
+			final int index = in.readInt();
+			if (index < 0 || index >= COUNTS_LENGTH) {
+				throw new IOException("Invalid histogram bucket: " + index);
+			}
+			counts.addAndGet(index, in.readLong());
+		}
+		totalCount.addAndGet(total);
+
+		if (total > 0) {
+			updateMinMax(min, max);
+		}
+	}
+
+	private void updateMinMax(final long newMin, final long newMax) {
+		long min;
+		while (newMin < (min = minValue.get()) && !minValue.compareAndSet(min, newMin)) {
+			// Retry
+		}
+		long max;
+		while (newMax > (max = maxValue.get()) && !maxValue.compareAndSet(max, newMax)) {
+			// Retry
+		}
+	}
+
+	/**
+	 * @return the number of buckets (in increasing order of values)
+	 */
+	public int getBucketCount() {
+		return COUNTS_LENGTH;
+	}
+
+	/**
+	 * @param index between 0 and {@link #getBucketCount()} - 1
+	 * @return the number of values recorded in the bucket
+	 */
+	public long getCountAtBucket(final int index) {
+		return counts.get(index);
+	}
+
+	public long getTotalCount() {
+		return totalCount.get();
+	}
+
+	/**
+	 * @return the minimum recorded value (in us), 0 if empty
+	 */
+	public long getMinValue() {
+		return (getTotalCount() == 0) ? 0 : minValue.get();
+	}
+
+	/**
+	 * @return the maximum recorded value (in us), 0 if empty
+	 */
+	public long getMaxValue() {
+		return maxValue.get();
+	}
+
+	/**
+	 * Return the value (in us) under which the given percentage of the recorded values are.
+	 *
+	 * @param percentile between 0 and 100
+	 * @return
+	 */
+	public long getValueAtPercentile(final double percentile) {
+		final long total = getTotalCount();
+		if (total == 0) {
+			return 0;
+		}
+		final double requestedPercentile = Math.min(Math.max(percentile, 0), 100);
+		final long countAtPercentile = Math.max(1, (long) Math.ceil((requestedPercentile / 100) * total));
+
+		long cumulatedCount = 0;
+		for (int i = 0; i < COUNTS_LENGTH; i++) {
+			cumulatedCount += counts.get(i);
+			if (cumulatedCount >= countAtPercentile) {
+				return Math.min(highestEquivalentValue(valueFromIndex(i)), getMaxValue());
+			}
+		}
+		return getMaxValue();
+	}
+
+	private static int countsIndexFor(final long value) {
+		final int bucketIndex = LEADING_ZERO_COUNT_BASE - Long.numberOfLeadingZeros(value | SUB_BUCKET_MASK);
+		final int subBucketIndex = (int) (value >>> bucketIndex);
+		return ((bucketIndex + 1) << SUB_BUCKET_HALF_COUNT_MAGNITUDE) + (subBucketIndex - SUB_BUCKET_HALF_COUNT);
+	}
+
+	private static long valueFromIndex(final int index) {
+		int bucketIndex = (index >> SUB_BUCKET_HALF_COUNT_MAGNITUDE) - 1;
+		int subBucketIndex = (index & (SUB_BUCKET_HALF_COUNT - 1)) + SUB_BUCKET_HALF_COUNT;
+		if (bucketIndex < 0) {
+			subBucketIndex -= SUB_BUCKET_HALF_COUNT;
+			bucketIndex = 0;
+		}
+		return ((long) subBucketIndex) << bucketIndex;
+	}
+
+	private static long highestEquivalentValue(final long value) {
+		final int bucketIndex = LEADING_ZERO_COUNT_BASE - Long.numberOfLeadingZeros(value | SUB_BUCKET_MASK);
+		final int subBucketIndex = (int) (value >>> bucketIndex);
+		final long lowestEquivalentValue = ((long) subBucketIndex) << bucketIndex;
+		final long sizeOfEquivalentRange = 1L << (bucketIndex + ((subBucketIndex >= SUB_BUCKET_COUNT) ? 1 : 0));
+		return lowestEquivalentValue + sizeOfEquivalentRange - 1;
+	}
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.report;
+
+import java.io.IOException;
+
+/**
+ * Receives the results of a workflow while it runs, so that the reports of the calls don't stay in memory.
+ *
+ * The methods of a sink are called by a single writer thread: {@link #write(CallReport)} is called for each
+ * call as soon as it is finished (in completion order). A sink is selected with <code>azot-result-sinks</code>
+ * by its short name (<code>junit</code>, <code>csv</code>, <code>jsonl</code>, <code>binary</code>) or by its class name
+ * (public class with a default constructor).
+ *
+ * @author amuller
+ */
+public interface ResultSink {
+
+	/**
+	 * Called before the first call of the workflow.
+	 *
+	 * @param report
+	 * @throws IOException
+	 */
+	void open(WorkflowReport report) throws IOException;
+
+	/**
+	 * Called for each finished call.
+	 *
+	 * @param callReport
+	 * @throws IOException
+	 */
+	void write(CallReport callReport) throws IOException;
+
+	/**
+	 * Called after the last call: the summary of the workflow (variables, latencies) is available.
+	 *
+	 * @param report
+	 * @throws IOException
+	 */
+	void close(WorkflowReport report) throws IOException;
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.report;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.sap.azot.AzotException;
+import com.sap.azot.AzotExecutors;
+
+/**
+ * Hands the finished calls of a workflow to its sinks.
+ *
+ * The calls are queued by the threads executing them, then written by a single thread shared by all the workflows
+ * (a drain is scheduled when the queue was idle). The queue is bounded: when the sinks fall behind, the calls of
+ * the workflow wait for room, so the memory used by the pending results stays flat.
+ *
+ * A shared queue is used rather than buffers per executing thread, which would have to be flushed when the
+ * executor threads end. The calls reach the sinks in completion order, not in document order.
+ *
+ * @author amuller
+ */
+final class ResultWriter implements Runnable {
+
+	private static final ExecutorService WRITER = AzotExecutors.newBoundedExecutor("AzotResults", 1, false);
+
+	/** Maximum number of finished calls of a workflow waiting for the writer (also written by a drain at most) */
+	private static final int MAX_PENDING = 1024;
+
+	private final List<ResultSink> sinks;
+
+	private final BlockingQueue<CallReport> pending = new ArrayBlockingQueue<CallReport>(MAX_PENDING);
+
+	/** <code>true</code> if a drain is scheduled */
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	ResultWriter(final List<ResultSink> sinks) {
+		this.sinks = sinks;
+	}
+
+	void open(final WorkflowReport report) {
+		for (final ResultSink sink : sinks) {
+			try {
+				sink.open(report);
+			} catch (final IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Queue a finished call, waiting for room if the sinks fall behind.
+	 *
+	 * @param callReport
+	 */
+	void write(final CallReport callReport) {
+		if (!pending.offer(callReport)) {
+			// A drain is scheduled: the queue is not empty
+			try {
+				pending.put(callReport);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new AzotException(e);
+			}
+		}
+		if (scheduled.compareAndSet(false, true)) {
+			WRITER.execute(this);
+		}
+	}
+
+	@Override
+	public void run() {
+		scheduled.set(false);
+		drain(MAX_PENDING);
+		// Not more at once: the writer is shared with the other workflows
+		if (!pending.isEmpty() && scheduled.compareAndSet(false, true)) {
+			WRITER.execute(this);
+		}
+	}
+
+	private void drain(final int max) {
+		CallReport callReport;
+		for (int i = 0; i < max && (callReport = pending.poll()) != null; i++) {
+			for (final ResultSink sink : sinks) {
+				try {
+					sink.write(callReport);
+				} catch (final IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the pending calls, then close the sinks (waits for it).
+	 *
+	 * @param report
+	 */
+	void close(final WorkflowReport report) {
+		final Future<?> closed = WRITER.submit(new Runnable() {
+			@Override
+			public void run() {
+				drain(Integer.MAX_VALUE);
+				for (final ResultSink sink : sinks) {
+					try {
+						sink.close(report);
+					} catch (final IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		});
+		try {
+			closed.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AzotException(e);
+		} catch (final ExecutionException e) {
+			throw new AzotException(e.getCause());
+		}
+	}
+}
@@ -16,36 +16,27 @@
 package com.sap.azot.report;
 
 import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
-import java.util.Date;
-import java.util.GregorianCalendar;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
-import javax.xml.datatype.DatatypeConfigurationException;
-import javax.xml.datatype.DatatypeFactory;
-import javax.xml.datatype.XMLGregorianCalendar;
-import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
-
-import com.sap.azot.AzotConfig;
-import com.sap.azot.report.CallReport.Status;
+import com.sap.azot.AzotException;
+import com.sap.azot.RunConfig;
+import com.sap.azot.transport.TransportStats;
 
 /**
  * @author amuller
  */
 public class WorkflowReport {
 
-	private List<CallReport> callReports = new LinkedList<CallReport>();
 	private Map<String, String> variables = new HashMap<String, String>();
+	private Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<String, LatencyHistogram>();
 	
 	private long startTime = System.currentTimeMillis();
 	private long endTime = System.currentTimeMillis();
@@ -53,34 +44,44 @@ public class WorkflowReport {
 	private String hostname;
 	private String name;
 
-	private XMLStreamWriter reportWriter = null;
-	
 	private final File outputDirectory;
+
+	private final RunConfig config;
 	
-	public WorkflowReport(final String name) {
+	/** Connections used by the calls of this workflow only (the transport is shared by the workflows of the JVM) */
+	private final TransportStats transportStats = new TransportStats();
+
+	/** Writer of the results (<code>null</code> without report) */
+	private final ResultWriter resultWriter;
+
+	/** Properties of the ended workflow */
+	private Map<String, String> summaryProperties = null;
+	
+	public WorkflowReport(final String name, final RunConfig config) {
 		this.name = name;
+		this.config = config;
 		
 		File tmpFile = null;
 		if (name != null && !name.trim().isEmpty()) {
 			try {
-				tmpFile = new File(AzotConfig.GLOBAL.OUTPUT_DIRECTORY, name);
+				tmpFile = new File(config.OUTPUT_DIRECTORY, name);
 				if (tmpFile.exists()) {
 					int id = 1;
 					do {
-						tmpFile = new File(AzotConfig.GLOBAL.OUTPUT_DIRECTORY, name + " ("+ id + ")");
+						tmpFile = new File(config.OUTPUT_DIRECTORY, name + " ("+ id + ")");
 						id++;
 					} while(tmpFile.exists());
 				}
 
 				boolean ok = tmpFile.mkdirs();
 				if(!ok) {
-					if (AzotConfig.GLOBAL.VERBOSE) {
+					if (config.VERBOSE) {
 						System.out.println("Cannot create directory: " + tmpFile.getCanonicalPath());	
 					}
 					tmpFile = null;
 				}
 			} catch (Exception e) {
-				if (AzotConfig.GLOBAL.VERBOSE) {
+				if (config.VERBOSE) {
 					System.out.println(e.getLocalizedMessage());
 				}
 				tmpFile = null;
@@ -90,13 +91,13 @@ public class WorkflowReport {
 		if (tmpFile == null) {
 			long uid = startTime;
 			do {
-				tmpFile = new File(AzotConfig.GLOBAL.OUTPUT_DIRECTORY, "workflow_" + uid);
+				tmpFile = new File(config.OUTPUT_DIRECTORY, "workflow_" + uid);
 				uid++;
 			} while(tmpFile.exists());
 		}
 		
 		this.outputDirectory = tmpFile;
-		if (AzotConfig.GLOBAL.DUMP || AzotConfig.GLOBAL.REPORT) {
+		if (config.DUMP || config.REPORT) {
 			this.outputDirectory.mkdir();
 		}
 		
@@ -107,116 +108,137 @@ public class WorkflowReport {
 			hostname = "unknown";
 		}
 		  
+		if (config.REPORT) {
+			resultWriter = new ResultWriter(createSinks(config.RESULT_SINKS));
+			resultWriter.open(this);
+		} else {
+			resultWriter = null;
+		}
 	}
 	
 	public File getOutputDirectory() {
 		return outputDirectory;
 	}
 	
-	public List<CallReport> getCallReports() {
-		return callReports;
+	public String getName() {
+		return name;
+	}
+	
+	public String getHostname() {
+		return hostname;
+	}
+	
+	/**
+	 * Hand the report of a finished call to the result sinks (calls can be executed concurrently).
+	 * 
+	 * @param callReport
+	 */
+	public void addCallReport(final CallReport callReport) {
+		if (resultWriter != null) {
+			resultWriter.write(callReport);
+		}
+	}
+	
+	/**
+	 * Return the latency histogram of a call name (created if needed).
+	 * 
+	 * @param name source of the name of the calls (not rendered: the number of histograms must stay bounded)
+	 * @return
+	 */
+	public LatencyHistogram getLatency(final String name) {
+		final String callName = (name == null) ? "call" : name;
+		LatencyHistogram histogram = latencies.get(callName);
+		if (histogram == null) {
+			synchronized (latencies) {
+				histogram = latencies.get(callName);
+				if (histogram == null) {
+					histogram = new LatencyHistogram();
+					latencies.put(callName, histogram);
+				}
+			}
+		}
+		return histogram;
+	}
+	
+	public Map<String, LatencyHistogram> getLatencies() {
+		return latencies;
 	}
 	
 	public Map<String, String> getVariables() {
 		return variables;
 	}
 	
-	private float getTime() {
-		return ((float)(endTime-startTime))/((float)1000);
+	/**
+	 * Count the connections used by a call of this workflow (calls can be executed concurrently).
+	 * 
+	 * @param exchangeStats
+	 */
+	public void addTransportStats(final TransportStats exchangeStats) {
+		transportStats.add(exchangeStats);
 	}
-
-	private String getTimestamp() {
-		try {
-			final GregorianCalendar gCalendar = new GregorianCalendar();
-			gCalendar.setTime(new Date(startTime));
-
-			final XMLGregorianCalendar xmlCalendar = DatatypeFactory.newInstance().newXMLGregorianCalendar(gCalendar);
-			return xmlCalendar.toString();
-		} catch (DatatypeConfigurationException e) {
-			return "";
+	
+	/**
+	 * Return the connections used by the calls of this workflow.
+	 * 
+	 * @return
+	 */
+	public TransportStats getTransportStats() {
+		return transportStats;
+	}
+	
+	/**
+	 * Return the properties of the workflow: the reported variables, the connections used by its calls
+	 * and the latency distribution of each call name (in microseconds).
+	 * 
+	 * The properties are computed once the workflow is ended, so that all the sinks get the same values.
+	 * 
+	 * @return
+	 */
+	public Map<String, String> getSummaryProperties() {
+		if (summaryProperties == null) {
+			summaryProperties = createSummaryProperties();
 		}
-
+		return summaryProperties;
 	}
 	
-	private int countCall(final Status status) {
-		int count = 0;
-		for (final CallReport callReport : callReports) {
-			if(status.equals(callReport.getStatus())) {
-				count++;
-			}
+	private Map<String, String> createSummaryProperties() {
+		final Map<String, String> properties = new LinkedHashMap<String, String>(variables);
+		
+		properties.put("azot-pool-hits", String.valueOf(transportStats.getHits()));
+		properties.put("azot-pool-misses", String.valueOf(transportStats.getMisses()));
+		properties.put("azot-pool-evictions", String.valueOf(transportStats.getEvictions()));
+		
+		for (final Map.Entry<String, LatencyHistogram> latency : new TreeMap<String, LatencyHistogram>(latencies).entrySet()) {
+			final String prefix = "azot-latency." + latency.getKey() + ".";
+			final LatencyHistogram histogram = latency.getValue();
+			properties.put(prefix + "count", String.valueOf(histogram.getTotalCount()));
+			properties.put(prefix + "p50", String.valueOf(histogram.getValueAtPercentile(50)));
+			properties.put(prefix + "p90", String.valueOf(histogram.getValueAtPercentile(90)));
+			properties.put(prefix + "p99", String.valueOf(histogram.getValueAtPercentile(99)));
+			properties.put(prefix + "p99.9", String.valueOf(histogram.getValueAtPercentile(99.9)));
+			properties.put(prefix + "max", String.valueOf(histogram.getMaxValue()));
 		}
-		return count;
+		return properties;
 	}
 	
+	/**
+	 * Return the duration of the workflow in seconds.
+	 * 
+	 * @return
+	 */
+	public float getTime() {
+		return ((float)(endTime-startTime))/((float)1000);
+	}
+	
+	/**
+	 * End the workflow: the pending results are written, then the sinks are closed.
+	 */
 	public void dump() {
 		endTime = System.currentTimeMillis();
+		summaryProperties = createSummaryProperties();
 		
-		final NumberFormat formatter = new DecimalFormat("000");
-		
-		initReportWriter();
-		try {
-			reportWriter.writeStartDocument();
-			reportWriter.writeStartElement("testsuite");
-			reportWriter.writeAttribute("errors", String.valueOf(countCall(Status.ERROR)));
-			reportWriter.writeAttribute("failures", String.valueOf(countCall(Status.FAILURE)));
-			reportWriter.writeAttribute("hostname", this.hostname);
-			reportWriter.writeAttribute("name", this.name);
-			reportWriter.writeAttribute("tests", String.valueOf(callReports.size()));
-			reportWriter.writeAttribute("time", String.valueOf(getTime()) );
-			reportWriter.writeAttribute("timestamp", getTimestamp());
-		
-			if(!getVariables().isEmpty()) {
-				reportWriter.writeStartElement("properties");
-				for (final String variableId : getVariables().keySet()) {
-					reportWriter.writeStartElement("property");
-					reportWriter.writeAttribute("name", variableId);
-					reportWriter.writeAttribute("value", getVariables().get(variableId));
-					reportWriter.writeEndElement();
-				}
-				reportWriter.writeEndElement();
-			}
-			
-			for (int i=0; i<callReports.size(); i++) {
-				final CallReport callReport = callReports.get(i);
-				final String callName = (callReport.getName()==null)? "call_" + String.valueOf(i):callReport.getName();
-				
-				reportWriter.writeStartElement("testcase");
-				reportWriter.writeAttribute("time", String.valueOf(callReport.getTime()));
-				reportWriter.writeAttribute("classname", this.name + "." +  formatter.format(i) + "_" + callName);
-				reportWriter.writeAttribute("name", callReport.getUrl());
-				long callStartTime = callReport.getStartTime() - getStartTime();
-				long callEndTime = callStartTime + (callReport.getEndTime() - callReport.getStartTime());
-				
-				// Azot custom attributes
-				reportWriter.writeAttribute("callStartTime", String.valueOf(callStartTime));
-				reportWriter.writeAttribute("callEndTime", String.valueOf(callEndTime));
-				reportWriter.writeAttribute("callName", callName);
-				
-				switch (callReport.getStatus()) {
-					case ERROR:
-						reportWriter.writeStartElement("error");
-						reportWriter.writeAttribute("type", callReport.getType());
-						reportWriter.writeCharacters(callReport.getMessage());
-						reportWriter.writeEndElement();
-						break;
-					case FAILURE:
-						reportWriter.writeStartElement("failure");
-						reportWriter.writeAttribute("type", callReport.getType());
-						reportWriter.writeAttribute("message", callReport.getMessage());
-						reportWriter.writeCharacters(callReport.getMessage());
-						reportWriter.writeEndElement();					
-						break;
-					default:
-						break;
-				}
-				reportWriter.writeEndElement();
-			}
-
-			reportWriter.writeEndElement();
-			reportWriter.writeEndDocument();
-			reportWriter.close();
-		} catch (final XMLStreamException e) {
-			e.printStackTrace();
+		if (resultWriter != null) {
+			resultWriter.close(this);
 		}
 	}
 	
@@ -224,28 +246,39 @@ public class WorkflowReport {
 		return startTime;
 	}
 	
-	private void initReportWriter() {
-		// Create an output factory
-		final XMLOutputFactory xmlof = XMLOutputFactory.newInstance();
-
-		// Create an XML stream writer
-		final File reportFile = new File(getOutputDirectory(), "report.xml");
-		try {
-			reportWriter = xmlof.createXMLStreamWriter(new FileWriter(reportFile));
-
-		} catch (final XMLStreamException e) {
-			e.printStackTrace();
-		} catch (final IOException e) {
-			e.printStackTrace();
-		}
+	public long getEndTime() {
+		return endTime;
 	}
-//	reportWriter.writeStartElement("testsuite");
-//	reportWriter.writeAttribute("errors", "");
-//	reportWriter.writeAttribute("failures", "");
-//	reportWriter.writeAttribute("hostname", "");
-//	reportWriter.writeAttribute("name", "");
-//	reportWriter.writeAttribute("tests", "");
-//	reportWriter.writeAttribute("time", "");
-//	reportWriter.writeAttribute("timestamp", "");
 	
+	/**
+	 * Create the sinks from their names (<code>junit</code>, <code>csv</code>, <code>jsonl</code>, <code>binary</code> or a class name).
+	 * 
+	 * @param names comma separated names
+	 * @return
+	 */
+	private static List<ResultSink> createSinks(final String names) {
+		final List<ResultSink> sinks = new ArrayList<ResultSink>();
+		for (final String sinkName : names.split(",")) {
+			final String trimmed = sinkName.trim();
+			if (trimmed.isEmpty()) {
+				continue;
+			}
+			if ("junit".equalsIgnoreCase(trimmed)) {
+				sinks.add(new JUnitXmlResultSink());
+			} else if ("csv".equalsIgnoreCase(trimmed)) {
+				sinks.add(new CsvResultSink());
+			} else if ("jsonl".equalsIgnoreCase(trimmed)) {
+				sinks.add(new JsonLinesResultSink());
+			} else if ("binary".equalsIgnoreCase(trimmed)) {
+				sinks.add(new BinaryResultSink());
+			} else {
+				try {
+					sinks.add((ResultSink) Class.forName(trimmed).newInstance());
+				} catch (final Exception e) {
+					throw new AzotException("Invalid result sink: '" + trimmed + "'", e);
+				}
+			}
+		}
+		return sinks;
+	}
 }
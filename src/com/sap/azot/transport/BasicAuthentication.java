@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.transport;
+
+import java.net.Authenticator;
+import java.net.PasswordAuthentication;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Basic credentials asked to the default {@link Authenticator} when a server (401) or a proxy (407) requires them,
+ * like {@link java.net.HttpURLConnection} does (the other authentication schemes are not supported).
+ *
+ * @author amuller
+ */
+final class BasicAuthentication {
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+	private BasicAuthentication() {}
+
+	/**
+	 * @param challenges values of the <code>WWW-Authenticate</code> or <code>Proxy-Authenticate</code> headers
+	 * @param host of the server or of the proxy
+	 * @param port of the server or of the proxy
+	 * @param url requested
+	 * @param type
+	 * @return the value of the authorization header, <code>null</code> if there is no Basic challenge or no credentials
+	 */
+	static String getAuthorization(final List<String> challenges, final String host, final int port, final URL url, final Authenticator.RequestorType type) {
+		if (challenges == null) {
+			return null;
+		}
+		for (final String challenge : challenges) {
+			if (challenge.regionMatches(true, 0, "Basic", 0, 5)) {
+				final PasswordAuthentication credentials = Authenticator.requestPasswordAuthentication(host, null, port, url.getProtocol(),
+						getRealm(challenge), "Basic", url, type);
+				if (credentials == null) {
+					return null;
+				}
+				final String userPassword = credentials.getUserName() + ':' + new String(credentials.getPassword());
+				return "Basic " + encode(userPassword.getBytes(ISO_8859_1));
+			}
+		}
+		return null;
+	}
+
+	private static String getRealm(final String challenge) {
+		final int index = challenge.toLowerCase().indexOf("realm=");
+		if (index < 0) {
+			return "";
+		}
+		String realm = challenge.substring(index + 6).trim();
+		if (realm.startsWith("\"")) {
+			final int end = realm.indexOf('"', 1);
+			realm = (end < 0) ? realm.substring(1) : realm.substring(1, end);
+		} else {
+			final int end = realm.indexOf(',');
+			realm = (end < 0) ? realm : realm.substring(0, end).trim();
+		}
+		return realm;
+	}
+
+	private static String encode(final byte[] bytes) {
+		final StringBuilder encoded = new StringBuilder((bytes.length + 2) / 3 * 4);
+		for (int i = 0; i < bytes.length; i += 3) {
+			final int b0 = bytes[i] & 0xFF;
+			final int b1 = (i + 1 < bytes.length) ? bytes[i + 1] & 0xFF : 0;
+			final int b2 = (i + 2 < bytes.length) ? bytes[i + 2] & 0xFF : 0;
+			encoded.append(BASE64[b0 >> 2]);
+			encoded.append(BASE64[((b0 & 0x03) << 4) | (b1 >> 4)]);
+			encoded.append((i + 1 < bytes.length) ? BASE64[((b1 & 0x0F) << 2) | (b2 >> 6)] : '=');
+			encoded.append((i + 2 < bytes.length) ? BASE64[b2 & 0x3F] : '=');
+		}
+		return encoded.toString();
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.transport;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of fixed size byte buffers (heap or direct) used to read the response bodies.
+ *
+ * @author amuller
+ */
+public class BufferPool {
+
+	private final int bufferSize;
+	private final boolean direct;
+	private final int maxPooledBuffers;
+
+	private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicInteger pooledBuffers = new AtomicInteger();
+
+	/**
+	 * @param bufferSize size of each buffer (in bytes)
+	 * @param direct <code>true</code> to allocate direct buffers
+	 * @param maxPooledBuffers maximum number of free buffers kept in the pool
+	 */
+	public BufferPool(final int bufferSize, final boolean direct, final int maxPooledBuffers) {
+		this.bufferSize = bufferSize;
+		this.direct = direct;
+		this.maxPooledBuffers = maxPooledBuffers;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Return a cleared buffer.
+	 *
+	 * @return
+	 */
+	public ByteBuffer acquire() {
+		final ByteBuffer buffer = buffers.poll();
+		if (buffer != null) {
+			pooledBuffers.decrementAndGet();
+			buffer.clear();
+			return buffer;
+		}
+		return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+	}
+
+	/**
+	 * Give back a buffer to the pool (the buffer must not be used anymore).
+	 *
+	 * @param buffer
+	 */
+	public void release(final ByteBuffer buffer) {
+		if (buffer == null || buffer.capacity() != bufferSize || buffer.isDirect() != direct) {
+			return;
+		}
+		if (pooledBuffers.incrementAndGet() <= maxPooledBuffers) {
+			buffers.offer(buffer);
+		} else {
+			pooledBuffers.decrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.transport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes files used as request bodies without loading them into the heap.
+ *
+ * Small files are memory mapped once and kept (until they change) to be reused by the next requests,
+ * the other ones are transferred from their {@link FileChannel} each time.
+ *
+ * @author amuller
+ */
+public class FileBodyCache {
+
+	private final long maxFileSize;
+	private final long maxSize;
+
+	/** Mapped files by canonical path (least recently used first) */
+	private final Map<String, MappedFile> mappedFiles = new LinkedHashMap<String, MappedFile>(16, 0.75f, true);
+	private long size = 0;
+
+	/**
+	 * @param maxFileSize maximum size of a mapped file (in bytes)
+	 * @param maxSize maximum size of all the mapped files (in bytes), 0 to disable the cache
+	 */
+	public FileBodyCache(final long maxFileSize, final long maxSize) {
+		this.maxFileSize = maxFileSize;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Write the whole content of the file.
+	 *
+	 * @param file
+	 * @param outputStream
+	 * @return the number of written bytes
+	 * @throws IOException
+	 */
+	public long write(final File file, final OutputStream outputStream) throws IOException {
+		if (!file.isFile()) {
+			throw new FileNotFoundException(file.getAbsolutePath());
+		}
+		final WritableByteChannel target = Channels.newChannel(outputStream);
+
+		final long length = file.length();
+		if (length <= maxFileSize && length <= maxSize) {
+			final ByteBuffer content = getMappedContent(file).duplicate();
+			while (content.hasRemaining()) {
+				target.write(content);
+			}
+			return length;
+		}
+
+		final FileInputStream inputStream = new FileInputStream(file);
+		try {
+			final FileChannel channel = inputStream.getChannel();
+			long position = 0;
+			while (position < length) {
+				final long n = channel.transferTo(position, length - position, target);
+				if (n <= 0) {
+					throw new IOException("File truncated while sending it: " + file.getAbsolutePath());
+				}
+				position += n;
+			}
+			return position;
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	private MappedByteBuffer getMappedContent(final File file) throws IOException {
+		final String key = file.getCanonicalPath();
+		final long lastModified = file.lastModified();
+		final long length = file.length();
+
+		synchronized (mappedFiles) {
+			final MappedFile mappedFile = mappedFiles.get(key);
+			if (mappedFile != null && mappedFile.lastModified == lastModified && mappedFile.length == length) {
+				return mappedFile.content;
+			}
+		}
+
+		final MappedByteBuffer content;
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			// The mapping stays valid once the file is closed
+			content = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+		} finally {
+			randomAccessFile.close();
+		}
+
+		synchronized (mappedFiles) {
+			final MappedFile previous = mappedFiles.put(key, new MappedFile(lastModified, length, content));
+			if (previous != null) {
+				size -= previous.length;
+			}
+			size += length;
+
+			// Unmapped by the garbage collector once not referenced anymore
+			final Iterator<MappedFile> iterator = mappedFiles.values().iterator();
+			while (size > maxSize && iterator.hasNext()) {
+				size -= iterator.next().length;
+				iterator.remove();
+			}
+		}
+		return content;
+	}
+
+	private static class MappedFile {
+
+		private final long lastModified;
+		private final long length;
+		private final MappedByteBuffer content;
+
+		MappedFile(final long lastModified, final long length, final MappedByteBuffer content) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.content = content;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One HTTP request and its response.
+ *
+ * The request is sent at the latest when the response is first accessed.
+ * {@link #close()} must always be called to give the connection back to the transport.
+ *
+ * @author amuller
+ */
+public interface HttpExchange {
+
+	void setRequestHeader(String name, String value);
+
+	/**
+	 * Stream the request body (instead of buffering it) with the given length.
+	 * Must be called before {@link #getOutputStream()}.
+	 *
+	 * @param contentLength
+	 */
+	void setFixedLengthStreamingMode(long contentLength);
+
+	/**
+	 * Stream the request body (instead of buffering it) with a chunked transfer encoding.
+	 * Must be called before {@link #getOutputStream()}.
+	 */
+	void setChunkedStreamingMode();
+
+	/**
+	 * Return the stream on which the request body is written.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	OutputStream getOutputStream() throws IOException;
+
+	int getResponseCode() throws IOException;
+
+	/**
+	 * Return the status line of the response (ex: "HTTP/1.1 200 OK").
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	String getStatusLine() throws IOException;
+
+	/**
+	 * Return the response headers (the status line is mapped to the <code>null</code> key).
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	Map<String, List<String>> getHeaderFields() throws IOException;
+
+	/**
+	 * Return the last value of the given response header (case insensitive), <code>null</code> if not present.
+	 *
+	 * @param name
+	 * @return
+	 * @throws IOException
+	 */
+	String getHeaderField(String name) throws IOException;
+
+	/**
+	 * Return the body of the response, whatever the response code is.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	InputStream getResponseStream() throws IOException;
+
+	/**
+	 * Return the timings of the phases of the exchange (updated while it runs).
+	 *
+	 * @return
+	 */
+	PhaseTimings getTimings();
+
+	/**
+	 * Return the connections used by the exchange (redirects and retries included), complete once it is closed.
+	 *
+	 * @return
+	 */
+	TransportStats getStats();
+
+	void close();
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.transport;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Transport used by the workflow engine to send the HTTP requests of the calls.
+ *
+ * @author amuller
+ */
+public interface HttpTransport {
+
+	/**
+	 * Open a new exchange (one request and its response) on the given URL.
+	 *
+	 * @param url
+	 * @param method
+	 * @return
+	 * @throws IOException
+	 */
+	HttpExchange open(URL url, String method) throws IOException;
+
+	/**
+	 * Connection statistics of this transport.
+	 *
+	 * @return
+	 */
+	TransportStats getStats();
+
+	/**
+	 * Release all the resources (idle connections...) held by the transport.
+	 */
+	void close();
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.transport;
+
+import com.sap.azot.RunConfig;
+
+/**
+ * Holder of the transport, of the buffer pool and of the file cache shared by all the workflows of the JVM.
+ *
+ * @author amuller
+ */
+public class HttpTransports {
+
+	/** Size of the buffers used to read the response bodies */
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	/** Maximum number of free buffers kept (4 MB) */
+	private static final int MAX_POOLED_BUFFERS = 256;
+
+	/** Maximum size of a file kept mapped to be sent again (4 MB) */
+	private static final long MAX_CACHED_FILE_SIZE = 4 * 1024 * 1024;
+
+	private static HttpTransport transport = null;
+
+	private static BufferPool bufferPool = null;
+
+	private static FileBodyCache fileBodyCache = null;
+
+	/** Configuration the transport was created from */
+	private static RunConfig initConfig = null;
+
+	/**
+	 * Create the shared transport (only the first time) from the given configuration, the later configurations
+	 * only get a warning if their transport settings differ.
+	 *
+	 * @param config
+	 */
+	public static synchronized void init(final RunConfig config) {
+		if (initConfig == null) {
+			initConfig = config;
+		} else {
+			config.warnIgnoredSettings("HTTP transport", initConfig, "azot-transport", "azot-pool-size", "azot-pool-idle-timeout",
+					"azot-pool-max-requests", "azot-direct-buffers", "azot-file-cache-size");
+		}
+		if (transport == null) {
+			if ("urlconnection".equalsIgnoreCase(config.TRANSPORT)) {
+				transport = new UrlConnectionTransport();
+			} else {
+				transport = new PooledHttpTransport(config.POOL_SIZE, config.POOL_IDLE_TIMEOUT, config.POOL_MAX_REQUESTS);
+			}
+		}
+		if (bufferPool == null) {
+			bufferPool = new BufferPool(BUFFER_SIZE, config.DIRECT_BUFFERS, MAX_POOLED_BUFFERS);
+		}
+		if (fileBodyCache == null) {
+			fileBodyCache = new FileBodyCache(MAX_CACHED_FILE_SIZE, config.FILE_CACHE_SIZE);
+		}
+	}
+
+	public static synchronized HttpTransport get() {
+		if (transport == null) {
+			init(RunConfig.DEFAULTS);
+		}
+		return transport;
+	}
+
+	public static synchronized BufferPool getBufferPool() {
+		if (bufferPool == null) {
+			init(RunConfig.DEFAULTS);
+		}
+		return bufferPool;
+	}
+
+	public static synchronized FileBodyCache getFileBodyCache() {
+		if (fileBodyCache == null) {
+			init(RunConfig.DEFAULTS);
+		}
+		return fileBodyCache;
+	}
+}
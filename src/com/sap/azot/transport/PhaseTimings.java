@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.transport;
+
+/**
+ * Monotonic timestamps (System.nanoTime()) of the phases of an exchange, -1 when not reached or not measured.
+ *
+ * The connection phases (DNS resolution, TCP connect, TLS handshake) last 0 ns when the request is sent on a
+ * kept-alive connection. If the request is retried on a new connection or redirected, the timings are the ones of the last request.
+ *
+ * @author amuller
+ */
+public class PhaseTimings {
+
+	private long connectStart = -1;
+	private long resolved = -1;
+	private long connected = -1;
+	private long secured = -1;
+	private long requestStart = -1;
+	private long requestSent = -1;
+	private long firstByte = -1;
+
+	void connectStarted() {
+		connectStart = System.nanoTime();
+		resolved = -1;
+		connected = -1;
+		secured = -1;
+	}
+
+	void resolved() {
+		resolved = System.nanoTime();
+	}
+
+	void connected() {
+		connected = System.nanoTime();
+	}
+
+	void secured() {
+		secured = System.nanoTime();
+	}
+
+	void requestStarted() {
+		requestStart = System.nanoTime();
+		requestSent = -1;
+		firstByte = -1;
+	}
+
+	void requestSent() {
+		requestSent = System.nanoTime();
+	}
+
+	void firstByteReceived() {
+		firstByte = System.nanoTime();
+	}
+
+	public long getDnsNanos() {
+		return (connectStart == -1) ? getReusedNanos() : between(connectStart, resolved);
+	}
+
+	public long getConnectNanos() {
+		return (connectStart == -1) ? getReusedNanos() : between(resolved, connected);
+	}
+
+	public long getTlsNanos() {
+		if (connectStart == -1) {
+			return getReusedNanos();
+		}
+		if (secured == -1) {
+			// Plain connection
+			return (connected == -1) ? -1 : 0;
+		}
+		return between(connected, secured);
+	}
+
+	/**
+	 * @return the time spent writing the request (head and body)
+	 */
+	public long getSendNanos() {
+		return between(requestStart, requestSent);
+	}
+
+	/**
+	 * @return the time between the end of the request and the first byte of the response
+	 */
+	public long getWaitNanos() {
+		return between(requestSent, firstByte);
+	}
+
+	/**
+	 * @return the timestamp of the first byte of the response, -1 if not received
+	 */
+	public long getFirstByteNanos() {
+		return firstByte;
+	}
+
+	private long getReusedNanos() {
+		return (requestStart == -1) ? -1 : 0;
+	}
+
+	private static long between(final long start, final long end) {
+		return (start == -1 || end == -1) ? -1 : end - start;
+	}
+}
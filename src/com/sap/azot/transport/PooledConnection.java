@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.transport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Proxy;
+import java.net.Socket;
+
+/**
+ * A keep-alive connection managed by {@link PooledHttpTransport}.
+ *
+ * @author amuller
+ */
+class PooledConnection {
+
+	private final String key;
+	private final Socket socket;
+	private final Proxy httpProxy;
+	private final InputStream in;
+	private final OutputStream out;
+
+	private int requestCount = 0;
+	private long lastUsed = System.currentTimeMillis();
+
+	/**
+	 * @param key
+	 * @param socket
+	 * @param httpProxy HTTP proxy the requests are sent to, <code>null</code> if the connection is direct or tunneled
+	 * @throws IOException
+	 */
+	PooledConnection(final String key, final Socket socket, final Proxy httpProxy) throws IOException {
+		this.key = key;
+		this.socket = socket;
+		this.httpProxy = httpProxy;
+		this.in = new BufferedInputStream(socket.getInputStream(), 8192);
+		this.out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+	}
+
+	String getKey() {
+		return key;
+	}
+
+	/**
+	 * HTTP proxy the requests are sent to (with an absolute URI), <code>null</code> if the connection is direct
+	 * or tunneled.
+	 *
+	 * @return
+	 */
+	Proxy getHttpProxy() {
+		return httpProxy;
+	}
+
+	InputStream getInputStream() {
+		return in;
+	}
+
+	OutputStream getOutputStream() {
+		return out;
+	}
+
+	/**
+	 * Number of requests already sent on this connection.
+	 *
+	 * @return
+	 */
+	int getRequestCount() {
+		return requestCount;
+	}
+
+	void startRequest() {
+		requestCount++;
+	}
+
+	long getLastUsed() {
+		return lastUsed;
+	}
+
+	void touch() {
+		lastUsed = System.currentTimeMillis();
+	}
+
+	boolean isOpen() {
+		return !socket.isClosed() && socket.isConnected() && !socket.isInputShutdown() && !socket.isOutputShutdown();
+	}
+
+	void close() {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// Nothing to do
+		}
+	}
+}
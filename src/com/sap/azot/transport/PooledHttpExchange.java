@@ -0,0 +1,797 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Authenticator;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.ProtocolException;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HTTP/1.1 exchange sent on a connection of a {@link PooledHttpTransport}.
+ *
+ * Redirects and Basic authentication challenges are followed like {@link HttpURLConnection} does, unless the request
+ * body is streamed.
+ *
+ * @author amuller
+ */
+class PooledHttpExchange implements HttpExchange {
+
+	private static final String DEFAULT_ACCEPT = "text/html, image/gif, image/jpeg, *; q=.2, */*; q=.2";
+
+	/** Maximum number of redirects (and authentication retries), like HttpURLConnection */
+	private static final int MAX_REDIRECTS = Integer.getInteger("http.maxRedirects", 20);
+
+	/** Maximum number of unread bytes drained to keep a connection alive */
+	private static final int MAX_DRAIN = 64 * 1024;
+
+	/** Streaming modes of the request body */
+	private static final long NOT_STREAMED = -2;
+	private static final long CHUNKED = -1;
+
+	private static final byte[] CRLF = {'\r', '\n'};
+	private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+	private final PooledHttpTransport transport;
+	private URL url;
+	private String method;
+
+	private final List<String[]> requestHeaders = new ArrayList<String[]>();
+	private ByteArrayOutputStream requestBody = null;
+	private long streamedLength = NOT_STREAMED;
+	private StreamingOutputStream streamedBody = null;
+
+	private boolean sent = false;
+	private PooledConnection connection = null;
+
+	private String statusLine = null;
+	private int responseCode = -1;
+	private final Map<String, List<String>> responseHeaders = new LinkedHashMap<String, List<String>>();
+	private BodyInputStream responseStream = null;
+
+	private final PhaseTimings timings = new PhaseTimings();
+
+	private final TransportStats stats = new TransportStats();
+
+	PooledHttpExchange(final PooledHttpTransport transport, final URL url, final String method) {
+		this.transport = transport;
+		this.url = url;
+		this.method = (method == null) ? "GET" : method.toUpperCase();
+	}
+
+	@Override
+	public void setRequestHeader(final String name, final String value) {
+		if (name == null) {
+			return;
+		}
+		for (final String[] header : requestHeaders) {
+			if (header[0].equalsIgnoreCase(name)) {
+				header[1] = value;
+				return;
+			}
+		}
+		requestHeaders.add(new String[] {name, value});
+	}
+
+	@Override
+	public void setFixedLengthStreamingMode(final long contentLength) {
+		if (contentLength < 0) {
+			throw new IllegalArgumentException("Invalid content length: " + contentLength);
+		}
+		checkNotWritten();
+		streamedLength = contentLength;
+	}
+
+	@Override
+	public void setChunkedStreamingMode() {
+		checkNotWritten();
+		streamedLength = CHUNKED;
+	}
+
+	private void checkNotWritten() {
+		if (sent || requestBody != null || streamedBody != null) {
+			throw new IllegalStateException("Request body already written");
+		}
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		if (streamedLength != NOT_STREAMED) {
+			if (streamedBody == null) {
+				if (sent) {
+					throw new IOException("Request already sent");
+				}
+				// The head is sent right now: a streamed request cannot be retried, so it is not sent on an idle
+				// connection the server may have closed
+				connection = transport.connect(url, timings, stats);
+				try {
+					writeRequest(connection);
+				} catch (final IOException e) {
+					transport.release(connection, false, stats);
+					connection = null;
+					throw e;
+				}
+				streamedBody = new StreamingOutputStream(connection.getOutputStream());
+			}
+			return streamedBody;
+		}
+		if (sent) {
+			throw new IOException("Request already sent");
+		}
+		if (requestBody == null) {
+			requestBody = new ByteArrayOutputStream();
+		}
+		return requestBody;
+	}
+
+	@Override
+	public int getResponseCode() throws IOException {
+		send();
+		return responseCode;
+	}
+
+	@Override
+	public String getStatusLine() throws IOException {
+		send();
+		return statusLine;
+	}
+
+	@Override
+	public Map<String, List<String>> getHeaderFields() throws IOException {
+		send();
+		return Collections.unmodifiableMap(responseHeaders);
+	}
+
+	@Override
+	public String getHeaderField(final String name) throws IOException {
+		send();
+		if (name == null) {
+			return statusLine;
+		}
+		String value = null;
+		for (final Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+			if (name.equalsIgnoreCase(header.getKey())) {
+				final List<String> values = header.getValue();
+				value = values.get(values.size() - 1);
+			}
+		}
+		return value;
+	}
+
+	@Override
+	public InputStream getResponseStream() throws IOException {
+		send();
+		return responseStream;
+	}
+
+	@Override
+	public PhaseTimings getTimings() {
+		return timings;
+	}
+
+	@Override
+	public TransportStats getStats() {
+		return stats;
+	}
+
+	@Override
+	public void close() {
+		if (responseStream != null) {
+			responseStream.close();
+		} else if (connection != null) {
+			transport.release(connection, false, stats);
+			connection = null;
+		}
+	}
+
+	private void send() throws IOException {
+		if (sent) {
+			return;
+		}
+		sent = true;
+
+		if (streamedBody != null) {
+			// Neither retried nor redirected: the body cannot be sent again
+			try {
+				streamedBody.close();
+				timings.requestSent();
+				readResponseHead(connection);
+			} catch (final IOException e) {
+				transport.release(connection, false, stats);
+				connection = null;
+				throw e;
+			}
+			return;
+		}
+
+		int retries = 0;
+		while (true) {
+			exchange();
+			final URL redirect = getRedirect();
+			if (redirect == null && !authenticate()) {
+				return;
+			}
+			if (retries++ >= MAX_REDIRECTS) {
+				throw new ProtocolException("Server redirected too many times (" + MAX_REDIRECTS + ")");
+			}
+
+			// Drain the body to give back the connection before sending the request again
+			responseStream.close();
+			responseStream = null;
+			if (redirect != null) {
+				if ("POST".equals(method) && responseCode != 307) {
+					// Like HttpURLConnection
+					method = "GET";
+					requestBody = null;
+				}
+				url = redirect;
+			}
+		}
+	}
+
+	/**
+	 * Send the request and read the response head, again on a new connection if a kept-alive one was closed by the server.
+	 */
+	private void exchange() throws IOException {
+		statusLine = null;
+		responseCode = -1;
+		responseHeaders.clear();
+
+		connection = transport.acquire(url, timings, stats);
+		final boolean reused = connection.getRequestCount() > 0;
+		boolean written = false;
+		try {
+			writeRequest(connection);
+			written = true;
+			readResponseHead(connection);
+		} catch (final IOException e) {
+			transport.release(connection, false, stats);
+			connection = null;
+			// Not retried if the server may have processed a request that is not idempotent
+			if (!reused || statusLine != null || (written && !isIdempotent())) {
+				throw e;
+			}
+			// The server has closed the idle connection: retry once on a new one
+			connection = transport.connect(url, timings, stats);
+			try {
+				writeRequest(connection);
+				readResponseHead(connection);
+			} catch (final IOException e2) {
+				transport.release(connection, false, stats);
+				connection = null;
+				throw e2;
+			}
+		}
+	}
+
+	private boolean isIdempotent() {
+		return "GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method) || "PUT".equals(method) || "DELETE".equals(method)
+				|| "TRACE".equals(method);
+	}
+
+	/**
+	 * @return the URL the response redirects to (followed like {@link HttpURLConnection} does: same protocol only),
+	 *         <code>null</code> if it is not followed
+	 */
+	private URL getRedirect() {
+		if (!HttpURLConnection.getFollowRedirects() || responseCode < 300 || responseCode > 307 || responseCode == 304 || responseCode == 305
+				|| responseCode == 306) {
+			return null;
+		}
+		final String location = getHeaderValue("Location");
+		if (location == null) {
+			return null;
+		}
+		try {
+			final URL redirect = new URL(url, location);
+			return redirect.getProtocol().equalsIgnoreCase(url.getProtocol()) ? redirect : null;
+		} catch (final MalformedURLException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Ask the default {@link Authenticator} for Basic credentials if the server (401) or the proxy (407) requires some.
+	 *
+	 * @return <code>true</code> if new credentials were given (the request must be sent again)
+	 */
+	private boolean authenticate() {
+		final String key;
+		final String challengeHeader;
+		final String host;
+		final int port;
+		final Authenticator.RequestorType type;
+		if (responseCode == 401 && !hasRequestHeader("Authorization")) {
+			key = PooledHttpTransport.getOrigin(url);
+			challengeHeader = "WWW-Authenticate";
+			host = url.getHost();
+			port = PooledHttpTransport.getPort(url);
+			type = Authenticator.RequestorType.SERVER;
+		} else if (responseCode == 407 && connection != null && connection.getHttpProxy() != null && !hasRequestHeader("Proxy-Authorization")) {
+			final Proxy proxy = connection.getHttpProxy();
+			key = PooledHttpTransport.getProxyKey(proxy);
+			challengeHeader = "Proxy-Authenticate";
+			host = ((InetSocketAddress) proxy.address()).getHostString();
+			port = ((InetSocketAddress) proxy.address()).getPort();
+			type = Authenticator.RequestorType.PROXY;
+		} else {
+			return false;
+		}
+
+		final String authorization = BasicAuthentication.getAuthorization(getHeaderValues(challengeHeader), host, port, url, type);
+		if (authorization == null || authorization.equals(transport.getAuthorization(key))) {
+			// No credentials, or the ones already sent were refused
+			return false;
+		}
+		transport.setAuthorization(key, authorization);
+		return true;
+	}
+
+	private boolean hasRequestHeader(final String name) {
+		for (final String[] header : requestHeaders) {
+			if (header[0].equalsIgnoreCase(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void writeRequest(final PooledConnection connection) throws IOException {
+		connection.startRequest();
+		timings.requestStarted();
+
+		final StringBuilder head = new StringBuilder(256);
+		String file = url.getFile();
+		if (file == null || file.isEmpty()) {
+			file = "/";
+		}
+		final Proxy httpProxy = connection.getHttpProxy();
+		if (httpProxy != null) {
+			// Absolute URI for the proxy
+			head.append(method).append(' ').append(url.getProtocol()).append("://").append(url.getHost());
+			if (url.getPort() != -1) {
+				head.append(':').append(url.getPort());
+			}
+			head.append(file).append(" HTTP/1.1\r\n");
+		} else {
+			head.append(method).append(' ').append(file).append(" HTTP/1.1\r\n");
+		}
+
+		head.append("Host: ").append(url.getHost());
+		if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+			head.append(':').append(url.getPort());
+		}
+		head.append("\r\n");
+
+		boolean hasUserAgent = false;
+		boolean hasAccept = false;
+		boolean hasContentType = false;
+		boolean hasAuthorization = false;
+		boolean hasProxyAuthorization = false;
+		for (final String[] header : requestHeaders) {
+			final String name = header[0];
+			if ("Host".equalsIgnoreCase(name) || "Content-Length".equalsIgnoreCase(name) || "Connection".equalsIgnoreCase(name) || "Transfer-Encoding".equalsIgnoreCase(name)) {
+				continue;
+			}
+			hasUserAgent |= "User-Agent".equalsIgnoreCase(name);
+			hasAccept |= "Accept".equalsIgnoreCase(name);
+			hasContentType |= "Content-Type".equalsIgnoreCase(name);
+			hasAuthorization |= "Authorization".equalsIgnoreCase(name);
+			hasProxyAuthorization |= "Proxy-Authorization".equalsIgnoreCase(name);
+			head.append(name).append(": ").append(header[1] == null ? "" : header[1]).append("\r\n");
+		}
+		if (!hasUserAgent) {
+			head.append("User-Agent: Azot\r\n");
+		}
+		if (!hasAccept) {
+			head.append("Accept: ").append(DEFAULT_ACCEPT).append("\r\n");
+		}
+		// Credentials accepted before (see authenticate())
+		final String authorization = hasAuthorization ? null : transport.getAuthorization(PooledHttpTransport.getOrigin(url));
+		if (authorization != null) {
+			head.append("Authorization: ").append(authorization).append("\r\n");
+		}
+		final String proxyAuthorization = (httpProxy == null || hasProxyAuthorization) ? null : transport.getAuthorization(PooledHttpTransport.getProxyKey(httpProxy));
+		if (proxyAuthorization != null) {
+			head.append("Proxy-Authorization: ").append(proxyAuthorization).append("\r\n");
+		}
+		if (requestBody != null || streamedLength != NOT_STREAMED) {
+			if (!hasContentType) {
+				head.append("Content-Type: application/x-www-form-urlencoded\r\n");
+			}
+			if (streamedLength == CHUNKED) {
+				head.append("Transfer-Encoding: chunked\r\n");
+			} else if (streamedLength != NOT_STREAMED) {
+				head.append("Content-Length: ").append(streamedLength).append("\r\n");
+			} else {
+				head.append("Content-Length: ").append(requestBody.size()).append("\r\n");
+			}
+		}
+		head.append("Connection: keep-alive\r\n");
+		head.append("\r\n");
+
+		final OutputStream out = connection.getOutputStream();
+		out.write(head.toString().getBytes("ISO-8859-1"));
+		if (requestBody != null) {
+			requestBody.writeTo(out);
+		}
+		if (streamedLength == NOT_STREAMED) {
+			out.flush();
+			timings.requestSent();
+		}
+	}
+
+	private void readResponseHead(final PooledConnection connection) throws IOException {
+		final InputStream in = connection.getInputStream();
+
+		// Time to first byte: wait for a byte without consuming it
+		in.mark(1);
+		if (in.read() != -1) {
+			timings.firstByteReceived();
+		}
+		in.reset();
+
+		// Skip the informational responses (100 Continue...)
+		do {
+			statusLine = null;
+			responseHeaders.clear();
+
+			final String line = readLine(in);
+			if (line == null) {
+				throw new EOFException("Connection closed by server");
+			}
+			statusLine = line;
+			responseCode = parseResponseCode(line);
+
+			String headerLine;
+			while ((headerLine = readLine(in)) != null && !headerLine.isEmpty()) {
+				final int index = headerLine.indexOf(':');
+				if (index > 0) {
+					final String name = headerLine.substring(0, index).trim();
+					final String value = headerLine.substring(index + 1).trim();
+					List<String> values = responseHeaders.get(name);
+					if (values == null) {
+						values = new ArrayList<String>(1);
+						responseHeaders.put(name, values);
+					}
+					values.add(value);
+				}
+			}
+		} while (responseCode >= 100 && responseCode < 200 && responseCode != 101);
+
+		final List<String> statusValues = new ArrayList<String>(1);
+		statusValues.add(statusLine);
+		responseHeaders.put(null, statusValues);
+
+		// Keep-alive is the default behavior since HTTP/1.1
+		final String connectionHeader = getHeaderValue("Connection");
+		boolean reusable;
+		if (statusLine.startsWith("HTTP/1.0")) {
+			reusable = connectionHeader != null && connectionHeader.equalsIgnoreCase("keep-alive");
+		} else {
+			reusable = connectionHeader == null || !connectionHeader.equalsIgnoreCase("close");
+		}
+
+		final String transferEncoding = getHeaderValue("Transfer-Encoding");
+		final String contentLength = getHeaderValue("Content-Length");
+		if ("HEAD".equals(method) || responseCode == 204 || responseCode == 304) {
+			responseStream = new FixedLengthInputStream(in, 0, reusable);
+		}
+		else if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+			responseStream = new ChunkedInputStream(in, reusable);
+		}
+		else if (contentLength != null) {
+			long length;
+			try {
+				length = Long.parseLong(contentLength.trim());
+			} catch (final NumberFormatException e) {
+				throw new IOException("Invalid Content-Length: " + contentLength);
+			}
+			responseStream = new FixedLengthInputStream(in, length, reusable);
+		}
+		else {
+			// Body delimited by the end of the connection
+			responseStream = new FixedLengthInputStream(in, -1, false);
+		}
+	}
+
+	private List<String> getHeaderValues(final String name) {
+		for (final Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+			if (header.getKey() != null && name.equalsIgnoreCase(header.getKey())) {
+				return header.getValue();
+			}
+		}
+		return null;
+	}
+
+	private String getHeaderValue(final String name) {
+		for (final Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+			if (header.getKey() != null && name.equalsIgnoreCase(header.getKey())) {
+				final List<String> values = header.getValue();
+				return values.get(values.size() - 1);
+			}
+		}
+		return null;
+	}
+
+	static int parseResponseCode(final String statusLine) throws IOException {
+		final String[] parts = statusLine.split(" ", 3);
+		if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+			throw new IOException("Invalid status line: " + statusLine);
+		}
+		try {
+			return Integer.parseInt(parts[1]);
+		} catch (final NumberFormatException e) {
+			throw new IOException("Invalid status line: " + statusLine);
+		}
+	}
+
+	/**
+	 * Read a CRLF (or LF) terminated line, <code>null</code> at the end of the stream.
+	 */
+	static String readLine(final InputStream in) throws IOException {
+		final StringBuilder line = new StringBuilder(64);
+		int c;
+		while ((c = in.read()) != -1) {
+			if (c == '\n') {
+				final int length = line.length();
+				if (length > 0 && line.charAt(length - 1) == '\r') {
+					line.setLength(length - 1);
+				}
+				return line.toString();
+			}
+			if (line.length() > 65536) {
+				throw new IOException("Line too long");
+			}
+			line.append((char) c);
+		}
+		return (line.length() == 0) ? null : line.toString();
+	}
+
+	/**
+	 * Request body written directly on the connection (fixed length or chunked).
+	 */
+	class StreamingOutputStream extends OutputStream {
+
+		private final OutputStream out;
+		private long written = 0;
+		private boolean closed = false;
+
+		StreamingOutputStream(final OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			if (closed) {
+				throw new IOException("Stream closed");
+			}
+			if (len == 0) {
+				return;
+			}
+			if (streamedLength == CHUNKED) {
+				out.write((Integer.toHexString(len) + "\r\n").getBytes("ISO-8859-1"));
+				out.write(b, off, len);
+				out.write(CRLF);
+			} else {
+				if (written + len > streamedLength) {
+					throw new IOException("Too many bytes written: " + (written + len) + " > " + streamedLength);
+				}
+				out.write(b, off, len);
+			}
+			written += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (!closed) {
+				out.flush();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			if (streamedLength == CHUNKED) {
+				out.write(LAST_CHUNK);
+			} else if (written != streamedLength) {
+				// Not marked as closed: the response is never read on this connection
+				throw new IOException("Content-Length mismatch: " + written + " bytes written, " + streamedLength + " expected");
+			}
+			out.flush();
+			closed = true;
+		}
+	}
+
+	/**
+	 * Response body giving back the connection to the pool once fully read or closed.
+	 */
+	abstract class BodyInputStream extends InputStream {
+
+		protected final InputStream in;
+		private final boolean reusable;
+		protected boolean eof = false;
+		private boolean closed = false;
+
+		BodyInputStream(final InputStream in, final boolean reusable) {
+			this.in = in;
+			this.reusable = reusable;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] b = new byte[1];
+			final int n = read(b, 0, 1);
+			return (n <= 0) ? -1 : (b[0] & 0xFF);
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if (closed) {
+				throw new IOException("Stream closed");
+			}
+			if (eof) {
+				return -1;
+			}
+			if (len == 0) {
+				return 0;
+			}
+			final int n = readBody(b, off, len);
+			if (n < 0) {
+				eof = true;
+			}
+			return n;
+		}
+
+		protected abstract int readBody(byte[] b, int off, int len) throws IOException;
+
+		@Override
+		public void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+
+			boolean keepAlive = reusable;
+			if (keepAlive && !eof) {
+				// Drain the remaining bytes (if not too many) to keep the connection alive
+				try {
+					final byte[] buffer = new byte[4096];
+					int drained = 0;
+					int n;
+					while (drained <= MAX_DRAIN && (n = readBody(buffer, 0, buffer.length)) >= 0) {
+						drained += n;
+					}
+					keepAlive = drained <= MAX_DRAIN;
+				} catch (final IOException e) {
+					keepAlive = false;
+				}
+			}
+
+			if (connection != null) {
+				transport.release(connection, keepAlive, stats);
+				connection = null;
+			}
+		}
+	}
+
+	class FixedLengthInputStream extends BodyInputStream {
+
+		private long remaining;
+
+		/**
+		 * @param length length of the body, -1 to read until the end of the stream
+		 */
+		FixedLengthInputStream(final InputStream in, final long length, final boolean reusable) {
+			super(in, reusable);
+			this.remaining = length;
+		}
+
+		@Override
+		protected int readBody(final byte[] b, final int off, final int len) throws IOException {
+			if (remaining == 0) {
+				return -1;
+			}
+			final int toRead = (remaining < 0) ? len : (int) Math.min(len, remaining);
+			final int n = in.read(b, off, toRead);
+			if (n < 0) {
+				if (remaining > 0) {
+					throw new EOFException("Unexpected end of response body");
+				}
+				return -1;
+			}
+			if (remaining > 0) {
+				remaining -= n;
+			}
+			return n;
+		}
+
+		@Override
+		public int available() throws IOException {
+			final int available = in.available();
+			return (remaining < 0) ? available : (int) Math.min(available, remaining);
+		}
+	}
+
+	class ChunkedInputStream extends BodyInputStream {
+
+		private long chunkRemaining = 0;
+		private boolean lastChunk = false;
+
+		ChunkedInputStream(final InputStream in, final boolean reusable) {
+			super(in, reusable);
+		}
+
+		@Override
+		protected int readBody(final byte[] b, final int off, final int len) throws IOException {
+			if (lastChunk) {
+				return -1;
+			}
+			if (chunkRemaining == 0) {
+				final String sizeLine = readLine(in);
+				if (sizeLine == null) {
+					throw new EOFException("Unexpected end of chunked body");
+				}
+				final int extension = sizeLine.indexOf(';');
+				final String size = (extension >= 0) ? sizeLine.substring(0, extension) : sizeLine;
+				try {
+					chunkRemaining = Long.parseLong(size.trim(), 16);
+				} catch (final NumberFormatException e) {
+					throw new IOException("Invalid chunk size: " + sizeLine);
+				}
+				if (chunkRemaining == 0) {
+					// Trailers
+					String trailer;
+					while ((trailer = readLine(in)) != null && !trailer.isEmpty()) {
+						// Ignored
+					}
+					lastChunk = true;
+					return -1;
+				}
+			}
+			final int n = in.read(b, off, (int) Math.min(len, chunkRemaining));
+			if (n < 0) {
+				throw new EOFException("Unexpected end of chunked body");
+			}
+			chunkRemaining -= n;
+			if (chunkRemaining == 0) {
+				// CRLF after the chunk data
+				readLine(in);
+			}
+			return n;
+		}
+	}
+}
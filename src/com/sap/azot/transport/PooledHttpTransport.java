@@ -0,0 +1,440 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Authenticator;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * HTTP/1.1 transport keeping the connections alive per host.
+ *
+ * Like {@link java.net.HttpURLConnection}, the proxies are chosen by the default {@link ProxySelector}
+ * (<code>http.proxyHost</code>, <code>https.proxyHost</code>, <code>http.nonProxyHosts</code>, <code>socksProxyHost</code>...),
+ * HTTPS goes through HTTP proxies in a <code>CONNECT</code> tunnel, and Basic credentials are asked to the default
+ * {@link Authenticator} (then sent preemptively to the same server or proxy).
+ *
+ * @author amuller
+ */
+public class PooledHttpTransport implements HttpTransport {
+
+	private final int maxIdlePerHost;
+	private final long idleTimeout;
+	private final int maxRequestsPerConnection;
+
+	private final Map<String, LinkedList<PooledConnection>> idleConnections = new ConcurrentHashMap<String, LinkedList<PooledConnection>>();
+
+	/** Basic authorizations by origin or by proxy */
+	private final Map<String, String> authorizations = new ConcurrentHashMap<String, String>();
+
+	private final TransportStats stats = new TransportStats();
+
+	private final Timer evictor;
+
+	/**
+	 * @param maxIdlePerHost maximum number of idle connections kept per host
+	 * @param idleTimeout time (in ms) after which an idle connection is closed (0 to keep them forever)
+	 * @param maxRequestsPerConnection maximum number of requests sent on a connection (0 for no limit)
+	 */
+	public PooledHttpTransport(final int maxIdlePerHost, final long idleTimeout, final int maxRequestsPerConnection) {
+		this.maxIdlePerHost = maxIdlePerHost;
+		this.idleTimeout = idleTimeout;
+		this.maxRequestsPerConnection = maxRequestsPerConnection;
+
+		if (idleTimeout > 0) {
+			evictor = new Timer("AzotConnectionEvictor", true);
+			final long period = Math.max(idleTimeout / 2, 100);
+			evictor.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					evictIdleConnections();
+				}
+			}, period, period);
+		} else {
+			evictor = null;
+		}
+	}
+
+	@Override
+	public HttpExchange open(final URL url, final String method) throws IOException {
+		final String protocol = url.getProtocol();
+		if (!"http".equalsIgnoreCase(protocol) && !"https".equalsIgnoreCase(protocol)) {
+			throw new IOException("Unsupported protocol: " + protocol);
+		}
+		return new PooledHttpExchange(this, url, method);
+	}
+
+	@Override
+	public TransportStats getStats() {
+		return stats;
+	}
+
+	@Override
+	public void close() {
+		if (evictor != null) {
+			evictor.cancel();
+		}
+		for (final LinkedList<PooledConnection> connections : idleConnections.values()) {
+			synchronized (connections) {
+				for (final PooledConnection connection : connections) {
+					connection.close();
+				}
+				connections.clear();
+			}
+		}
+	}
+
+	/**
+	 * Return an idle connection to the host of the given URL (through the same proxy) or open a new one.
+	 *
+	 * @param url
+	 * @param timings
+	 * @param exchangeStats statistics of the exchange, counted with the ones of the transport
+	 * @return
+	 * @throws IOException
+	 */
+	PooledConnection acquire(final URL url, final PhaseTimings timings, final TransportStats exchangeStats) throws IOException {
+		final URI uri = toURI(url);
+		final List<Proxy> proxies = selectProxies(uri);
+		final String key = getKey(url, proxies.get(0));
+		final LinkedList<PooledConnection> connections = idleConnections.get(key);
+		if (connections != null) {
+			final long now = System.currentTimeMillis();
+			synchronized (connections) {
+				while (!connections.isEmpty()) {
+					// Most recently used first: it is the most likely to be still open on server side
+					final PooledConnection connection = connections.removeLast();
+					if (connection.isOpen() && !isExpired(connection, now)) {
+						stats.hit();
+						exchangeStats.hit();
+						return connection;
+					}
+					connection.close();
+					stats.evict();
+					exchangeStats.evict();
+				}
+			}
+		}
+		return connect(url, uri, proxies, timings, exchangeStats);
+	}
+
+	/**
+	 * Open a new connection to the host of the given URL.
+	 *
+	 * @param url
+	 * @param timings
+	 * @param exchangeStats statistics of the exchange, counted with the ones of the transport
+	 * @return
+	 * @throws IOException
+	 */
+	PooledConnection connect(final URL url, final PhaseTimings timings, final TransportStats exchangeStats) throws IOException {
+		final URI uri = toURI(url);
+		return connect(url, uri, selectProxies(uri), timings, exchangeStats);
+	}
+
+	/**
+	 * Open a new connection through the first proxy that can be reached (in the order of the {@link ProxySelector}).
+	 */
+	private PooledConnection connect(final URL url, final URI uri, final List<Proxy> proxies, final PhaseTimings timings,
+			final TransportStats exchangeStats) throws IOException {
+		stats.miss();
+		exchangeStats.miss();
+
+		IOException failure = null;
+		for (final Proxy proxy : proxies) {
+			try {
+				return connect(url, proxy, timings);
+			} catch (final IOException e) {
+				if (proxy.type() != Proxy.Type.DIRECT && uri != null && ProxySelector.getDefault() != null) {
+					ProxySelector.getDefault().connectFailed(uri, proxy.address(), e);
+				}
+				failure = e;
+			}
+		}
+		throw failure;
+	}
+
+	private PooledConnection connect(final URL url, final Proxy proxy, final PhaseTimings timings) throws IOException {
+		final boolean secure = "https".equalsIgnoreCase(url.getProtocol());
+		final String host = url.getHost();
+		final int port = getPort(url);
+
+		// Resolved first, so that the DNS resolution is measured apart from the TCP connect
+		timings.connectStarted();
+		final InetSocketAddress address;
+		if (proxy.type() == Proxy.Type.HTTP) {
+			final InetSocketAddress proxyAddress = (InetSocketAddress) proxy.address();
+			address = proxyAddress.isUnresolved() ? new InetSocketAddress(proxyAddress.getHostString(), proxyAddress.getPort()) : proxyAddress;
+		} else if (proxy.type() == Proxy.Type.SOCKS) {
+			// Resolved by the proxy
+			address = InetSocketAddress.createUnresolved(host, port);
+		} else {
+			address = new InetSocketAddress(InetAddress.getByName(host), port);
+		}
+		timings.resolved();
+
+		Socket socket = openSocket(proxy, address);
+		try {
+			if (secure && proxy.type() == Proxy.Type.HTTP && !tunnel(socket, url, proxy)) {
+				// Credentials given for the proxy: again on a new connection
+				socket.close();
+				socket = openSocket(proxy, address);
+				if (!tunnel(socket, url, proxy)) {
+					throw new IOException("Unable to tunnel through proxy " + proxy.address() + ": authentication failed");
+				}
+			}
+			timings.connected();
+
+			if (secure) {
+				final SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+				final SSLSocket sslSocket = (SSLSocket) factory.createSocket(socket, host, port, true);
+				// Closes the raw socket too
+				socket = sslSocket;
+				final SSLParameters parameters = sslSocket.getSSLParameters();
+				parameters.setEndpointIdentificationAlgorithm("HTTPS");
+				sslSocket.setSSLParameters(parameters);
+				sslSocket.startHandshake();
+				timings.secured();
+			}
+
+			return new PooledConnection(getKey(url, proxy), socket, (!secure && proxy.type() == Proxy.Type.HTTP) ? proxy : null);
+		} catch (final IOException e) {
+			closeQuietly(socket);
+			throw e;
+		} catch (final RuntimeException e) {
+			closeQuietly(socket);
+			throw e;
+		}
+	}
+
+	private static Socket openSocket(final Proxy proxy, final InetSocketAddress address) throws IOException {
+		final Socket socket = (proxy.type() == Proxy.Type.SOCKS) ? new Socket(proxy) : new Socket();
+		try {
+			socket.setTcpNoDelay(true);
+			socket.setKeepAlive(true);
+			socket.connect(address);
+		} catch (final IOException e) {
+			closeQuietly(socket);
+			throw e;
+		}
+		return socket;
+	}
+
+	/**
+	 * Open a tunnel to the host of the given URL through an HTTP proxy (<code>CONNECT</code>).
+	 *
+	 * @return <code>false</code> if the proxy requires credentials and new ones were given by the {@link java.net.Authenticator}
+	 * @throws IOException if the tunnel is refused
+	 */
+	private boolean tunnel(final Socket socket, final URL url, final Proxy proxy) throws IOException {
+		final String target = url.getHost() + ':' + getPort(url);
+		final String authorizationKey = getProxyKey(proxy);
+		final String authorization = authorizations.get(authorizationKey);
+
+		final StringBuilder head = new StringBuilder(128);
+		head.append("CONNECT ").append(target).append(" HTTP/1.1\r\n");
+		head.append("Host: ").append(target).append("\r\n");
+		head.append("User-Agent: Azot\r\n");
+		if (authorization != null) {
+			head.append("Proxy-Authorization: ").append(authorization).append("\r\n");
+		}
+		head.append("\r\n");
+		final OutputStream out = socket.getOutputStream();
+		out.write(head.toString().getBytes("ISO-8859-1"));
+		out.flush();
+
+		// Not buffered: the bytes after the response head belong to the TLS handshake
+		final InputStream in = socket.getInputStream();
+		final String statusLine = PooledHttpExchange.readLine(in);
+		if (statusLine == null) {
+			throw new EOFException("Connection closed by proxy");
+		}
+		final List<String> challenges = new ArrayList<String>(1);
+		String headerLine;
+		while ((headerLine = PooledHttpExchange.readLine(in)) != null && !headerLine.isEmpty()) {
+			if (headerLine.regionMatches(true, 0, "Proxy-Authenticate:", 0, 19)) {
+				challenges.add(headerLine.substring(19).trim());
+			}
+		}
+
+		final int responseCode = PooledHttpExchange.parseResponseCode(statusLine);
+		if (responseCode == 200) {
+			return true;
+		}
+		if (responseCode == 407) {
+			final InetSocketAddress proxyAddress = (InetSocketAddress) proxy.address();
+			final String newAuthorization = BasicAuthentication.getAuthorization(challenges, proxyAddress.getHostString(), proxyAddress.getPort(), url,
+					Authenticator.RequestorType.PROXY);
+			if (newAuthorization != null && !newAuthorization.equals(authorization)) {
+				authorizations.put(authorizationKey, newAuthorization);
+				return false;
+			}
+		}
+		throw new IOException("Unable to tunnel through proxy " + proxy.address() + ". Proxy returns \"" + statusLine + "\"");
+	}
+
+	/**
+	 * @param key origin (see {@link #getOrigin(URL)}) or proxy (see {@link #getProxyKey(Proxy)})
+	 * @return the Basic authorization accepted last time, <code>null</code> if none
+	 */
+	String getAuthorization(final String key) {
+		return authorizations.get(key);
+	}
+
+	void setAuthorization(final String key, final String authorization) {
+		authorizations.put(key, authorization);
+	}
+
+	/**
+	 * Give back a connection once its response has been fully read.
+	 *
+	 * @param connection
+	 * @param reusable <code>false</code> if the connection cannot be used anymore
+	 * @param exchangeStats statistics of the exchange, counted with the ones of the transport
+	 */
+	void release(final PooledConnection connection, final boolean reusable, final TransportStats exchangeStats) {
+		if (!reusable || !connection.isOpen()) {
+			connection.close();
+			return;
+		}
+
+		if (maxRequestsPerConnection > 0 && connection.getRequestCount() >= maxRequestsPerConnection) {
+			connection.close();
+			stats.evict();
+			exchangeStats.evict();
+			return;
+		}
+
+		connection.touch();
+
+		LinkedList<PooledConnection> connections = idleConnections.get(connection.getKey());
+		if (connections == null) {
+			synchronized (idleConnections) {
+				connections = idleConnections.get(connection.getKey());
+				if (connections == null) {
+					connections = new LinkedList<PooledConnection>();
+					idleConnections.put(connection.getKey(), connections);
+				}
+			}
+		}
+
+		synchronized (connections) {
+			if (connections.size() < maxIdlePerHost) {
+				connections.addLast(connection);
+				return;
+			}
+		}
+		connection.close();
+		stats.evict();
+		exchangeStats.evict();
+	}
+
+	/** The idle connections closed in background are not counted by any exchange */
+	private void evictIdleConnections() {
+		final long now = System.currentTimeMillis();
+		for (final LinkedList<PooledConnection> connections : idleConnections.values()) {
+			synchronized (connections) {
+				final Iterator<PooledConnection> iterator = connections.iterator();
+				while (iterator.hasNext()) {
+					final PooledConnection connection = iterator.next();
+					if (!connection.isOpen() || isExpired(connection, now)) {
+						iterator.remove();
+						connection.close();
+						stats.evict();
+					}
+				}
+			}
+		}
+	}
+
+	private boolean isExpired(final PooledConnection connection, final long now) {
+		return idleTimeout > 0 && now - connection.getLastUsed() > idleTimeout;
+	}
+
+	/**
+	 * @param url
+	 * @return the scheme, host and port of the URL
+	 */
+	static String getOrigin(final URL url) {
+		return url.getProtocol().toLowerCase() + "://" + url.getHost().toLowerCase() + ":" + getPort(url);
+	}
+
+	static String getProxyKey(final Proxy proxy) {
+		return "proxy://" + proxy.address();
+	}
+
+	private static String getKey(final URL url, final Proxy proxy) {
+		return (proxy.type() == Proxy.Type.DIRECT) ? getOrigin(url) : getOrigin(url) + " via " + proxy.type() + " " + proxy.address();
+	}
+
+	/**
+	 * @param uri <code>null</code> if the URL cannot be converted
+	 * @return the proxies to try in order, {@link Proxy#NO_PROXY} for a direct connection
+	 */
+	private static List<Proxy> selectProxies(final URI uri) {
+		final ProxySelector selector = ProxySelector.getDefault();
+		if (selector != null && uri != null) {
+			final List<Proxy> proxies = selector.select(uri);
+			if (proxies != null && !proxies.isEmpty()) {
+				return proxies;
+			}
+		}
+		return Collections.singletonList(Proxy.NO_PROXY);
+	}
+
+	private static URI toURI(final URL url) {
+		try {
+			return new URI(url.getProtocol(), null, url.getHost(), getPort(url), "/", null, null);
+		} catch (final URISyntaxException e) {
+			return null;
+		}
+	}
+
+	private static void closeQuietly(final Socket socket) {
+		try {
+			socket.close();
+		} catch (final IOException e) {
+			// Nothing to do
+		}
+	}
+
+	static int getPort(final URL url) {
+		return (url.getPort() == -1) ? url.getDefaultPort() : url.getPort();
+	}
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Body of a response, read in bulk into pooled buffers.
+ *
+ * The body is decoded into text only when {@link #asString()} is called.
+ * {@link #release()} gives back the buffers to the pool.
+ *
+ * @author amuller
+ */
+public class ResponseBody {
+
+	private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<byte[]>();
+
+	private final BufferPool pool;
+	private final Charset charset;
+	private final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>(4);
+	private long length = 0;
+	private String text = null;
+
+	private ResponseBody(final BufferPool pool, final Charset charset) {
+		this.pool = pool;
+		this.charset = charset;
+	}
+
+	/**
+	 * Read the whole stream (and close it).
+	 *
+	 * @param inputStream can be <code>null</code> (empty body)
+	 * @param charset charset used to decode the body
+	 * @param pool
+	 * @return
+	 * @throws IOException
+	 */
+	public static ResponseBody read(final InputStream inputStream, final Charset charset, final BufferPool pool) throws IOException {
+		final ResponseBody body = new ResponseBody(pool, charset);
+		if (inputStream == null) {
+			return body;
+		}
+		try {
+			ByteBuffer buffer = null;
+			for (;;) {
+				if (buffer == null || !buffer.hasRemaining()) {
+					buffer = pool.acquire();
+					body.buffers.add(buffer);
+				}
+				final int n = readInto(inputStream, buffer);
+				if (n < 0) {
+					break;
+				}
+				body.length += n;
+			}
+		} catch (final IOException e) {
+			body.release();
+			throw e;
+		} finally {
+			inputStream.close();
+		}
+		for (final ByteBuffer buffer : body.buffers) {
+			buffer.flip();
+		}
+		return body;
+	}
+
+	/**
+	 * Copy a stream into another one through a pooled buffer.
+	 *
+	 * @return the number of copied bytes
+	 */
+	public static long copy(final InputStream inputStream, final OutputStream outputStream, final BufferPool pool) throws IOException {
+		final ByteBuffer buffer = pool.acquire();
+		try {
+			long count = 0;
+			int n;
+			while ((n = readInto(inputStream, buffer)) >= 0) {
+				buffer.flip();
+				write(buffer, outputStream);
+				buffer.clear();
+				count += n;
+			}
+			return count;
+		} finally {
+			pool.release(buffer);
+		}
+	}
+
+	private static int readInto(final InputStream inputStream, final ByteBuffer buffer) throws IOException {
+		if (buffer.hasArray()) {
+			final int n = inputStream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			if (n > 0) {
+				buffer.position(buffer.position() + n);
+			}
+			return n;
+		}
+		final byte[] scratch = scratch(buffer.remaining());
+		final int n = inputStream.read(scratch, 0, Math.min(scratch.length, buffer.remaining()));
+		if (n > 0) {
+			buffer.put(scratch, 0, n);
+		}
+		return n;
+	}
+
+	private static void write(final ByteBuffer buffer, final OutputStream outputStream) throws IOException {
+		if (buffer.hasArray()) {
+			outputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			return;
+		}
+		final ByteBuffer source = buffer.duplicate();
+		while (source.hasRemaining()) {
+			final byte[] scratch = scratch(source.remaining());
+			final int n = Math.min(scratch.length, source.remaining());
+			source.get(scratch, 0, n);
+			outputStream.write(scratch, 0, n);
+		}
+	}
+
+	private static byte[] scratch(final int size) {
+		byte[] scratch = SCRATCH.get();
+		if (scratch == null) {
+			scratch = new byte[Math.max(size, 8192)];
+			SCRATCH.set(scratch);
+		}
+		return scratch;
+	}
+
+	public long length() {
+		return length;
+	}
+
+	public boolean isEmpty() {
+		return length == 0;
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * Decode the body (only once).
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public String asString() throws IOException {
+		if (text == null) {
+			if (length == 0) {
+				text = "";
+			} else {
+				final StringBuilder builder = new StringBuilder((int) Math.min(length, Integer.MAX_VALUE - 8));
+				final Reader reader = new InputStreamReader(asInputStream(), charset);
+				final char[] chars = new char[4096];
+				int n;
+				while ((n = reader.read(chars)) >= 0) {
+					builder.append(chars, 0, n);
+				}
+				text = builder.toString();
+			}
+		}
+		return text;
+	}
+
+	/**
+	 * Return a stream on the raw bytes of the body (no copy).
+	 *
+	 * @return
+	 */
+	public InputStream asInputStream() {
+		return new InputStream() {
+
+			private int index = 0;
+			private ByteBuffer current = null;
+
+			private ByteBuffer current() {
+				while (current == null || !current.hasRemaining()) {
+					if (index >= buffers.size()) {
+						return null;
+					}
+					current = buffers.get(index++).duplicate();
+				}
+				return current;
+			}
+
+			@Override
+			public int read() throws IOException {
+				final ByteBuffer buffer = current();
+				return (buffer == null) ? -1 : (buffer.get() & 0xFF);
+			}
+
+			@Override
+			public int read(final byte[] b, final int off, final int len) throws IOException {
+				if (len == 0) {
+					return 0;
+				}
+				final ByteBuffer buffer = current();
+				if (buffer == null) {
+					return -1;
+				}
+				final int n = Math.min(len, buffer.remaining());
+				buffer.get(b, off, n);
+				return n;
+			}
+		};
+	}
+
+	/**
+	 * Write the raw bytes of the body (no decoding).
+	 *
+	 * @param outputStream
+	 * @throws IOException
+	 */
+	public void writeTo(final OutputStream outputStream) throws IOException {
+		for (final ByteBuffer buffer : buffers) {
+			write(buffer, outputStream);
+		}
+	}
+
+	/**
+	 * Write the raw bytes of the body (no decoding).
+	 *
+	 * @param channel
+	 * @throws IOException
+	 */
+	public void writeTo(final WritableByteChannel channel) throws IOException {
+		for (final ByteBuffer buffer : buffers) {
+			final ByteBuffer source = buffer.duplicate();
+			while (source.hasRemaining()) {
+				channel.write(source);
+			}
+		}
+	}
+
+	/**
+	 * Give back the buffers to the pool (the decoded text stays available).
+	 */
+	public void release() {
+		for (final ByteBuffer buffer : buffers) {
+			pool.release(buffer);
+		}
+		buffers.clear();
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.transport;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection statistics of a transport, of an exchange or of the calls of a workflow.
+ *
+ * @author amuller
+ */
+public class TransportStats {
+
+	/** Number of requests sent on a reused connection */
+	private final AtomicLong hits = new AtomicLong();
+
+	/** Number of requests which needed a new connection */
+	private final AtomicLong misses = new AtomicLong();
+
+	/** Number of connections closed by the pool (idle, too many requests, pool full) */
+	private final AtomicLong evictions = new AtomicLong();
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	void hit() {
+		hits.incrementAndGet();
+	}
+
+	void miss() {
+		misses.incrementAndGet();
+	}
+
+	void evict() {
+		evictions.incrementAndGet();
+	}
+
+	/**
+	 * Add the given statistics (ex: the ones of an exchange) to these ones.
+	 *
+	 * @param other
+	 */
+	public void add(final TransportStats other) {
+		hits.addAndGet(other.getHits());
+		misses.addAndGet(other.getMisses());
+		evictions.addAndGet(other.getEvictions());
+	}
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2013 Anthony MLLER.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+package com.sap.azot.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transport based on {@link HttpURLConnection} (one connection per request).
+ *
+ * @author amuller
+ */
+public class UrlConnectionTransport implements HttpTransport {
+
+	private final TransportStats stats = new TransportStats();
+
+	@Override
+	public HttpExchange open(final URL url, final String method) throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod(method);
+		connection.setDoOutput(true);
+		stats.miss();
+		final UrlConnectionExchange exchange = new UrlConnectionExchange(connection);
+		exchange.stats.miss();
+		return exchange;
+	}
+
+	@Override
+	public TransportStats getStats() {
+		return stats;
+	}
+
+	@Override
+	public void close() {
+	}
+
+	static class UrlConnectionExchange implements HttpExchange {
+
+		private final HttpURLConnection connection;
+
+		/** Only the wait for the response head is measured (it includes the connection and the request) */
+		private final PhaseTimings timings = new PhaseTimings();
+
+		private final TransportStats stats = new TransportStats();
+
+		UrlConnectionExchange(final HttpURLConnection connection) {
+			this.connection = connection;
+		}
+
+		private void waitResponse() throws IOException {
+			if (timings.getFirstByteNanos() == -1) {
+				timings.requestSent();
+				connection.getResponseCode();
+				timings.firstByteReceived();
+			}
+		}
+
+		@Override
+		public void setRequestHeader(final String name, final String value) {
+			connection.setRequestProperty(name, value);
+		}
+
+		@Override
+		public void setFixedLengthStreamingMode(final long contentLength) {
+			connection.setFixedLengthStreamingMode(contentLength);
+		}
+
+		@Override
+		public void setChunkedStreamingMode() {
+			// Default chunk length
+			connection.setChunkedStreamingMode(0);
+		}
+
+		@Override
+		public OutputStream getOutputStream() throws IOException {
+			return connection.getOutputStream();
+		}
+
+		@Override
+		public int getResponseCode() throws IOException {
+			waitResponse();
+			return connection.getResponseCode();
+		}
+
+		@Override
+		public String getStatusLine() throws IOException {
+			waitResponse();
+			return connection.getHeaderField(null);
+		}
+
+		@Override
+		public Map<String, List<String>> getHeaderFields() throws IOException {
+			waitResponse();
+			return connection.getHeaderFields();
+		}
+
+		@Override
+		public String getHeaderField(final String name) throws IOException {
+			waitResponse();
+			return connection.getHeaderField(name);
+		}
+
+		@Override
+		public InputStream getResponseStream() throws IOException {
+			try {
+				waitResponse();
+			} catch (IOException e) {
+				// The error stream is returned below
+			}
+			InputStream responseStream = null;
+			try {
+				// Normal content (raw stream, no content handler)
+				responseStream = connection.getInputStream();
+			} catch (IOException e) {
+				// Error content
+				responseStream = connection.getErrorStream();
+			}
+			return responseStream;
+		}
+
+		@Override
+		public PhaseTimings getTimings() {
+			return timings;
+		}
+
+		@Override
+		public TransportStats getStats() {
+			return stats;
+		}
+
+		@Override
+		public void close() {
+			connection.disconnect();
+		}
+	}
+}